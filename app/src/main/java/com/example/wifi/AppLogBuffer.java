@@ -2,31 +2,276 @@ package com.example.wifi;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Process-wide in-memory log. Producers claim a sequence number and publish a
+ * structured entry into a fixed-capacity ring without taking a lock; timestamps and
+ * message templates are only turned into text when the log is read.
+ *
+ * <p>The ring is sized once, from the log capacity setting via {@link #setInitialCapacity}.
+ * Entries logged before that are kept in a short list under a lock and become the
+ * first entries of the ring, so the ring never has to be resized while producers
+ * write to it.
+ *
+ * <p>Templates use {@code {}} placeholders, filled from the arguments in order.
+ */
 public final class AppLogBuffer {
-    private static final int MAX_LINES = 200;
-    private static final List<String> LINES = new ArrayList<>();
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int MIN_CAPACITY = 256;
+    public static final int MAX_CAPACITY = 65536;
+    /** Entries held before the capacity is known; past this the default is used. */
+    private static final int MAX_EARLY_ENTRIES = 256;
+
+    private static final ConcurrentHashMap<String, Integer> TAG_IDS = new ConcurrentHashMap<>();
+    private static final Object LOCK = new Object();
+    private static volatile String[] tags = new String[0];
+    // Null until sized; guarded by LOCK while null
+    private static volatile Ring ring;
+    // Guarded by LOCK; null once the ring exists
+    private static List<Entry> early = new ArrayList<>();
 
     private AppLogBuffer() {
     }
 
-    public static synchronized void add(String tag, String message) {
-        String timestamp = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date());
-        String line = "[" + timestamp + "] " + tag + ": " + message;
-        LINES.add(line);
-        if (LINES.size() > MAX_LINES) {
-            LINES.subList(0, LINES.size() - MAX_LINES).clear();
+    public static void add(String tag, String message) {
+        publish(tag, message, null);
+    }
+
+    public static void add(String tag, String template, Object... args) {
+        publish(tag, template, args);
+    }
+
+    /**
+     * Sizes the ring, clamped to {@link #MIN_CAPACITY}..{@link #MAX_CAPACITY}. Only takes
+     * effect while the ring doesn't exist yet; returns false otherwise, in which case the
+     * value applies from the next process start.
+     */
+    public static boolean setInitialCapacity(int capacity) {
+        synchronized (LOCK) {
+            if (ring != null) {
+                return false;
+            }
+            createRing(capacity);
+            return true;
         }
     }
 
-    public static synchronized String getText() {
+    public static String getText() {
+        List<String> lines = new ArrayList<>();
+        readSince(0, lines);
         StringBuilder builder = new StringBuilder();
-        for (String line : LINES) {
+        for (String line : lines) {
             builder.append(line).append('\n');
         }
         return builder.toString();
     }
+
+    /** Sequence number the next published entry will get. */
+    public static long getNextSequence() {
+        Ring current = ring;
+        if (current == null) {
+            synchronized (LOCK) {
+                if (ring == null) {
+                    return early.size();
+                }
+                current = ring;
+            }
+        }
+        return current.next.get();
+    }
+
+    /**
+     * Formats the entries with sequence numbers from {@code fromSeq} onwards into
+     * {@code out}, oldest first, and returns the sequence number to pass next time.
+     * Entries that have already been overwritten are skipped, so the cost depends on
+     * how much is new rather than on how much history the buffer holds. Reading stops at
+     * an entry whose number is claimed but not yet stored, and the returned cursor points
+     * at it so the next call picks it up.
+     */
+    public static long readSince(long fromSeq, List<String> out) {
+        return readSince(fromSeq, out, Integer.MAX_VALUE);
+    }
+
+    /** Like {@link #readSince(long, List)}, but stops after {@code maxLines} lines. */
+    public static long readSince(long fromSeq, List<String> out, int maxLines) {
+        int read = 0;
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+        Date date = new Date();
+        StringBuilder builder = new StringBuilder();
+        Ring current = ring;
+        if (current == null) {
+            synchronized (LOCK) {
+                current = ring;
+                if (current == null) {
+                    for (long seq = Math.max(0, fromSeq); seq < early.size(); seq++) {
+                        if (read++ == maxLines) {
+                            return seq;
+                        }
+                        builder.setLength(0);
+                        early.get((int) seq).appendTo(builder, format, date);
+                        out.add(builder.toString());
+                    }
+                    return Math.max(fromSeq, early.size());
+                }
+            }
+        }
+        long end = current.next.get();
+        long start = Math.max(fromSeq, end - current.capacity());
+        if (start >= end) {
+            return Math.max(fromSeq, end);
+        }
+        for (long seq = Math.max(0, start); seq < end; seq++) {
+            Entry entry = current.slots.get(current.index(seq));
+            if (entry == null || entry.seq < seq) {
+                // Claimed but not yet stored, unless the ring has lapped it since
+                if (seq >= current.next.get() - current.capacity()) {
+                    return seq;
+                }
+                continue;
+            }
+            if (entry.seq > seq) {
+                // Overwritten
+                continue;
+            }
+            if (read++ == maxLines) {
+                return seq;
+            }
+            builder.setLength(0);
+            entry.appendTo(builder, format, date);
+            out.add(builder.toString());
+        }
+        return end;
+    }
+
+    private static void publish(String tag, String template, Object[] args) {
+        long now = System.currentTimeMillis();
+        int tagId = tagId(tag);
+        Ring current = ring;
+        if (current == null) {
+            current = publishEarly(now, tagId, template, args);
+        }
+        if (current != null) {
+            long seq = current.next.getAndIncrement();
+            current.slots.lazySet(current.index(seq), new Entry(seq, now, tagId, template, args));
+        }
+        StatsBus.publish(StatsBus.LOG);
+    }
+
+    /** Holds an entry until the ring is sized; returns the ring instead if it appeared meanwhile. */
+    private static Ring publishEarly(long now, int tagId, String template, Object[] args) {
+        synchronized (LOCK) {
+            if (ring != null) {
+                return ring;
+            }
+            early.add(new Entry(early.size(), now, tagId, template, args));
+            if (early.size() >= MAX_EARLY_ENTRIES) {
+                // Settings never arrived, e.g. off Android; don't hold entries forever
+                createRing(DEFAULT_CAPACITY);
+            }
+            return null;
+        }
+    }
+
+    /** Creates the ring from the early entries. Caller holds LOCK. */
+    private static void createRing(int capacity) {
+        Ring created = new Ring(Math.max(MIN_CAPACITY, Math.min(capacity, MAX_CAPACITY)), early.size());
+        for (Entry entry : early) {
+            created.slots.set(created.index(entry.seq), entry);
+        }
+        early = null;
+        ring = created;
+    }
+
+    private static int tagId(String tag) {
+        String key = tag != null ? tag : "";
+        Integer id = TAG_IDS.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (LOCK) {
+            id = TAG_IDS.get(key);
+            if (id == null) {
+                String[] grown = Arrays.copyOf(tags, tags.length + 1);
+                grown[tags.length] = key;
+                tags = grown;
+                id = tags.length - 1;
+                TAG_IDS.put(key, id);
+            }
+            return id;
+        }
+    }
+
+    private static final class Ring {
+        final AtomicReferenceArray<Entry> slots;
+        final AtomicLong next;
+        final int mask;
+
+        Ring(int capacity, long nextSeq) {
+            int size = 1;
+            while (size < capacity) {
+                size <<= 1;
+            }
+            slots = new AtomicReferenceArray<>(size);
+            next = new AtomicLong(nextSeq);
+            mask = size - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int index(long seq) {
+            return (int) (seq & mask);
+        }
+    }
+
+    private static final class Entry {
+        final long seq;
+        final long timeMillis;
+        final int tagId;
+        final String template;
+        final Object[] args;
+
+        Entry(long seq, long timeMillis, int tagId, String template, Object[] args) {
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.tagId = tagId;
+            this.template = template;
+            this.args = args;
+        }
+
+        void appendTo(StringBuilder builder, SimpleDateFormat format, Date date) {
+            String[] tagNames = tags;
+            date.setTime(timeMillis);
+            builder.append('[').append(format.format(date)).append("] ")
+                .append(tagId < tagNames.length ? tagNames[tagId] : "?").append(": ");
+            appendMessage(builder);
+        }
+
+        private void appendMessage(StringBuilder builder) {
+            if (template == null) {
+                builder.append("null");
+                return;
+            }
+            if (args == null || args.length == 0) {
+                builder.append(template);
+                return;
+            }
+            int argIndex = 0;
+            int from = 0;
+            int at;
+            while (argIndex < args.length && (at = template.indexOf("{}", from)) >= 0) {
+                builder.append(template, from, at).append(args[argIndex++]);
+                from = at + 2;
+            }
+            builder.append(template, from, template.length());
+        }
+    }
 }
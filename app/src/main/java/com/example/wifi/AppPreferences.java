@@ -5,41 +5,201 @@ import android.content.SharedPreferences;
 import android.text.TextUtils;
 
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Persisted settings, served from an in-memory {@link SettingsSnapshot}. {@link #preload}
+ * reads the preferences file once on a background thread and publishes the snapshot;
+ * getters read the published instance and only wait if they race ahead of that first
+ * load. Saves publish a new snapshot immediately.
+ *
+ * <p>Each process has its own snapshot, but only the {@code :engine} process writes the
+ * file: SharedPreferences commits its whole in-memory map, so a second writer would put
+ * back values it loaded earlier. The activity's edits are pushed to the engine through
+ * {@link EngineBinder}, which persists them along with its own, committed together off
+ * the main thread after {@link #FLUSH_DELAY_MS}. Every publish applies log level,
+ * timeouts and tracing, so running services follow edits without re-reading.
+ */
 public final class AppPreferences {
+    private static final String TAG = "AppPreferences";
     private static final String PREFS = "wifi_router_prefs";
     private static final String KEY_SSID = "ssid";
     private static final String KEY_PASSWORD = "password";
     private static final String KEY_PROXY_PORT = "proxy_port";
     private static final String KEY_KEEP_RUNNING = "keep_running";
+    private static final String KEY_TRACE_SAMPLE_RATE = "trace_sample_rate";
+    private static final String KEY_TRACE_CLIENTS = "trace_clients";
+    private static final String KEY_LOG_LEVEL = "log_level";
+    private static final String KEY_LOG_CAPACITY = "log_capacity";
+    private static final String KEY_DIRECT_HOSTS = "direct_hosts";
     private static final String PASSWORD_CHARS = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghjkmnpqrstuvwxyz23456789";
     private static final SecureRandom RANDOM = new SecureRandom();
+    /** Saves arriving within this window share one commit. */
+    private static final long FLUSH_DELAY_MS = 250;
+
+    /** Called on the publishing thread with the new snapshot. */
+    public interface Listener {
+        void onSettingsChanged(SettingsSnapshot settings);
+    }
+
+    private static final Object LOCK = new Object();
+    private static final Object PUBLISH_LOCK = new Object();
+    private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService IO = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, TAG);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static volatile SettingsSnapshot current;
+    // Guarded by LOCK
+    private static Context appContext;
+    private static CountDownLatch loaded;
+    // True in the :engine process, the only one that writes the file
+    private static boolean owner;
+    private static final Set<String> dirtyKeys = new HashSet<>();
+    // Edited in the UI process but not yet sent to the engine
+    private static final Set<String> unpushedKeys = new HashSet<>();
+    private static boolean flushScheduled;
 
     private AppPreferences() {
     }
 
+    /** Starts the one-off background load; later calls return immediately. */
+    public static void preload(Context context) {
+        synchronized (LOCK) {
+            if (loaded != null) {
+                return;
+            }
+            appContext = context.getApplicationContext();
+            loaded = new CountDownLatch(1);
+        }
+        IO.execute(AppPreferences::load);
+    }
+
+    /**
+     * Runs {@code callback} on a background thread with the settings once they have
+     * loaded, for callers that must not wait on the main thread.
+     */
+    public static void whenLoaded(Context context, Consumer<SettingsSnapshot> callback) {
+        preload(context);
+        // Queued behind the load on the same single-thread executor
+        IO.execute(() -> callback.accept(current));
+    }
+
+    /** The current settings, or null before the first load has finished. */
+    public static SettingsSnapshot peek() {
+        return current;
+    }
+
+    /** The current settings, waiting for the first load if it hasn't finished yet. */
+    public static SettingsSnapshot snapshot(Context context) {
+        SettingsSnapshot settings = current;
+        if (settings != null) {
+            return settings;
+        }
+        preload(context);
+        awaitLoad();
+        return current;
+    }
+
+    private static void awaitLoad() {
+        CountDownLatch latch;
+        synchronized (LOCK) {
+            latch = loaded;
+        }
+        if (latch == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Returns and forgets the keys edited in this process since the last call, for
+     * {@link EngineBinder.Client#pushSettings}.
+     */
+    static Set<String> takeUnpushedKeys() {
+        synchronized (LOCK) {
+            Set<String> keys = new HashSet<>(unpushedKeys);
+            unpushedKeys.clear();
+            return keys;
+        }
+    }
+
+    /**
+     * Adopts the given keys from settings edited in the UI process and queues them to be
+     * written. Other keys keep this process's values, which may have been set here, e.g.
+     * a generated hotspot config.
+     */
+    static void publishRemote(SettingsSnapshot settings, Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        awaitLoad();
+        synchronized (LOCK) {
+            SettingsSnapshot.Builder builder = (current != null ? current : settings).toBuilder();
+            for (String key : keys) {
+                copy(builder, key, settings);
+            }
+            current = builder.build();
+            if (owner) {
+                markDirty(keys);
+            }
+        }
+        publish();
+    }
+
     public static String getSsid(Context context) {
-        return getPrefs(context).getString(KEY_SSID, "");
+        return snapshot(context).ssid;
     }
 
     public static String getPassword(Context context) {
-        return getPrefs(context).getString(KEY_PASSWORD, "");
+        return snapshot(context).password;
     }
 
     public static int getProxyPort(Context context) {
-        return getPrefs(context).getInt(KEY_PROXY_PORT, ProxyService.DEFAULT_PORT);
+        return snapshot(context).proxyPort;
     }
 
     public static void saveSsid(Context context, String ssid) {
-        getPrefs(context).edit().putString(KEY_SSID, ssid).apply();
+        edit(context, KEY_SSID, settings -> settings.setSsid(ssid));
     }
 
     public static void savePassword(Context context, String password) {
-        getPrefs(context).edit().putString(KEY_PASSWORD, password).apply();
+        edit(context, KEY_PASSWORD, settings -> settings.setPassword(password));
     }
 
     public static void saveProxyPort(Context context, int port) {
-        getPrefs(context).edit().putInt(KEY_PROXY_PORT, port).apply();
+        edit(context, KEY_PROXY_PORT, settings -> settings.setProxyPort(port));
     }
 
     public static void saveHotspotIfEmpty(Context context, String ssid, String password) {
@@ -52,11 +212,73 @@ public final class AppPreferences {
     }
 
     public static boolean getKeepRunning(Context context) {
-        return getPrefs(context).getBoolean(KEY_KEEP_RUNNING, true);
+        return snapshot(context).keepRunning;
     }
 
     public static void saveKeepRunning(Context context, boolean keep) {
-        getPrefs(context).edit().putBoolean(KEY_KEEP_RUNNING, keep).apply();
+        edit(context, KEY_KEEP_RUNNING, settings -> settings.setKeepRunning(keep));
+    }
+
+    public static long getTimeoutMs(Context context, TimeoutClass timeoutClass) {
+        return snapshot(context).getTimeoutMs(timeoutClass);
+    }
+
+    public static void saveTimeoutMs(Context context, TimeoutClass timeoutClass, long millis) {
+        edit(context, timeoutClass.getPrefKey(), settings -> settings.setTimeoutMs(timeoutClass, millis));
+    }
+
+    public static float getTraceSampleRate(Context context) {
+        return snapshot(context).traceSampleRate;
+    }
+
+    public static Set<String> getTraceClients(Context context) {
+        return snapshot(context).traceClients;
+    }
+
+    public static void saveTraceSampleRate(Context context, float rate) {
+        edit(context, KEY_TRACE_SAMPLE_RATE, settings -> settings.setTraceSampleRate(rate));
+    }
+
+    public static void saveTraceClients(Context context, Set<String> clients) {
+        edit(context, KEY_TRACE_CLIENTS, settings -> settings.setTraceClients(clients));
+    }
+
+    public static RouterLog.Level getLogLevel(Context context) {
+        return snapshot(context).logLevel;
+    }
+
+    public static void saveLogLevel(Context context, RouterLog.Level level) {
+        edit(context, KEY_LOG_LEVEL, settings -> settings.setLogLevel(level));
+    }
+
+    public static int getLogCapacity(Context context) {
+        return snapshot(context).logCapacity;
+    }
+
+    /** Takes effect when each process next starts; see {@link AppLogBuffer#setInitialCapacity}. */
+    public static void saveLogCapacity(Context context, int capacity) {
+        edit(context, KEY_LOG_CAPACITY, settings -> settings.setLogCapacity(capacity));
+    }
+
+    public static Set<String> getDirectHosts(Context context) {
+        return snapshot(context).directHosts;
+    }
+
+    public static void saveDirectHosts(Context context, Set<String> hosts) {
+        edit(context, KEY_DIRECT_HOSTS, settings -> settings.setDirectHosts(hosts));
+    }
+
+    /**
+     * Called by every {@code :engine} entry point: mirrors router logs to logcat, makes
+     * this process the one that writes the file, and starts loading settings, which set
+     * the log level.
+     */
+    public static void initEngineProcess(Context context) {
+        RouterLog.setSink(LogcatSink.INSTANCE);
+        synchronized (LOCK) {
+            owner = true;
+        }
+        preload(context);
     }
 
     public static void ensureDefaultHotspotConfig(Context context) {
@@ -85,6 +307,177 @@ public final class AppPreferences {
         return builder.toString();
     }
 
+    private static void edit(Context context, String key, Consumer<SettingsSnapshot.Builder> change) {
+        snapshot(context);
+        synchronized (LOCK) {
+            SettingsSnapshot.Builder builder = current.toBuilder();
+            change.accept(builder);
+            current = builder.build();
+            if (owner) {
+                markDirty(Collections.singleton(key));
+            } else {
+                unpushedKeys.add(key);
+            }
+        }
+        publish();
+    }
+
+    /** Queues {@code keys} for the next commit. Caller holds LOCK and is the owner. */
+    private static void markDirty(Collection<String> keys) {
+        dirtyKeys.addAll(keys);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            IO.schedule(AppPreferences::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void load() {
+        SettingsSnapshot settings;
+        try {
+            settings = read(getPrefs(appContext));
+        } catch (RuntimeException e) {
+            // Waiting readers must not hang on a broken file; run on defaults instead
+            AppLogBuffer.add(TAG, "Failed to load settings: {}", e.getMessage());
+            settings = new SettingsSnapshot.Builder().build();
+        }
+        AppLogBuffer.setInitialCapacity(settings.logCapacity);
+        boolean adopted;
+        CountDownLatch latch;
+        synchronized (LOCK) {
+            adopted = current == null;
+            if (adopted) {
+                current = settings;
+            }
+            latch = loaded;
+        }
+        if (adopted) {
+            publish();
+        }
+        latch.countDown();
+    }
+
+    private static SettingsSnapshot read(SharedPreferences prefs) {
+        SettingsSnapshot.Builder builder = new SettingsSnapshot.Builder()
+            .setSsid(prefs.getString(KEY_SSID, ""))
+            .setPassword(prefs.getString(KEY_PASSWORD, ""))
+            .setProxyPort(prefs.getInt(KEY_PROXY_PORT, ProxyService.DEFAULT_PORT))
+            .setKeepRunning(prefs.getBoolean(KEY_KEEP_RUNNING, true))
+            .setTraceSampleRate(prefs.getFloat(KEY_TRACE_SAMPLE_RATE, 0f))
+            .setTraceClients(prefs.getStringSet(KEY_TRACE_CLIENTS, Collections.emptySet()))
+            .setLogLevel(parseLevel(prefs.getString(KEY_LOG_LEVEL, RouterLog.Level.INFO.name())))
+            .setLogCapacity(prefs.getInt(KEY_LOG_CAPACITY, AppLogBuffer.DEFAULT_CAPACITY))
+            .setDirectHosts(prefs.getStringSet(KEY_DIRECT_HOSTS, Collections.emptySet()));
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            builder.setTimeoutMs(timeoutClass, prefs.getLong(timeoutClass.getPrefKey(), timeoutClass.getDefaultMillis()));
+        }
+        return builder.build();
+    }
+
+    private static RouterLog.Level parseLevel(String name) {
+        try {
+            return RouterLog.Level.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return RouterLog.Level.INFO;
+        }
+    }
+
+    /** Writes the keys saved since the last flush. */
+    private static void flush() {
+        SettingsSnapshot settings;
+        Set<String> keys;
+        synchronized (LOCK) {
+            flushScheduled = false;
+            if (dirtyKeys.isEmpty()) {
+                return;
+            }
+            settings = current;
+            keys = new HashSet<>(dirtyKeys);
+            dirtyKeys.clear();
+        }
+        SharedPreferences.Editor editor = getPrefs(appContext).edit();
+        for (String key : keys) {
+            put(editor, key, settings);
+        }
+        // Already off the main thread; commit avoids apply()'s wait in the next onPause/onStop
+        if (!editor.commit()) {
+            AppLogBuffer.add(TAG, "Failed to save settings");
+        }
+    }
+
+    private static void put(SharedPreferences.Editor editor, String key, SettingsSnapshot settings) {
+        switch (key) {
+            case KEY_SSID: editor.putString(key, settings.ssid); return;
+            case KEY_PASSWORD: editor.putString(key, settings.password); return;
+            case KEY_PROXY_PORT: editor.putInt(key, settings.proxyPort); return;
+            case KEY_KEEP_RUNNING: editor.putBoolean(key, settings.keepRunning); return;
+            case KEY_TRACE_SAMPLE_RATE: editor.putFloat(key, settings.traceSampleRate); return;
+            case KEY_TRACE_CLIENTS: editor.putStringSet(key, new HashSet<>(settings.traceClients)); return;
+            case KEY_LOG_LEVEL: editor.putString(key, settings.logLevel.name()); return;
+            case KEY_LOG_CAPACITY: editor.putInt(key, settings.logCapacity); return;
+            case KEY_DIRECT_HOSTS: editor.putStringSet(key, new HashSet<>(settings.directHosts)); return;
+            default:
+                break;
+        }
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            if (timeoutClass.getPrefKey().equals(key)) {
+                editor.putLong(key, settings.getTimeoutMs(timeoutClass));
+                return;
+            }
+        }
+    }
+
+    private static void copy(SettingsSnapshot.Builder builder, String key, SettingsSnapshot settings) {
+        switch (key) {
+            case KEY_SSID: builder.setSsid(settings.ssid); return;
+            case KEY_PASSWORD: builder.setPassword(settings.password); return;
+            case KEY_PROXY_PORT: builder.setProxyPort(settings.proxyPort); return;
+            case KEY_KEEP_RUNNING: builder.setKeepRunning(settings.keepRunning); return;
+            case KEY_TRACE_SAMPLE_RATE: builder.setTraceSampleRate(settings.traceSampleRate); return;
+            case KEY_TRACE_CLIENTS: builder.setTraceClients(settings.traceClients); return;
+            case KEY_LOG_LEVEL: builder.setLogLevel(settings.logLevel); return;
+            case KEY_LOG_CAPACITY: builder.setLogCapacity(settings.logCapacity); return;
+            case KEY_DIRECT_HOSTS: builder.setDirectHosts(settings.directHosts); return;
+            default:
+                break;
+        }
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            if (timeoutClass.getPrefKey().equals(key)) {
+                builder.setTimeoutMs(timeoutClass, settings.getTimeoutMs(timeoutClass));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pushes the runtime settings into the engine classes and tells listeners. Always
+     * takes the latest snapshot, so concurrent saves can't apply out of order.
+     */
+    private static void publish() {
+        synchronized (PUBLISH_LOCK) {
+            apply(current);
+        }
+    }
+
+    private static void apply(SettingsSnapshot settings) {
+        RouterLog.setLevel(settings.logLevel);
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            timeoutClass.setMillis(settings.getTimeoutMs(timeoutClass));
+        }
+        ConnectionTrace.setSampleRate(settings.traceSampleRate);
+        for (String ip : ConnectionTrace.getForcedClients()) {
+            if (!settings.traceClients.contains(ip)) {
+                ConnectionTrace.unforceClient(ip);
+            }
+        }
+        for (String ip : settings.traceClients) {
+            ConnectionTrace.forceClient(ip);
+        }
+        PacEndpoint.setDirectHosts(settings.directHosts);
+        for (Listener listener : LISTENERS) {
+            listener.onSettingsChanged(settings);
+        }
+    }
+
     private static SharedPreferences getPrefs(Context context) {
         return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
     }
@@ -0,0 +1,69 @@
+package com.example.wifi;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size byte arrays recycled across connections. Up to {@code maxPooled} free
+ * buffers are kept; beyond that released buffers are left to the garbage collector,
+ * so a burst of connections does not pin its peak memory for the life of the process.
+ */
+public final class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final AtomicInteger inUse = new AtomicInteger(0);
+    private final AtomicLong allocated = new AtomicLong(0);
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public byte[] acquire() {
+        inUse.incrementAndGet();
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return new byte[bufferSize];
+    }
+
+    /** Returns {@code buffer}, which must have come from {@link #acquire} and not be used afterwards. */
+    public void release(byte[] buffer) {
+        inUse.decrementAndGet();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /** Drops every pooled buffer; buffers in use are unaffected. */
+    public void trim() {
+        while (free.poll() != null) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getInUseCount() {
+        return inUse.get();
+    }
+
+    public int getPooledCount() {
+        return pooled.get();
+    }
+
+    /** Buffers created because the pool was empty; flat once the pool has warmed up. */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.wifi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks a band and channel for the hotspot from a Wi-Fi scan, and keeps a short history
+ * of what each start chose and what throughput it then carried so strategies can be
+ * compared.
+ *
+ * <p>Congestion on a candidate channel is the summed received power (in milliwatts) of
+ * every access point whose occupied spectrum overlaps it. On 2.4 GHz neighbouring
+ * channels overlap partially; on 5 and 6 GHz an AP is assumed to occupy the aligned
+ * 40/80/160 MHz block around its primary channel. Lower bands are penalised for their
+ * lower capacity, so 5 GHz wins unless it is far busier.
+ */
+public final class ChannelPlanner {
+    public enum Band {
+        GHZ_2_4(1, 4.0),
+        GHZ_5(2, 1.0),
+        GHZ_6(4, 0.8);
+
+        /** The matching {@code SoftApConfiguration.BAND_*} bit. */
+        public final int softApBand;
+        final double penalty;
+
+        Band(int softApBand, double penalty) {
+            this.softApBand = softApBand;
+            this.penalty = penalty;
+        }
+    }
+
+    /** One access point seen in a scan. */
+    public static final class Observation {
+        final int frequencyMhz;
+        final int levelDbm;
+        final int widthMhz;
+
+        public Observation(int frequencyMhz, int levelDbm, int widthMhz) {
+            this.frequencyMhz = frequencyMhz;
+            this.levelDbm = levelDbm;
+            this.widthMhz = Math.max(20, widthMhz);
+        }
+    }
+
+    /** The chosen band, and channel if the scan was good enough to pick one (0 otherwise). */
+    public static final class Plan {
+        public final Band band;
+        public final int channel;
+        public final double congestion;
+        public final String strategy;
+
+        Plan(Band band, int channel, double congestion, String strategy) {
+            this.band = band;
+            this.channel = channel;
+            this.congestion = congestion;
+            this.strategy = strategy;
+        }
+
+        @Override
+        public String toString() {
+            if (band == null) {
+                return strategy;
+            }
+            return String.format(Locale.US, "%s ch %s (%s, congestion %.3g mW)",
+                band == Band.GHZ_2_4 ? "2.4 GHz" : band == Band.GHZ_5 ? "5 GHz" : "6 GHz",
+                channel > 0 ? Integer.toString(channel) : "auto", strategy, congestion);
+        }
+    }
+
+    // Non-DFS channels only; a soft AP generally may not use DFS channels
+    private static final int[] CHANNELS_2_4 = {1, 6, 11};
+    private static final int[] CHANNELS_5 = {36, 40, 44, 48, 149, 153, 157, 161, 165};
+    private static final int[] CHANNELS_6 = {5, 21, 37, 53, 69, 85, 101, 117, 133, 149, 165, 181, 197, 213, 229};
+
+    private static final int MAX_REPORTS = 16;
+    private static final ArrayDeque<Report> REPORTS = new ArrayDeque<>();
+    private static Report current;
+
+    private ChannelPlanner() {
+    }
+
+    /** Placeholder for starts that left band and channel to the framework. */
+    public static Plan systemDefault() {
+        return new Plan(null, 0, 0, "system default");
+    }
+
+    /**
+     * Chooses a plan from {@code scan}, considering only the bands the device and the
+     * configured security allow. With no scan data the preferred band is returned with
+     * channel 0 so the framework picks the channel.
+     */
+    public static Plan plan(List<Observation> scan, boolean allow5Ghz, boolean allow6Ghz) {
+        List<Band> bands = new ArrayList<>(3);
+        if (allow6Ghz) {
+            bands.add(Band.GHZ_6);
+        }
+        if (allow5Ghz) {
+            bands.add(Band.GHZ_5);
+        }
+        bands.add(Band.GHZ_2_4);
+        if (scan == null || scan.isEmpty()) {
+            return new Plan(bands.get(0), 0, 0, "band preference");
+        }
+
+        Plan best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Band band : bands) {
+            for (int channel : channels(band)) {
+                double congestion = congestion(band, channel, scan);
+                double score = (congestion + 1e-9) * band.penalty;
+                if (score < bestScore) {
+                    bestScore = score;
+                    best = new Plan(band, channel, congestion, "least congested of " + scan.size() + " APs");
+                }
+            }
+        }
+        return best;
+    }
+
+    static double congestion(Band band, int channel, List<Observation> scan) {
+        double total = 0;
+        for (Observation ap : scan) {
+            Band apBand = bandOf(ap.frequencyMhz);
+            if (apBand != band) {
+                continue;
+            }
+            double weight;
+            int apChannel = channelOf(ap.frequencyMhz);
+            if (band == Band.GHZ_2_4) {
+                // 20 MHz channels 5 MHz apart; wider APs spread further
+                int reach = 5 * ap.widthMhz / 20;
+                weight = Math.max(0, 1 - Math.abs(apChannel - channel) / (double) reach);
+            } else {
+                weight = sameBlock(band, apChannel, channel, ap.widthMhz) ? 1 : 0;
+            }
+            total += weight * Math.pow(10, ap.levelDbm / 10.0);
+        }
+        return total;
+    }
+
+    private static boolean sameBlock(Band band, int apChannel, int channel, int widthMhz) {
+        int span = widthMhz / 5; // Channel numbers per block
+        int base = band == Band.GHZ_6 ? 1 : apChannel >= 149 ? 149 : 36;
+        if (band == Band.GHZ_5 && (channel >= 149) != (apChannel >= 149)) {
+            return false;
+        }
+        int apBlock = Math.floorDiv(apChannel - base, span);
+        int block = Math.floorDiv(channel - base, span);
+        return apBlock == block;
+    }
+
+    static Band bandOf(int frequencyMhz) {
+        if (frequencyMhz >= 2400 && frequencyMhz < 2500) {
+            return Band.GHZ_2_4;
+        }
+        if (frequencyMhz >= 5150 && frequencyMhz < 5925) {
+            return Band.GHZ_5;
+        }
+        if (frequencyMhz >= 5925 && frequencyMhz < 7125) {
+            return Band.GHZ_6;
+        }
+        return null;
+    }
+
+    static int channelOf(int frequencyMhz) {
+        if (frequencyMhz == 2484) {
+            return 14;
+        }
+        if (frequencyMhz < 2500) {
+            return (frequencyMhz - 2407) / 5;
+        }
+        if (frequencyMhz < 5925) {
+            return (frequencyMhz - 5000) / 5;
+        }
+        return (frequencyMhz - 5950) / 5;
+    }
+
+    private static int[] channels(Band band) {
+        switch (band) {
+            case GHZ_2_4:
+                return CHANNELS_2_4;
+            case GHZ_5:
+                return CHANNELS_5;
+            default:
+                return CHANNELS_6;
+        }
+    }
+
+    /** Starts measuring a hotspot session that was brought up with {@code plan}. */
+    public static synchronized void sessionStarted(Plan plan, boolean applied) {
+        current = new Report(plan, applied, System.currentTimeMillis(), totalBytes());
+    }
+
+    /** Closes the current session and logs its throughput. */
+    public static synchronized void sessionEnded() {
+        Report report = current;
+        if (report == null) {
+            return;
+        }
+        current = null;
+        report.finish(System.currentTimeMillis(), totalBytes(),
+            peakRate(report.startMs, TrafficHistory.Resolution.MINUTE));
+        if (REPORTS.size() == MAX_REPORTS) {
+            REPORTS.removeFirst();
+        }
+        REPORTS.addLast(report);
+        AppLogBuffer.add("ChannelPlanner", "Hotspot session: {}", report);
+    }
+
+    /** The running session, or null. */
+    public static synchronized Report getCurrent() {
+        return current;
+    }
+
+    /** Finished sessions, oldest first. */
+    public static synchronized List<Report> getReports() {
+        return new ArrayList<>(REPORTS);
+    }
+
+    private static long totalBytes() {
+        TrafficMeters.Pair global = TrafficMeters.global();
+        return global.up.getTotal() + global.down.getTotal();
+    }
+
+    private static double peakRate(long sinceMs, TrafficHistory.Resolution resolution) {
+        TrafficHistory.Series series = TrafficMeters.history(resolution);
+        double peak = 0;
+        for (int i = 0; i < series.size(); i++) {
+            if (series.timeAt(i) + resolution.slotMs > sinceMs) {
+                peak = Math.max(peak, series.upRate[i] + series.downRate[i]);
+            }
+        }
+        return peak;
+    }
+
+    /** What one hotspot session asked for and how much traffic it carried. */
+    public static final class Report {
+        public final Plan plan;
+        /** Whether the platform accepted the band/channel hint. */
+        public final boolean applied;
+        public final long startMs;
+        private final long startBytes;
+        public long endMs;
+        public long bytes;
+        public double averageRate;
+        public double peakMinuteRate;
+
+        Report(Plan plan, boolean applied, long startMs, long startBytes) {
+            this.plan = plan;
+            this.applied = applied;
+            this.startMs = startMs;
+            this.startBytes = startBytes;
+        }
+
+        void finish(long endMs, long totalBytes, double peakMinuteRate) {
+            this.endMs = endMs;
+            this.bytes = Math.max(0, totalBytes - startBytes);
+            double seconds = Math.max(1, (endMs - startMs) / 1000.0);
+            this.averageRate = bytes / seconds;
+            this.peakMinuteRate = peakMinuteRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s%s, %d s, %d bytes, avg %.1f KB/s, peak minute %.1f KB/s",
+                plan, applied ? "" : " [hint not applied]", (endMs - startMs) / 1000, bytes,
+                averageRate / 1024, peakMinuteRate / 1024);
+        }
+    }
+}
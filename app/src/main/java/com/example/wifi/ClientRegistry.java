@@ -0,0 +1,383 @@
+package com.example.wifi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * One record per hotspot client, merged from the kernel ARP table, proxy sessions and
+ * VPN traffic. A periodic engine task re-reads {@code /proc/net/arp} every few seconds but
+ * only parses it when its contents differ from the previous read, and pushes a fresh
+ * snapshot to listeners when anything they can see has changed.
+ */
+public final class ClientRegistry {
+    private static final String TAG = "ClientRegistry";
+    private static final String ARP_PATH = "/proc/net/arp";
+    private static final long POLL_INTERVAL_MS = 3000;
+    private static final long FORGET_AFTER_MS = 60 * 60 * 1000L;
+    private static final String NO_MAC = "00:00:00:00:00:00";
+
+    public enum Source {
+        ARP,
+        PROXY,
+        VPN
+    }
+
+    /** Called on an engine thread; post to the UI thread before touching views. */
+    public interface Listener {
+        void onClientsChanged(List<Client> clients);
+    }
+
+    private static final ConcurrentHashMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean DIRTY = new AtomicBoolean(false);
+    private static final Object LOCK = new Object();
+    private static RouterEngine.Periodic poller;
+
+    // Written by the poller thread, and cleared by reset()
+    private static volatile byte[] lastArp = new byte[0];
+    private static volatile Map<String, String> arpNeighbours = Collections.emptyMap();
+
+    private ClientRegistry() {
+    }
+
+    public static void start() {
+        synchronized (LOCK) {
+            if (poller != null) {
+                return;
+            }
+            // Reads the ARP table, so it runs on an engine I/O thread
+            poller = RouterEngine.get().every(0, POLL_INTERVAL_MS, true, ClientRegistry::poll);
+        }
+    }
+
+    /** Stops polling and forgets all clients. */
+    public static void stop() {
+        synchronized (LOCK) {
+            if (poller != null) {
+                poller.cancel();
+                poller = null;
+            }
+        }
+        reset();
+    }
+
+    public static void reset() {
+        ENTRIES.clear();
+        lastArp = new byte[0];
+        arpNeighbours = Collections.emptyMap();
+        notifyListeners();
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.addIfAbsent(listener);
+        listener.onClientsChanged(snapshot());
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Notes traffic from {@code ip}. Cheap enough for per-connection and per-flush calls;
+     * listeners are notified on the next poll rather than immediately.
+     *
+     * @return true if {@code source} had not seen this client within the session timeout
+     */
+    public static boolean recordActivity(Source source, String ip, long bytes) {
+        if (ip == null || ip.isEmpty()) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = ENTRIES.get(ip);
+        if (entry == null) {
+            Entry created = new Entry(ip, now);
+            entry = ENTRIES.putIfAbsent(ip, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        long previous = entry.lastSeen.getAndSet(source.ordinal(), now);
+        if (bytes > 0) {
+            entry.bytes.addAndGet(bytes);
+        }
+        boolean fresh = now - previous >= TimeoutClass.PROXY_CLIENT_SESSION.getMillis();
+        if (fresh || bytes > 0) {
+            DIRTY.set(true);
+        }
+        return fresh;
+    }
+
+    /** Clients currently in the ARP table or active within the session timeout. */
+    public static int getConnectedCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (Entry entry : ENTRIES.values()) {
+            if (entry.isConnected(now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Clients seen by {@code source} within the session timeout. */
+    public static int getActiveCount(Source source) {
+        long cutoff = System.currentTimeMillis() - TimeoutClass.PROXY_CLIENT_SESSION.getMillis();
+        int count = 0;
+        for (Entry entry : ENTRIES.values()) {
+            if (entry.lastSeen.get(source.ordinal()) > cutoff) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static List<Client> snapshot() {
+        long now = System.currentTimeMillis();
+        List<Client> clients = new ArrayList<>(ENTRIES.size());
+        for (Entry entry : ENTRIES.values()) {
+            clients.add(entry.toClient(now));
+        }
+        Collections.sort(clients, (a, b) -> Long.compare(b.lastSeenMs, a.lastSeenMs));
+        return clients;
+    }
+
+    private static void poll() {
+        try {
+            long now = System.currentTimeMillis();
+            byte[] arp = readArp();
+            if (arp != null && !Arrays.equals(arp, lastArp)) {
+                lastArp = arp;
+                applyArp(parseArp(arp, arp.length), now);
+            }
+            for (String ip : arpNeighbours.keySet()) {
+                Entry entry = ENTRIES.get(ip);
+                if (entry != null) {
+                    entry.lastSeen.set(Source.ARP.ordinal(), now);
+                }
+            }
+            expire(now);
+            if (DIRTY.getAndSet(false)) {
+                notifyListeners();
+            }
+        } catch (RuntimeException e) {
+            AppLogBuffer.add(TAG, "Client poll failed: {}", e);
+        }
+    }
+
+    private static void applyArp(Map<String, String> neighbours, long now) {
+        for (Map.Entry<String, String> neighbour : neighbours.entrySet()) {
+            String ip = neighbour.getKey();
+            Entry entry = ENTRIES.get(ip);
+            if (entry == null) {
+                Entry created = new Entry(ip, now);
+                entry = ENTRIES.putIfAbsent(ip, created);
+                if (entry == null) {
+                    entry = created;
+                }
+            }
+            entry.inArp = true;
+            entry.mac = neighbour.getValue();
+        }
+        for (String ip : arpNeighbours.keySet()) {
+            if (!neighbours.containsKey(ip)) {
+                Entry entry = ENTRIES.get(ip);
+                if (entry != null) {
+                    entry.inArp = false;
+                }
+            }
+        }
+        arpNeighbours = neighbours;
+        DIRTY.set(true);
+    }
+
+    private static void expire(long now) {
+        Iterator<Entry> iterator = ENTRIES.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            boolean connected = entry.isConnected(now);
+            if (connected != entry.wasConnected) {
+                entry.wasConnected = connected;
+                DIRTY.set(true);
+            }
+            if (!entry.inArp && now - entry.lastSeenMs() > FORGET_AFTER_MS) {
+                iterator.remove();
+                DIRTY.set(true);
+            }
+        }
+    }
+
+    private static void notifyListeners() {
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+        List<Client> clients = Collections.unmodifiableList(snapshot());
+        for (Listener listener : LISTENERS) {
+            listener.onClientsChanged(clients);
+        }
+    }
+
+    private static byte[] readArp() {
+        try (InputStream in = new FileInputStream(ARP_PATH)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(lastArp.length, 512));
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses {@code /proc/net/arp} without regular expressions or per-line splitting.
+     * Returns IP to MAC for complete entries on hotspot interfaces.
+     */
+    static Map<String, String> parseArp(byte[] data, int length) {
+        Map<String, String> neighbours = new HashMap<>();
+        int pos = skipLine(data, 0, length); // Header
+        String[] fields = new String[6];
+        while (pos < length) {
+            int field = 0;
+            while (pos < length && data[pos] != '\n') {
+                while (pos < length && data[pos] == ' ') {
+                    pos++;
+                }
+                int start = pos;
+                while (pos < length && data[pos] != ' ' && data[pos] != '\n') {
+                    pos++;
+                }
+                if (pos > start && field < fields.length) {
+                    fields[field++] = new String(data, start, pos - start, StandardCharsets.US_ASCII);
+                }
+            }
+            pos++;
+            if (field == fields.length
+                && "0x2".equals(fields[2])
+                && !NO_MAC.equals(fields[3])
+                && isHotspotInterface(fields[5])) {
+                neighbours.put(fields[0], fields[3]);
+            }
+        }
+        return neighbours;
+    }
+
+    private static int skipLine(byte[] data, int pos, int length) {
+        while (pos < length && data[pos] != '\n') {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    /** The IPv4 address and prefix the hotspot serves clients on, or null when it isn't up. */
+    static InterfaceAddress findHotspotAddress() {
+        try {
+            for (NetworkInterface intf : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!isHotspotInterface(intf.getName())) {
+                    continue;
+                }
+                for (InterfaceAddress address : intf.getInterfaceAddresses()) {
+                    if (address.getAddress() instanceof Inet4Address && !address.getAddress().isLoopbackAddress()) {
+                        return address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            AppLogBuffer.add(TAG, "Failed to read hotspot address: {}", e);
+        }
+        return null;
+    }
+
+    static boolean isHotspotInterface(String device) {
+        return device != null
+            && (device.startsWith("wlan")
+                || device.startsWith("ap")
+                || device.startsWith("swlan")
+                || device.startsWith("wifi"));
+    }
+
+    private static final class Entry {
+        final String ip;
+        final long firstSeenMs;
+        final AtomicLongArray lastSeen = new AtomicLongArray(Source.values().length);
+        final AtomicLong bytes = new AtomicLong();
+        volatile String mac;
+        volatile boolean inArp;
+        boolean wasConnected;
+
+        Entry(String ip, long now) {
+            this.ip = ip;
+            this.firstSeenMs = now;
+        }
+
+        long lastSeenMs() {
+            long latest = firstSeenMs;
+            for (int i = 0; i < lastSeen.length(); i++) {
+                latest = Math.max(latest, lastSeen.get(i));
+            }
+            return latest;
+        }
+
+        boolean isConnected(long now) {
+            return inArp || now - lastSeenMs() < TimeoutClass.PROXY_CLIENT_SESSION.getMillis();
+        }
+
+        Client toClient(long now) {
+            int sources = 0;
+            long cutoff = now - TimeoutClass.PROXY_CLIENT_SESSION.getMillis();
+            for (Source source : Source.values()) {
+                if (lastSeen.get(source.ordinal()) > cutoff) {
+                    sources |= 1 << source.ordinal();
+                }
+            }
+            return new Client(ip, mac, firstSeenMs, lastSeenMs(), bytes.get(), sources, isConnected(now));
+        }
+    }
+
+    /** Immutable view of one client as of the last snapshot. */
+    public static final class Client {
+        public final String ip;
+        public final String mac;
+        public final long firstSeenMs;
+        public final long lastSeenMs;
+        public final long bytes;
+        public final boolean connected;
+        private final int sources;
+
+        Client(String ip, String mac, long firstSeenMs, long lastSeenMs, long bytes, int sources,
+               boolean connected) {
+            this.ip = ip;
+            this.mac = mac;
+            this.firstSeenMs = firstSeenMs;
+            this.lastSeenMs = lastSeenMs;
+            this.bytes = bytes;
+            this.sources = sources;
+            this.connected = connected;
+        }
+
+        /** Whether {@code source} has seen this client within the session timeout. */
+        public boolean isActiveOn(Source source) {
+            return (sources & (1 << source.ordinal())) != 0;
+        }
+    }
+}
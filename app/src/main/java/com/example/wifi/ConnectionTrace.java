@@ -0,0 +1,246 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Span events for one sampled proxy connection, from accept to the end of the relay.
+ * {@link #begin} decides once per connection whether to trace it; unsampled connections
+ * get the shared {@link #OFF} instance, whose methods return immediately, so the proxy
+ * can call them unconditionally.
+ *
+ * <p>Finished traces are kept in a bounded in-memory store and exported in the Chrome
+ * trace-event format, one process per connection and one thread per lane, so they open
+ * directly in {@code chrome://tracing} or Perfetto.
+ */
+public final class ConnectionTrace {
+    /** Lane for request handling on the pool thread. */
+    public static final int LANE_CONTROL = 0;
+    /** Lane for the client-to-remote relay thread. */
+    public static final int LANE_UPSTREAM = 1;
+    /** Lane for the remote-to-client relay thread. */
+    public static final int LANE_DOWNSTREAM = 2;
+
+    private static final String[] LANE_NAMES = {"control", "upstream", "downstream"};
+    private static final int MAX_EVENTS = 64;
+    private static final int MAX_TRACES = 256;
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    static final ConnectionTrace OFF = new ConnectionTrace(0, null);
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final Set<String> FORCED_CLIENTS = ConcurrentHashMap.newKeySet();
+    private static final ArrayDeque<ConnectionTrace> FINISHED = new ArrayDeque<>();
+    private static volatile double sampleRate;
+
+    private final long id;
+    private final String client;
+    private final List<Event> events;
+    private volatile String target;
+
+    private ConnectionTrace(long id, String client) {
+        this.id = id;
+        this.client = client;
+        this.events = id != 0 ? new ArrayList<>(16) : null;
+    }
+
+    /** Fraction of connections to trace, from 0 (only forced clients) to 1 (all). */
+    public static void setSampleRate(double rate) {
+        sampleRate = Math.max(0, Math.min(1, rate));
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Traces every connection from {@code ip} regardless of the sample rate. */
+    public static void forceClient(String ip) {
+        FORCED_CLIENTS.add(ip);
+    }
+
+    public static void unforceClient(String ip) {
+        FORCED_CLIENTS.remove(ip);
+    }
+
+    public static Set<String> getForcedClients() {
+        return new TreeSet<>(FORCED_CLIENTS);
+    }
+
+    /** Starts a trace for a connection from {@code client}, or returns {@link #OFF} if it is not sampled. */
+    static ConnectionTrace begin(String client) {
+        double rate = sampleRate;
+        boolean sampled = (!FORCED_CLIENTS.isEmpty() && client != null && FORCED_CLIENTS.contains(client))
+            || (rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate));
+        if (!sampled) {
+            return OFF;
+        }
+        return new ConnectionTrace(NEXT_ID.getAndIncrement(), client);
+    }
+
+    public boolean isSampled() {
+        return this != OFF;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /** Names the connection by its destination once the request has been parsed. */
+    void setTarget(String host, int port) {
+        if (this != OFF) {
+            target = host + ":" + port;
+        }
+    }
+
+    /** Records a span from {@code startNanos} to {@code endNanos}, as returned by {@link System#nanoTime}. */
+    void span(String name, int lane, long startNanos, long endNanos, String detail) {
+        if (this != OFF) {
+            add(new Event(name, lane, startNanos, Math.max(0, endNanos - startNanos), detail));
+        }
+    }
+
+    /** Records a point-in-time event at the current time. */
+    void instant(String name, int lane, String detail) {
+        if (this != OFF) {
+            add(new Event(name, lane, System.nanoTime(), -1, detail));
+        }
+    }
+
+    /** Moves the trace into the store, evicting the oldest when full. */
+    void finish() {
+        if (this == OFF) {
+            return;
+        }
+        synchronized (FINISHED) {
+            if (FINISHED.size() == MAX_TRACES) {
+                FINISHED.removeFirst();
+            }
+            FINISHED.addLast(this);
+        }
+    }
+
+    private void add(Event event) {
+        synchronized (events) {
+            if (events.size() < MAX_EVENTS) {
+                events.add(event);
+            }
+        }
+    }
+
+    public static int getStoredCount() {
+        synchronized (FINISHED) {
+            return FINISHED.size();
+        }
+    }
+
+    public static void clear() {
+        synchronized (FINISHED) {
+            FINISHED.clear();
+        }
+    }
+
+    /**
+     * Writes stored traces as a Chrome trace-event JSON object, optionally only those for
+     * {@code client}.
+     *
+     * @return the number of traces written
+     */
+    public static int exportChromeJson(String client, Appendable out) throws IOException {
+        List<ConnectionTrace> traces;
+        synchronized (FINISHED) {
+            traces = new ArrayList<>(FINISHED);
+        }
+        out.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        int written = 0;
+        for (ConnectionTrace trace : traces) {
+            if (client != null && !client.equals(trace.client)) {
+                continue;
+            }
+            if (written++ > 0) {
+                out.append(',');
+            }
+            trace.appendJson(out);
+        }
+        out.append("]}\n");
+        return written;
+    }
+
+    private void appendJson(Appendable out) throws IOException {
+        String name = "#" + id + " " + client + (target != null ? " -> " + target : "");
+        out.append("{\"ph\":\"M\",\"name\":\"process_name\",\"pid\":").append(Long.toString(id))
+            .append(",\"args\":{\"name\":");
+        quote(out, name);
+        out.append("}}");
+        for (int lane = 0; lane < LANE_NAMES.length; lane++) {
+            out.append(",{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":").append(Long.toString(id))
+                .append(",\"tid\":").append(Integer.toString(lane))
+                .append(",\"args\":{\"name\":\"").append(LANE_NAMES[lane]).append("\"}}");
+        }
+
+        List<Event> copy;
+        synchronized (events) {
+            copy = new ArrayList<>(events);
+        }
+        for (Event event : copy) {
+            out.append(",{\"name\":");
+            quote(out, event.name);
+            out.append(",\"cat\":\"proxy\",\"pid\":").append(Long.toString(id))
+                .append(",\"tid\":").append(Integer.toString(event.lane))
+                .append(",\"ts\":").append(micros(event.startNanos - EPOCH_NANOS));
+            if (event.durationNanos >= 0) {
+                out.append(",\"ph\":\"X\",\"dur\":").append(micros(event.durationNanos));
+            } else {
+                out.append(",\"ph\":\"i\",\"s\":\"t\"");
+            }
+            if (event.detail != null) {
+                out.append(",\"args\":{\"detail\":");
+                quote(out, event.detail);
+                out.append('}');
+            }
+            out.append('}');
+        }
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.US, "%.1f", nanos / 1000.0);
+    }
+
+    private static void quote(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static final class Event {
+        final String name;
+        final int lane;
+        final long startNanos;
+        final long durationNanos;
+        final String detail;
+
+        Event(String name, int lane, long startNanos, long durationNanos, String detail) {
+            this.name = name;
+            this.lane = lane;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.detail = detail;
+        }
+    }
+}
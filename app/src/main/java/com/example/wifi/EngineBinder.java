@@ -0,0 +1,404 @@
+package com.example.wifi;
+
+import android.os.Binder;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.Parcel;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binder interface of the {@code :engine} process, returned by {@link EngineService}.
+ * Deliberately small: one call for the stats the UI shows, one for new log lines, a
+ * reset, settings saved by the activity, and listener registration. Listeners get
+ * one-way calls carrying {@link StatsBus} change flags, hotspot state changes and
+ * forwarded {@link StartupTimeline} steps, so the engine never waits on the UI.
+ *
+ * <p>Written by hand rather than generated from AIDL to keep the parcel layout next to
+ * the code that fills it. {@link Client} is the UI-side proxy.
+ */
+public final class EngineBinder extends Binder {
+    private static final String DESCRIPTOR = "com.example.wifi.IRouterEngine";
+    private static final String LISTENER_DESCRIPTOR = "com.example.wifi.IRouterEngineListener";
+
+    private static final int READ_STATS = IBinder.FIRST_CALL_TRANSACTION;
+    private static final int READ_LOG = IBinder.FIRST_CALL_TRANSACTION + 1;
+    private static final int RESET_STATS = IBinder.FIRST_CALL_TRANSACTION + 2;
+    private static final int ADD_LISTENER = IBinder.FIRST_CALL_TRANSACTION + 3;
+    private static final int REMOVE_LISTENER = IBinder.FIRST_CALL_TRANSACTION + 4;
+    private static final int PUSH_SETTINGS = IBinder.FIRST_CALL_TRANSACTION + 5;
+
+    private static final int ON_STATS_CHANGED = IBinder.FIRST_CALL_TRANSACTION;
+    private static final int ON_TIMELINE_STEP = IBinder.FIRST_CALL_TRANSACTION + 1;
+    private static final int ON_HOTSPOT_EVENT = IBinder.FIRST_CALL_TRANSACTION + 2;
+
+    public static final int HOTSPOT_STARTED = 1;
+    public static final int HOTSPOT_STOPPED = 2;
+    public static final int HOTSPOT_FAILED = 3;
+
+    private static final int TOP_TALKERS = 5;
+    /** Lines per READ_LOG reply, which keeps it well under the binder transaction limit. */
+    static final int READ_LOG_MAX_LINES = 256;
+    /** Differs between lives of the engine process, so clients notice a restart. */
+    private static final long LOG_EPOCH = System.currentTimeMillis();
+    /** Recent timeline steps handed to listeners that register after they happened. */
+    private static final int TIMELINE_REPLAY = 16;
+
+    /** Engine events, delivered on a binder thread of the UI process. */
+    public interface Listener {
+        void onStatsChanged(int changes);
+
+        void onTimelineStep(String name, long startNanos, long endNanos, boolean milestone);
+
+        /**
+         * @param event one of {@link #HOTSPOT_STARTED}, {@link #HOTSPOT_STOPPED}, {@link #HOTSPOT_FAILED}
+         * @param ssid and {@code password} are only set when started
+         * @param reason the framework's failure reason when failed
+         */
+        void onHotspotEvent(int event, String ssid, String password, int reason);
+    }
+
+    private static EngineBinder instance;
+
+    private final RemoteCallbackList<ListenerProxy> listeners = new RemoteCallbackList<>();
+    private final ArrayDeque<Object[]> recentSteps = new ArrayDeque<>();
+    private final StatsBus.Listener statsListener = this::broadcastStats;
+    private final ClientRegistry.Listener clientListener = clients -> broadcastStats(StatsBus.CLIENTS);
+    private long vpnBytesBaseline;
+
+    private EngineBinder() {
+        StartupTimeline.setForwarder(this::forwardStep);
+    }
+
+    /** The engine process's binder, shared by every service that hosts it. */
+    static synchronized EngineBinder get() {
+        if (instance == null) {
+            instance = new EngineBinder();
+        }
+        return instance;
+    }
+
+    @Override
+    protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+        switch (code) {
+            case READ_STATS: {
+                data.enforceInterface(DESCRIPTOR);
+                boolean withTopTalkers = data.readInt() != 0;
+                EngineStats stats = EngineStats.collect(vpnBytesBaseline, withTopTalkers, TOP_TALKERS);
+                reply.writeNoException();
+                stats.writeTo(reply);
+                return true;
+            }
+            case READ_LOG: {
+                data.enforceInterface(DESCRIPTOR);
+                long epoch = data.readLong();
+                long fromSeq = data.readLong();
+                List<String> lines = new ArrayList<>();
+                // A cursor from an earlier engine process means nothing here
+                long next = AppLogBuffer.readSince(epoch == LOG_EPOCH ? fromSeq : 0, lines, READ_LOG_MAX_LINES);
+                reply.writeNoException();
+                reply.writeLong(LOG_EPOCH);
+                reply.writeLong(next);
+                reply.writeInt(lines.size() == READ_LOG_MAX_LINES ? 1 : 0);
+                reply.writeStringList(lines);
+                return true;
+            }
+            case RESET_STATS:
+                data.enforceInterface(DESCRIPTOR);
+                vpnBytesBaseline = PacketRouter.getPacketBytes();
+                ProxyService.resetStats();
+                reply.writeNoException();
+                return true;
+            case PUSH_SETTINGS:
+                data.enforceInterface(DESCRIPTOR);
+                AppPreferences.publishRemote(SettingsSnapshot.readFrom(data), data.createStringArrayList());
+                reply.writeNoException();
+                return true;
+            case ADD_LISTENER: {
+                data.enforceInterface(DESCRIPTOR);
+                addListener(new ListenerProxy(data.readStrongBinder()));
+                reply.writeNoException();
+                return true;
+            }
+            case REMOVE_LISTENER:
+                data.enforceInterface(DESCRIPTOR);
+                removeListener(new ListenerProxy(data.readStrongBinder()));
+                reply.writeNoException();
+                return true;
+            default:
+                return super.onTransact(code, data, reply, flags);
+        }
+    }
+
+    private void addListener(ListenerProxy listener) {
+        List<Object[]> replay;
+        synchronized (listeners) {
+            listeners.register(listener);
+            if (listeners.getRegisteredCallbackCount() == 1) {
+                StatsBus.addListener(statsListener);
+                ClientRegistry.addListener(clientListener);
+            }
+            replay = new ArrayList<>(recentSteps);
+        }
+        for (Object[] step : replay) {
+            listener.onTimelineStep((String) step[0], (Long) step[1], (Long) step[2], (Boolean) step[3]);
+        }
+        listener.onStatsChanged(StatsBus.ALL);
+    }
+
+    private void removeListener(ListenerProxy listener) {
+        synchronized (listeners) {
+            listeners.unregister(listener);
+            if (listeners.getRegisteredCallbackCount() == 0) {
+                StatsBus.removeListener(statsListener);
+                ClientRegistry.removeListener(clientListener);
+            }
+        }
+    }
+
+    private void broadcastStats(int changes) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    listeners.getBroadcastItem(i).onStatsChanged(changes);
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+
+    /** Tells every listener about a hotspot state change; called by {@link HotspotService}. */
+    void publishHotspotEvent(int event, String ssid, String password, int reason) {
+        synchronized (listeners) {
+            int count = listeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    listeners.getBroadcastItem(i).onHotspotEvent(event, ssid, password, reason);
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+
+    private void forwardStep(String name, long startNanos, long endNanos, boolean milestone) {
+        synchronized (listeners) {
+            if (recentSteps.size() == TIMELINE_REPLAY) {
+                recentSteps.removeFirst();
+            }
+            recentSteps.addLast(new Object[] {name, startNanos, endNanos, milestone});
+            int count = listeners.beginBroadcast();
+            try {
+                for (int i = 0; i < count; i++) {
+                    listeners.getBroadcastItem(i).onTimelineStep(name, startNanos, endNanos, milestone);
+                }
+            } finally {
+                listeners.finishBroadcast();
+            }
+        }
+    }
+
+    /** Engine side of a registered listener; calls are one-way and failures are dropped. */
+    private static final class ListenerProxy implements IInterface {
+        private final IBinder remote;
+
+        ListenerProxy(IBinder remote) {
+            this.remote = remote;
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return remote;
+        }
+
+        void onStatsChanged(int changes) {
+            Parcel data = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(LISTENER_DESCRIPTOR);
+                data.writeInt(changes);
+                remote.transact(ON_STATS_CHANGED, data, null, IBinder.FLAG_ONEWAY);
+            } catch (RemoteException | RuntimeException ignored) {
+                // Listener process gone; RemoteCallbackList drops it
+            } finally {
+                data.recycle();
+            }
+        }
+
+        void onTimelineStep(String name, long startNanos, long endNanos, boolean milestone) {
+            Parcel data = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(LISTENER_DESCRIPTOR);
+                data.writeString(name);
+                data.writeLong(startNanos);
+                data.writeLong(endNanos);
+                data.writeInt(milestone ? 1 : 0);
+                remote.transact(ON_TIMELINE_STEP, data, null, IBinder.FLAG_ONEWAY);
+            } catch (RemoteException | RuntimeException ignored) {
+                // Listener process gone; RemoteCallbackList drops it
+            } finally {
+                data.recycle();
+            }
+        }
+
+        void onHotspotEvent(int event, String ssid, String password, int reason) {
+            Parcel data = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(LISTENER_DESCRIPTOR);
+                data.writeInt(event);
+                data.writeString(ssid);
+                data.writeString(password);
+                data.writeInt(reason);
+                remote.transact(ON_HOTSPOT_EVENT, data, null, IBinder.FLAG_ONEWAY);
+            } catch (RemoteException | RuntimeException ignored) {
+                // Listener process gone; RemoteCallbackList drops it
+            } finally {
+                data.recycle();
+            }
+        }
+    }
+
+    /** UI side of a listener: receives the one-way calls and hands them to {@link Listener}. */
+    private static final class ListenerStub extends Binder {
+        private final Listener listener;
+
+        ListenerStub(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        protected boolean onTransact(int code, Parcel data, Parcel reply, int flags) throws RemoteException {
+            switch (code) {
+                case ON_STATS_CHANGED:
+                    data.enforceInterface(LISTENER_DESCRIPTOR);
+                    listener.onStatsChanged(data.readInt());
+                    return true;
+                case ON_TIMELINE_STEP:
+                    data.enforceInterface(LISTENER_DESCRIPTOR);
+                    listener.onTimelineStep(data.readString(), data.readLong(), data.readLong(), data.readInt() != 0);
+                    return true;
+                case ON_HOTSPOT_EVENT:
+                    data.enforceInterface(LISTENER_DESCRIPTOR);
+                    listener.onHotspotEvent(data.readInt(), data.readString(), data.readString(), data.readInt());
+                    return true;
+                default:
+                    return super.onTransact(code, data, reply, flags);
+            }
+        }
+    }
+
+    /** Read position in the engine's log, for {@link Client#readLog}. */
+    public static final class LogCursor {
+        long epoch;
+        long next;
+    }
+
+    /** UI-side proxy for the engine binder. Calls block on the engine and throw if it died. */
+    public static final class Client {
+        private final IBinder remote;
+        private ListenerStub listenerStub;
+
+        public Client(IBinder remote) {
+            this.remote = remote;
+        }
+
+        public EngineStats readStats(boolean withTopTalkers) throws RemoteException {
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(DESCRIPTOR);
+                data.writeInt(withTopTalkers ? 1 : 0);
+                remote.transact(READ_STATS, data, reply, 0);
+                reply.readException();
+                return EngineStats.readFrom(reply);
+            } finally {
+                reply.recycle();
+                data.recycle();
+            }
+        }
+
+        /**
+         * Appends the engine's log lines after {@code cursor} to {@code out}, at most
+         * {@link #READ_LOG_MAX_LINES} per call, and advances the cursor. A cursor from
+         * before an engine restart starts over at the new process's first line.
+         *
+         * @return true if the reply was full and more lines may be waiting
+         */
+        public boolean readLog(LogCursor cursor, List<String> out) throws RemoteException {
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(DESCRIPTOR);
+                data.writeLong(cursor.epoch);
+                data.writeLong(cursor.next);
+                remote.transact(READ_LOG, data, reply, 0);
+                reply.readException();
+                cursor.epoch = reply.readLong();
+                cursor.next = reply.readLong();
+                boolean more = reply.readInt() != 0;
+                reply.readStringList(out);
+                return more;
+            } finally {
+                reply.recycle();
+                data.recycle();
+            }
+        }
+
+        public void resetStats() throws RemoteException {
+            call(RESET_STATS, null);
+        }
+
+        /**
+         * Hands the engine the settings this process saved, so it needn't re-read them
+         * from disk. Only {@code keys} are taken from {@code settings}.
+         */
+        public void pushSettings(SettingsSnapshot settings, Collection<String> keys) throws RemoteException {
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(DESCRIPTOR);
+                settings.writeTo(data);
+                data.writeStringList(new ArrayList<>(keys));
+                remote.transact(PUSH_SETTINGS, data, reply, 0);
+                reply.readException();
+            } finally {
+                reply.recycle();
+                data.recycle();
+            }
+        }
+
+        /** Registers {@code listener}, replacing any listener added through this client. */
+        public void setListener(Listener listener) throws RemoteException {
+            if (listenerStub != null) {
+                call(REMOVE_LISTENER, listenerStub);
+                listenerStub = null;
+            }
+            if (listener != null) {
+                listenerStub = new ListenerStub(listener);
+                call(ADD_LISTENER, listenerStub);
+            }
+        }
+
+        private void call(int code, IBinder argument) throws RemoteException {
+            Parcel data = Parcel.obtain();
+            Parcel reply = Parcel.obtain();
+            try {
+                data.writeInterfaceToken(DESCRIPTOR);
+                if (argument != null) {
+                    data.writeStrongBinder(argument);
+                }
+                remote.transact(code, data, reply, 0);
+                reply.readException();
+            } finally {
+                reply.recycle();
+                data.recycle();
+            }
+        }
+    }
+}
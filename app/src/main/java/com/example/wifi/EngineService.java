@@ -0,0 +1,45 @@
+package com.example.wifi;
+
+import android.app.Service;
+import android.content.ComponentCallbacks2;
+import android.content.Intent;
+import android.os.IBinder;
+
+/**
+ * Bind-only entry point of the {@code :engine} process, where the proxy, VPN and hotspot
+ * services run with their own heap so UI garbage collection never pauses a relay. The
+ * activity binds while visible, which also brings the process up before the first tap.
+ * Kept separate from the foreground services so that binding never holds them alive
+ * after they were asked to stop.
+ */
+public class EngineService extends Service {
+    private static final String TAG = "EngineService";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        AppPreferences.initEngineProcess(this);
+        // Reflection caches and pools are per process, so warming has to happen here
+        Thread prewarm = new Thread(() -> {
+            WifiHotspotManager.prewarm();
+            ProxyServer.prewarm();
+        }, TAG + "-prewarm");
+        prewarm.setDaemon(true);
+        prewarm.setPriority(Thread.MIN_PRIORITY);
+        prewarm.start();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return EngineBinder.get();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The pool refills on demand; idle buffers are the engine's largest reclaimable heap
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            RouterEngine.get().trimMemory();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.wifi;
+
+import android.os.Parcel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** What the UI shows about the engine process, read in one binder call. */
+public final class EngineStats {
+    public boolean proxyRunning;
+    public boolean vpnRunning;
+    /** Bytes relayed since the last reset, proxy and VPN together. */
+    public long totalBytes;
+    public double bytesPerSecond;
+    public int connectedClients;
+    public int proxyClients;
+    /** Heaviest clients and destinations, only filled when asked for. */
+    public final List<String> topClients = new ArrayList<>();
+    public long[] topClientBytes = new long[0];
+    public final List<String> topDestinations = new ArrayList<>();
+    public long[] topDestinationBytes = new long[0];
+
+    /** Collects the current figures; runs in the engine process. */
+    static EngineStats collect(long vpnBytesBaseline, boolean withTopTalkers, int topCount) {
+        EngineStats stats = new EngineStats();
+        stats.proxyRunning = ProxyServer.isRunning();
+        stats.vpnRunning = RouterVpnService.isActive();
+        stats.totalBytes = PacketRouter.getPacketBytes() - vpnBytesBaseline + ProxyServer.getTotalBytes();
+        stats.bytesPerSecond = TrafficMeters.global().getRate(RateMeter.Window.FAST);
+        stats.connectedClients = ClientRegistry.getConnectedCount();
+        stats.proxyClients = ClientRegistry.getActiveCount(ClientRegistry.Source.PROXY);
+        if (withTopTalkers) {
+            stats.topClientBytes = fill(TrafficSketches.topClients(topCount), stats.topClients);
+            stats.topDestinationBytes = fill(
+                TrafficSketches.topDestinations(TrafficSketches.Metric.BYTES, topCount), stats.topDestinations);
+        }
+        return stats;
+    }
+
+    private static long[] fill(List<SpaceSaving.HeavyHitter> hitters, List<String> keys) {
+        long[] estimates = new long[hitters.size()];
+        for (int i = 0; i < estimates.length; i++) {
+            SpaceSaving.HeavyHitter hitter = hitters.get(i);
+            keys.add(hitter.key);
+            estimates[i] = (long) hitter.estimate;
+        }
+        return estimates;
+    }
+
+    void writeTo(Parcel out) {
+        out.writeInt(proxyRunning ? 1 : 0);
+        out.writeInt(vpnRunning ? 1 : 0);
+        out.writeLong(totalBytes);
+        out.writeDouble(bytesPerSecond);
+        out.writeInt(connectedClients);
+        out.writeInt(proxyClients);
+        out.writeStringList(topClients);
+        out.writeLongArray(topClientBytes);
+        out.writeStringList(topDestinations);
+        out.writeLongArray(topDestinationBytes);
+    }
+
+    static EngineStats readFrom(Parcel in) {
+        EngineStats stats = new EngineStats();
+        stats.proxyRunning = in.readInt() != 0;
+        stats.vpnRunning = in.readInt() != 0;
+        stats.totalBytes = in.readLong();
+        stats.bytesPerSecond = in.readDouble();
+        stats.connectedClients = in.readInt();
+        stats.proxyClients = in.readInt();
+        in.readStringList(stats.topClients);
+        stats.topClientBytes = in.createLongArray();
+        in.readStringList(stats.topDestinations);
+        stats.topDestinationBytes = in.createLongArray();
+        return stats;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Serves {@code GET /__history} on the proxy port: the router's throughput history from
+ * {@link TrafficMeters} as CSV, one row per slot with the time and the upstream and
+ * downstream rates in bytes per second. {@code ?resolution=second|minute|hour} picks the
+ * last 10 minutes, 24 hours or 30 days; minutes by default. The rows are copied from
+ * the history rings, so serving them costs no sampling. Like {@link MetricsEndpoint},
+ * only origin-form requests match.
+ */
+final class HistoryEndpoint {
+    static final String PATH = "/__history";
+
+    private HistoryEndpoint() {
+    }
+
+    static boolean isHistoryRequest(ProxyServer.HttpRequest request) {
+        return "GET".equalsIgnoreCase(request.method) && request.path().equals(PATH);
+    }
+
+    static void write(OutputStream out, ProxyServer.HttpRequest request) throws IOException {
+        TrafficHistory.Resolution resolution = parseResolution(request.parameter("resolution"));
+        if (resolution == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            return;
+        }
+        byte[] body = render(TrafficMeters.history(resolution)).getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/csv; charset=utf-8\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "Content-Disposition: inline; filename=\"traffic-"
+            + resolution.name().toLowerCase(Locale.US) + ".csv\"\r\n"
+            + "Cache-Control: no-store\r\n"
+            + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    static String render(TrafficHistory.Series series) {
+        StringBuilder b = new StringBuilder(32 + series.size() * 32);
+        b.append("time_ms,up_bytes_per_s,down_bytes_per_s\n");
+        for (int i = 0; i < series.size(); i++) {
+            b.append(series.timeAt(i)).append(',')
+                .append(Math.round(series.upRate[i])).append(',')
+                .append(Math.round(series.downRate[i])).append('\n');
+        }
+        return b.toString();
+    }
+
+    private static TrafficHistory.Resolution parseResolution(String value) {
+        if (value == null) {
+            return TrafficHistory.Resolution.MINUTE;
+        }
+        try {
+            return TrafficHistory.Resolution.valueOf(value.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
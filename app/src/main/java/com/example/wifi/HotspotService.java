@@ -6,14 +6,17 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
-import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
 /**
- * Foreground service that manages the WiFi Hotspot.
+ * Foreground service that manages the WiFi Hotspot. Runs in the {@code :engine}
+ * process next to the proxy it shares stats with; state changes reach the UI through
+ * {@link EngineBinder}.
  */
 public class HotspotService extends Service {
     private static final String TAG = "HotspotService";
@@ -23,28 +26,23 @@ public class HotspotService extends Service {
     public static final String EXTRA_PASSWORD = "extra_password";
 
     private WifiHotspotManager hotspotManager;
-    private final IBinder binder = new LocalBinder();
-    private HotspotCallback callback;
+    private PerformanceLockManager lockManager;
+    private HotspotWatchdog watchdog;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private String desiredSsid;
     private String desiredPassword;
-
-    public interface HotspotCallback {
-        void onHotspotStarted(String ssid, String password);
-        void onHotspotStopped();
-        void onHotspotFailed(int reason);
-    }
-
-    public class LocalBinder extends Binder {
-        HotspotService getService() {
-            return HotspotService.this;
-        }
-    }
+    // Bumped by every start and stop; a start waiting for settings only runs if still current
+    private int startRequests;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        AppPreferences.initEngineProcess(this);
         createNotificationChannel();
         hotspotManager = new WifiHotspotManager(this);
+        lockManager = new PerformanceLockManager(this);
+        // Restarts reuse desiredSsid/desiredPassword and leave ProxyService running
+        watchdog = new HotspotWatchdog(() -> mainHandler.post(this::startHotspot));
         
         hotspotManager.setCallback(new WifiHotspotManager.HotspotCallback() {
             @Override
@@ -52,27 +50,31 @@ public class HotspotService extends Service {
                 Log.i(TAG, "Hotspot started: " + ssid);
                 AppLogBuffer.add(TAG, "Hotspot started: " + ssid);
                 AppPreferences.saveHotspotIfEmpty(HotspotService.this, ssid, password);
-                if (callback != null) {
-                    callback.onHotspotStarted(ssid, password);
-                }
+                watchdog.onStarted();
+                lockManager.start();
+                EngineBinder.get().publishHotspotEvent(EngineBinder.HOTSPOT_STARTED, ssid, password, 0);
             }
 
             @Override
             public void onStopped() {
                 Log.i(TAG, "Hotspot stopped");
                 AppLogBuffer.add(TAG, "Hotspot stopped");
-                if (callback != null) {
-                    callback.onHotspotStopped();
+                lockManager.stop();
+                if (watchdog.onLost("stopped")) {
+                    return;
                 }
+                EngineBinder.get().publishHotspotEvent(EngineBinder.HOTSPOT_STOPPED, null, null, 0);
             }
 
             @Override
             public void onFailed(int reason) {
                 Log.e(TAG, "Hotspot failed: " + reason);
                 AppLogBuffer.add(TAG, "Hotspot failed: " + reason);
-                if (callback != null) {
-                    callback.onHotspotFailed(reason);
+                lockManager.stop();
+                if (watchdog.onLost("failed (" + reason + ")")) {
+                    return;
                 }
+                EngineBinder.get().publishHotspotEvent(EngineBinder.HOTSPOT_FAILED, null, null, reason);
             }
         });
     }
@@ -80,6 +82,7 @@ public class HotspotService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null && "STOP".equals(intent.getAction())) {
+            startRequests++;
             stopHotspot();
             stopSelf();
             return START_NOT_STICKY;
@@ -89,6 +92,18 @@ public class HotspotService extends Service {
             desiredSsid = intent.getStringExtra(EXTRA_SSID);
             desiredPassword = intent.getStringExtra(EXTRA_PASSWORD);
         }
+        startForeground(NOTIFICATION_ID, createNotification());
+        // Settings may still be loading; the main thread must not wait for the file
+        int request = ++startRequests;
+        AppPreferences.whenLoaded(this, settings -> mainHandler.post(() -> {
+            if (request == startRequests) {
+                startWithSettings();
+            }
+        }));
+        return START_STICKY;
+    }
+
+    private void startWithSettings() {
         AppPreferences.ensureDefaultHotspotConfig(this);
         if (TextUtils.isEmpty(desiredSsid)) {
             desiredSsid = AppPreferences.getSsid(this);
@@ -96,19 +111,12 @@ public class HotspotService extends Service {
         if (TextUtils.isEmpty(desiredPassword)) {
             desiredPassword = AppPreferences.getPassword(this);
         }
-
-        startForeground(NOTIFICATION_ID, createNotification());
         startHotspot();
-        return START_STICKY;
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return binder;
-    }
-
-    public void setCallback(HotspotCallback callback) {
-        this.callback = callback;
+        return null;
     }
 
     public void startHotspot() {
@@ -116,7 +124,9 @@ public class HotspotService extends Service {
     }
 
     public void stopHotspot() {
+        watchdog.disarm();
         hotspotManager.stopHotspot();
+        lockManager.stop();
     }
 
     public boolean isHotspotStarted() {
@@ -174,7 +184,10 @@ public class HotspotService extends Service {
 
     @Override
     public void onDestroy() {
+        startRequests++;
+        watchdog.disarm();
         hotspotManager.stopHotspot();
+        lockManager.stop();
         super.onDestroy();
     }
 }
@@ -0,0 +1,131 @@
+package com.example.wifi;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restarts the hotspot after the framework stops it or a start fails while the user
+ * still wants it up. Attempts are spaced by exponential back-off from
+ * {@link #BASE_DELAY_MS} up to {@link #MAX_DELAY_MS}; after {@link #MAX_ATTEMPTS}
+ * failed attempts in a row the watchdog gives up and the outage is reported as usual.
+ * The attempt count only resets once a restarted hotspot has stayed up for
+ * {@link #STABLE_MS}, so an AP that keeps dropping right after starting backs off too.
+ *
+ * <p>Recovery time is measured from the first loss to the next successful start.
+ */
+public final class HotspotWatchdog {
+    private static final String TAG = "HotspotWatchdog";
+
+    static final long BASE_DELAY_MS = 1000;
+    static final long MAX_DELAY_MS = 60 * 1000L;
+    static final int MAX_ATTEMPTS = 8;
+    static final long STABLE_MS = 2 * 60 * 1000L;
+
+    private static final AtomicLong recoveries = new AtomicLong(0);
+    private static final AtomicLong giveUps = new AtomicLong(0);
+    private static final AtomicLong recoveryMillisTotal = new AtomicLong(0);
+    private static final AtomicLong lastRecoveryMillis = new AtomicLong(0);
+
+    private final Runnable restart;
+    private boolean armed;
+    private int attempts;
+    private long upSinceMs;
+    private long lostAtMs;
+    private TimingWheel.Timeout pending;
+
+    /** @param restart starts the hotspot again with the same SSID and password; run on the timer thread */
+    public HotspotWatchdog(Runnable restart) {
+        this.restart = restart;
+    }
+
+    /** The hotspot came up. Arms the watchdog and closes any recovery in progress. */
+    public synchronized void onStarted() {
+        long now = System.currentTimeMillis();
+        armed = true;
+        upSinceMs = now;
+        if (lostAtMs != 0) {
+            long took = now - lostAtMs;
+            lostAtMs = 0;
+            recoveries.incrementAndGet();
+            recoveryMillisTotal.addAndGet(took);
+            lastRecoveryMillis.set(took);
+            AppLogBuffer.add(TAG, String.format(Locale.US, "Hotspot recovered in %.1f s after %d attempt(s)",
+                took / 1000.0, attempts));
+        }
+    }
+
+    /**
+     * The hotspot stopped or a start failed.
+     *
+     * @return true if a restart is scheduled and the outage should not be reported yet
+     */
+    public synchronized boolean onLost(String cause) {
+        if (!armed) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (lostAtMs == 0) {
+            lostAtMs = now;
+            if (now - upSinceMs >= STABLE_MS) {
+                attempts = 0;
+            }
+        }
+        if (attempts >= MAX_ATTEMPTS) {
+            giveUps.incrementAndGet();
+            AppLogBuffer.add(TAG, "Hotspot " + cause + "; giving up after " + attempts + " attempts");
+            disarm();
+            return false;
+        }
+        long delay = delayFor(attempts);
+        attempts++;
+        AppLogBuffer.add(TAG, String.format(Locale.US, "Hotspot %s; restart %d/%d in %.1f s",
+            cause, attempts, MAX_ATTEMPTS, delay / 1000.0));
+        pending = TimingWheel.shared().schedule(this::fire, delay);
+        return true;
+    }
+
+    /** The user stopped the hotspot; cancels any pending restart. */
+    public synchronized void disarm() {
+        armed = false;
+        lostAtMs = 0;
+        attempts = 0;
+        if (pending != null) {
+            pending.cancel();
+            pending = null;
+        }
+    }
+
+    public synchronized boolean isRecovering() {
+        return lostAtMs != 0;
+    }
+
+    static long delayFor(int attempt) {
+        return Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 16));
+    }
+
+    private void fire() {
+        synchronized (this) {
+            pending = null;
+            if (!armed) {
+                return;
+            }
+        }
+        restart.run();
+    }
+
+    public static long getRecoveryCount() {
+        return recoveries.get();
+    }
+
+    public static long getGiveUpCount() {
+        return giveUps.get();
+    }
+
+    public static long getRecoveryMillisTotal() {
+        return recoveryMillisTotal.get();
+    }
+
+    public static long getLastRecoveryMillis() {
+        return lastRecoveryMillis.get();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.wifi;
+
+/**
+ * Runs an action once the watched activity has been idle for a configured period.
+ * {@link #touch()} is a single volatile write, so relay loops can call it on every
+ * read without rescheduling; the timer re-arms itself for the remaining time when
+ * it fires early.
+ */
+public final class IdleTimer implements Runnable {
+    private final TimingWheel wheel;
+    private final TimeoutClass timeoutClass;
+    private final Runnable onIdle;
+    private volatile long lastActivityNanos = System.nanoTime();
+    private volatile TimingWheel.Timeout pending;
+    private volatile boolean cancelled;
+    private volatile boolean fired;
+
+    public IdleTimer(TimingWheel wheel, TimeoutClass timeoutClass, Runnable onIdle) {
+        this.wheel = wheel;
+        this.timeoutClass = timeoutClass;
+        this.onIdle = onIdle;
+    }
+
+    public IdleTimer start() {
+        touch();
+        pending = wheel.schedule(this, timeoutClass.getMillis());
+        return this;
+    }
+
+    public void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    public void cancel() {
+        cancelled = true;
+        TimingWheel.Timeout timeout = pending;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /** Whether the idle action has run. */
+    public boolean hasFired() {
+        return fired;
+    }
+
+    @Override
+    public void run() {
+        if (cancelled) {
+            return;
+        }
+        long limitMs = timeoutClass.getMillis();
+        long idleMs = (System.nanoTime() - lastActivityNanos) / 1_000_000L;
+        if (idleMs >= limitMs) {
+            fired = true;
+            onIdle.run();
+        } else {
+            pending = wheel.schedule(this, limitMs - idleMs);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.wifi;
+
+import android.util.Log;
+
+/**
+ * {@link RouterLog} sink that writes to logcat as well as {@link AppLogBuffer}. The
+ * message is only formatted for logcat after the site's level and rate checks passed.
+ */
+final class LogcatSink implements RouterLog.Sink {
+    static final LogcatSink INSTANCE = new LogcatSink();
+
+    private LogcatSink() {
+    }
+
+    @Override
+    public void write(RouterLog.Level level, String tag, String template, Object[] args, Throwable error) {
+        String message = RouterLog.format(template, args);
+        switch (level) {
+            case DEBUG:
+                Log.d(tag, message);
+                break;
+            case INFO:
+                Log.i(tag, message);
+                break;
+            case WARN:
+                Log.w(tag, message, error);
+                break;
+            default:
+                Log.e(tag, message, error);
+                break;
+        }
+        RouterLog.BUFFER_SINK.write(level, tag, template, args, error);
+    }
+}
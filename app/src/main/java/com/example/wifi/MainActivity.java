@@ -14,140 +14,139 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.RemoteException;
 import android.net.Uri;
 import android.provider.Settings;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ScrollView;
+import android.widget.ListView;
+import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
-import java.util.Collections;
+import java.net.InterfaceAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class MainActivity extends Activity {
     private static final String TAG = "MainActivity";
     private static final int VPN_REQUEST_CODE = 100;
     private static final int PERMISSION_REQUEST_CODE = 101;
-    private static final long DEVICE_REFRESH_MS = 3000;
+    private static final int MAX_LOG_LINES = 2000;
+    private static final int LOG_TRIM_SLACK = 256;
 
     private TextView statusText;
     private EditText ssidInput;
     private EditText passwordInput;
     private TextView ipText;
     private TextView connectedDevicesLabel;
-    private TextView logText;
-    private ScrollView logScroll;
+    private TextView topTalkersText;
+    private ListView logList;
+    private ArrayAdapter<String> logAdapter;
+    private final List<String> logLines = new ArrayList<>();
+    private final List<String> newLogLines = new ArrayList<>();
+    private long logSequence = 0;
     private Button toggleButton;
     private EditText proxyPortInput;
+    private EditText directHostsInput;
+    private EditText traceRateInput;
+    private EditText traceClientsInput;
+    private Spinner logLevelSpinner;
+    private EditText logCapacityInput;
     private Button saveButton;
     private Button exitButton;
     private Switch keepRunningSwitch;
     private Button notifSettingsButton;
 
-    private HotspotService hotspotService;
+    private EngineBinder.Client engine;
+    private EngineBinder.LogCursor engineLog = new EngineBinder.LogCursor();
+    private StartupOrchestrator startupOrchestrator;
     private boolean isServiceBound = false;
     private boolean isRouterActive = false;
-    private long totalBytes = 0;
+    private boolean settingsShown = false;
     private int connectedDevices = 0;
     private int proxyConnections = 0;
     private long currentTotalBytes = 0;
-    private long lastStatsBytes = 0;
-    private long lastStatsTimeMs = 0;
     private double currentSpeedKbps = 0.0;
 
     private final Handler deviceHandler = new Handler(Looper.getMainLooper());
-    private final Runnable deviceUpdater = new Runnable() {
+    private final StatsBus.Listener statsListener =
+        changes -> deviceHandler.post(() -> applyStats(changes));
+
+    /** Engine events arrive on a binder thread and are handed to the UI thread. */
+    private final EngineBinder.Listener engineListener = new EngineBinder.Listener() {
         @Override
-        public void run() {
-            if (!isRouterActive) {
-                refreshLogView();
-                return;
-            }
-            int arpCount = getArpDeviceCount();
-            int proxyCount = ProxyService.getActiveClientCount();
-            long proxyBytes = ProxyService.getTotalBytes();
-            updateTrafficStats(totalBytes + proxyBytes);
-            updateConnectedDevices(arpCount, proxyCount);
-            refreshLogView();
-            deviceHandler.postDelayed(this, DEVICE_REFRESH_MS);
+        public void onStatsChanged(int changes) {
+            deviceHandler.post(() -> applyStats(changes));
         }
-    };
 
-    private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
-        public void onServiceConnected(ComponentName name, IBinder service) {
-            HotspotService.LocalBinder binder = (HotspotService.LocalBinder) service;
-            hotspotService = binder.getService();
-            isServiceBound = true;
-            
-            hotspotService.setCallback(new HotspotService.HotspotCallback() {
-                @Override
-                public void onHotspotStarted(String ssid, String password) {
-                    runOnUiThread(() -> {
-                        String hotspotIp = getHotspotIpAddress();
-                        ipText.setText(hotspotIp);
-                        AppPreferences.saveHotspotIfEmpty(MainActivity.this, ssid, password);
-                        if (TextUtils.isEmpty(ssidInput.getText().toString()) && !TextUtils.isEmpty(ssid)) {
-                            ssidInput.setText(ssid);
-                        }
-                        if (TextUtils.isEmpty(passwordInput.getText().toString()) && !TextUtils.isEmpty(password)) {
-                            passwordInput.setText(password);
-                        }
-
-                        int proxyPort = getProxyPortFromInput();
-                        appendLog("Hotspot started: " + ssid);
-                        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R && hasCustomHotspotConfig()) {
-                            appendLog("Custom SSID/password cannot be applied on this Android version");
-                        }
-                        appendLog("Set client proxy to " + hotspotIp + ":" + proxyPort);
-                        startProxyService(proxyPort);
-                        isRouterActive = true;
-                        setRouterActiveUi(true);
-                        startDeviceUpdates();
-                    });
-                }
+        public void onTimelineStep(String name, long startNanos, long endNanos, boolean milestone) {
+            deviceHandler.post(() -> StartupTimeline.replay(name, startNanos, endNanos, milestone));
+        }
 
-                @Override
-                public void onHotspotStopped() {
-                    runOnUiThread(() -> {
+        @Override
+        public void onHotspotEvent(int event, String ssid, String password, int reason) {
+            deviceHandler.post(() -> {
+                switch (event) {
+                    case EngineBinder.HOTSPOT_STARTED:
+                        onHotspotStarted(ssid, password);
+                        break;
+                    case EngineBinder.HOTSPOT_STOPPED:
                         isRouterActive = false;
-                        stopDeviceUpdates();
                         resetUI();
                         appendLog("Hotspot stopped");
-                    });
-                }
-
-                @Override
-                public void onHotspotFailed(int reason) {
-                    runOnUiThread(() -> {
-                        isRouterActive = false;
-                        stopDeviceUpdates();
-                        appendLog("Hotspot failed: " + getFailureReason(reason));
-                        Toast.makeText(MainActivity.this, 
-                            "Hotspot failed: " + getFailureReason(reason), 
-                            Toast.LENGTH_LONG).show();
-                        resetUI();
-                    });
+                        break;
+                    case EngineBinder.HOTSPOT_FAILED:
+                        onHotspotFailed(reason);
+                        break;
+                    default:
+                        break;
                 }
             });
         }
+    };
+
+    private final Runnable pushSettings = this::pushSettingsToEngine;
+
+    /** Fills the form once settings have loaded, then forwards every change to the engine. */
+    private final AppPreferences.Listener settingsListener = settings -> runOnUiThread(() -> {
+        if (!settingsShown) {
+            loadSettings();
+        }
+        deviceHandler.removeCallbacks(pushSettings);
+        deviceHandler.post(pushSettings);
+    });
+
+    private final ServiceConnection engineConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            engine = new EngineBinder.Client(service);
+            try {
+                engine.setListener(engineListener);
+            } catch (RemoteException e) {
+                Log.w(TAG, "Engine died while registering", e);
+                engine = null;
+                return;
+            }
+            pushSettingsToEngine();
+            syncUiState();
+        }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
-            hotspotService = null;
-            isServiceBound = false;
+            // The engine process died; the binding reconnects when it is recreated
+            engine = null;
+            engineLog = new EngineBinder.LogCursor();
         }
     };
 
@@ -156,10 +155,26 @@ public class MainActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        // Settings load off the main thread; the form is filled when they arrive
+        AppPreferences.preload(this);
+        AppPreferences.addListener(settingsListener);
+        startupOrchestrator = new StartupOrchestrator(this);
         initViews();
+        if (AppPreferences.peek() != null) {
+            loadSettings();
+        }
         checkPermissions();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Only a visible activity listens; in the background the UI does no work at all.
+        // Binding also brings up the engine process so the first tap finds it warm.
+        StatsBus.addListener(statsListener);
+        isServiceBound = bindService(new Intent(this, EngineService.class), engineConnection, Context.BIND_AUTO_CREATE);
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -174,10 +189,22 @@ public class MainActivity extends Activity {
         passwordInput = findViewById(R.id.passwordInput);
         ipText = findViewById(R.id.ipText);
         connectedDevicesLabel = findViewById(R.id.connectedDevicesLabel);
-        logText = findViewById(R.id.logText);
-        logScroll = findViewById(R.id.logScroll);
+        topTalkersText = findViewById(R.id.topTalkersText);
+        logList = findViewById(R.id.logList);
+        logAdapter = new ArrayAdapter<>(this, R.layout.log_line, logLines);
+        logAdapter.setNotifyOnChange(false);
+        logList.setAdapter(logAdapter);
         toggleButton = findViewById(R.id.toggleButton);
         proxyPortInput = findViewById(R.id.proxyPortInput);
+        directHostsInput = findViewById(R.id.directHostsInput);
+        traceRateInput = findViewById(R.id.traceRateInput);
+        traceClientsInput = findViewById(R.id.traceClientsInput);
+        logLevelSpinner = findViewById(R.id.logLevelSpinner);
+        ArrayAdapter<RouterLog.Level> levels = new ArrayAdapter<>(
+            this, android.R.layout.simple_spinner_item, RouterLog.Level.values());
+        levels.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        logLevelSpinner.setAdapter(levels);
+        logCapacityInput = findViewById(R.id.logCapacityInput);
         saveButton = findViewById(R.id.saveButton);
         exitButton = findViewById(R.id.exitButton);
         keepRunningSwitch = findViewById(R.id.keepRunningSwitch);
@@ -201,7 +228,6 @@ public class MainActivity extends Activity {
 
         notifSettingsButton.setOnClickListener(v -> openNotificationSettings());
 
-        loadSettings();
         appendLog("WiFi Router initialized");
     }
 
@@ -267,6 +293,7 @@ public class MainActivity extends Activity {
     }
 
     private void loadSettings() {
+        settingsShown = true;
         AppPreferences.ensureDefaultHotspotConfig(this);
         String savedSsid = AppPreferences.getSsid(this);
         String savedPassword = AppPreferences.getPassword(this);
@@ -279,6 +306,11 @@ public class MainActivity extends Activity {
             passwordInput.setText(savedPassword);
         }
         proxyPortInput.setText(String.valueOf(savedPort));
+        directHostsInput.setText(TextUtils.join(", ", AppPreferences.getDirectHosts(this)));
+        traceRateInput.setText(String.valueOf(Math.round(AppPreferences.getTraceSampleRate(this) * 1000) / 10.0));
+        traceClientsInput.setText(TextUtils.join(", ", AppPreferences.getTraceClients(this)));
+        logLevelSpinner.setSelection(AppPreferences.getLogLevel(this).ordinal());
+        logCapacityInput.setText(String.valueOf(AppPreferences.getLogCapacity(this)));
         keepRunningSwitch.setChecked(AppPreferences.getKeepRunning(this));
     }
 
@@ -286,6 +318,8 @@ public class MainActivity extends Activity {
         String ssid = ssidInput.getText().toString().trim();
         String password = passwordInput.getText().toString();
         int port = parseProxyPort();
+        float traceRate = parseTraceRate();
+        int logCapacity = parseLogCapacity();
 
         if (!TextUtils.isEmpty(password) && password.length() < 8) {
             if (showToast) {
@@ -310,6 +344,21 @@ public class MainActivity extends Activity {
             return false;
         }
 
+        if (traceRate < 0) {
+            if (showToast) {
+                Toast.makeText(this, "Trace sampling must be between 0 and 100%", Toast.LENGTH_LONG).show();
+            }
+            return false;
+        }
+
+        if (logCapacity < 0) {
+            if (showToast) {
+                Toast.makeText(this, String.format(Locale.US, "Log lines must be between %d and %d",
+                    AppLogBuffer.MIN_CAPACITY, AppLogBuffer.MAX_CAPACITY), Toast.LENGTH_LONG).show();
+            }
+            return false;
+        }
+
         if (!TextUtils.isEmpty(ssid)) {
             AppPreferences.saveSsid(this, ssid);
         }
@@ -317,6 +366,11 @@ public class MainActivity extends Activity {
             AppPreferences.savePassword(this, password);
         }
         AppPreferences.saveProxyPort(this, port);
+        AppPreferences.saveDirectHosts(this, parseList(directHostsInput));
+        AppPreferences.saveTraceSampleRate(this, traceRate);
+        AppPreferences.saveTraceClients(this, parseList(traceClientsInput));
+        AppPreferences.saveLogLevel(this, RouterLog.Level.values()[logLevelSpinner.getSelectedItemPosition()]);
+        AppPreferences.saveLogCapacity(this, logCapacity);
 
         if (showToast) {
             appendLog("Settings saved");
@@ -340,6 +394,48 @@ public class MainActivity extends Activity {
         return -1;
     }
 
+    /** Comma- or space-separated entries, lower-cased. */
+    private static Set<String> parseList(EditText input) {
+        Set<String> entries = new HashSet<>(Arrays.asList(
+            input.getText().toString().trim().toLowerCase(Locale.US).split("[,\\s]+")));
+        entries.remove("");
+        return entries;
+    }
+
+    /** The sampling percentage as a 0..1 fraction, or -1 if it is out of range. */
+    private float parseTraceRate() {
+        String value = traceRateInput.getText().toString().trim();
+        if (TextUtils.isEmpty(value)) {
+            return 0f;
+        }
+        try {
+            float percent = Float.parseFloat(value);
+            if (percent >= 0 && percent <= 100) {
+                return percent / 100f;
+            }
+        } catch (NumberFormatException ignored) {
+            // Invalid number
+        }
+        return -1f;
+    }
+
+    /** The log ring size, or -1 if it is out of range. */
+    private int parseLogCapacity() {
+        String value = logCapacityInput.getText().toString().trim();
+        if (TextUtils.isEmpty(value)) {
+            return AppPreferences.getLogCapacity(this);
+        }
+        try {
+            int capacity = Integer.parseInt(value);
+            if (capacity >= AppLogBuffer.MIN_CAPACITY && capacity <= AppLogBuffer.MAX_CAPACITY) {
+                return capacity;
+            }
+        } catch (NumberFormatException ignored) {
+            // Invalid number
+        }
+        return -1;
+    }
+
     private int getProxyPortFromInput() {
         int port = parseProxyPort();
         if (port <= 0) {
@@ -383,29 +479,42 @@ public class MainActivity extends Activity {
     }
 
     private void syncUiState() {
-        boolean running = ProxyService.isRunning();
+        EngineStats stats = readEngineStats(false);
+        boolean running = stats != null && stats.proxyRunning;
         isRouterActive = running;
         if (running) {
             setRouterActiveUi(true);
             ipText.setText(getHotspotIpAddress());
-            if (lastStatsTimeMs == 0) {
-                currentTotalBytes = totalBytes + ProxyService.getTotalBytes();
-                lastStatsBytes = currentTotalBytes;
-                lastStatsTimeMs = System.currentTimeMillis();
-            }
-            startDeviceUpdates();
+            applyStats(StatsBus.ALL);
         } else {
             setRouterActiveUi(false);
-            stopDeviceUpdates();
         }
         updateConnectedDevicesLabel();
     }
 
+    /**
+     * Sends the settings edited here to the engine, which persists them; it keeps its own
+     * values for the rest. Edits made while unbound wait for the next connection.
+     */
+    private void pushSettingsToEngine() {
+        if (engine == null || AppPreferences.peek() == null) {
+            return;
+        }
+        Set<String> keys = AppPreferences.takeUnpushedKeys();
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            engine.pushSettings(AppPreferences.peek(), keys);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Engine died while pushing settings", e);
+        }
+    }
+
     private void exitApp() {
         appendLog("Exiting app...");
         AppExitReceiver.stopAllServices(this);
         isRouterActive = false;
-        stopDeviceUpdates();
         setRouterActiveUi(false);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             finishAndRemoveTask();
@@ -436,6 +545,7 @@ public class MainActivity extends Activity {
     }
 
     private void startRouter() {
+        long tapNanos = System.nanoTime();
         appendLog("Starting router...");
         toggleButton.setEnabled(false);
         toggleButton.setText("Starting...");
@@ -446,27 +556,23 @@ public class MainActivity extends Activity {
             return;
         }
 
-        totalBytes = 0;
         currentTotalBytes = 0;
         currentSpeedKbps = 0.0;
-        lastStatsBytes = 0;
-        lastStatsTimeMs = System.currentTimeMillis();
-        ProxyService.resetStats();
+        if (engine != null) {
+            try {
+                engine.resetStats();
+            } catch (RemoteException e) {
+                Log.w(TAG, "Engine died before reset", e);
+            }
+        }
         updateConnectedDevicesLabel();
 
-        String ssid = getDesiredSsid();
-        String password = getDesiredPassword();
-        
-        // Start hotspot service
-        Intent serviceIntent = new Intent(this, HotspotService.class);
-        serviceIntent.putExtra(HotspotService.EXTRA_SSID, ssid);
-        serviceIntent.putExtra(HotspotService.EXTRA_PASSWORD, password);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(serviceIntent);
-        } else {
-            startService(serviceIntent);
-        }
-        bindService(serviceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
+        long settingsSaved = System.nanoTime();
+
+        // Hotspot and proxy come up in parallel; the timeline reports when both are ready
+        startupOrchestrator.start(tapNanos, getDesiredSsid(), getDesiredPassword(), getProxyPortFromInput(),
+            (totalMs, steps) -> runOnUiThread(this::refreshLogView));
+        StartupTimeline.step("save settings", tapNanos, settingsSaved);
     }
 
     private void prepareVpn() {
@@ -502,44 +608,21 @@ public class MainActivity extends Activity {
             startService(vpnServiceIntent);
         }
 
-        // Set up VPN status callback
-        RouterVpnService vpnService = RouterVpnService.getInstance();
-        if (vpnService != null) {
-            vpnService.setStatusCallback(new RouterVpnService.StatusCallback() {
-                @Override
-                public void onPacketForwarded(int bytes) {
-                    totalBytes += bytes;
-                    runOnUiThread(() -> {
-                        updateConnectedDevicesLabel();
-                    });
-                }
-
-                @Override
-                public void onLog(String message) {
-                    runOnUiThread(() -> appendLog(message));
-                }
-            });
-        }
-
         isRouterActive = true;
         runOnUiThread(() -> {
             setRouterActiveUi(true);
             appendLog("Router is now active");
+            applyStats(StatsBus.ALL);
         });
-        startDeviceUpdates();
     }
 
     private void stopRouter() {
         appendLog("Stopping router...");
+        startupOrchestrator.cancel();
 
         AppExitReceiver.stopAllServices(this);
-        if (isServiceBound) {
-            unbindService(serviceConnection);
-            isServiceBound = false;
-        }
 
         isRouterActive = false;
-        stopDeviceUpdates();
         resetUI();
         appendLog("Router stopped");
     }
@@ -547,14 +630,12 @@ public class MainActivity extends Activity {
     private void resetUI() {
         setRouterActiveUi(false);
         ipText.setText("---");
-        totalBytes = 0;
         connectedDevices = 0;
         proxyConnections = 0;
         currentTotalBytes = 0;
         currentSpeedKbps = 0.0;
-        lastStatsBytes = 0;
-        lastStatsTimeMs = 0;
         updateConnectedDevicesLabel();
+        topTalkersText.setVisibility(View.GONE);
     }
 
     private void appendLog(String message) {
@@ -564,110 +645,128 @@ public class MainActivity extends Activity {
     }
 
     private void refreshLogView() {
-        String text = AppLogBuffer.getText();
-        logText.setText(text);
-        if (logScroll != null) {
-            logScroll.post(() -> logScroll.fullScroll(View.FOCUS_DOWN));
+        newLogLines.clear();
+        logSequence = AppLogBuffer.readSince(logSequence, newLogLines);
+        if (engine != null) {
+            try {
+                // Bounded: the view keeps MAX_LOG_LINES, so a longer backlog would be trimmed anyway
+                for (int batch = 0; batch <= MAX_LOG_LINES / EngineBinder.READ_LOG_MAX_LINES; batch++) {
+                    if (!engine.readLog(engineLog, newLogLines)) {
+                        break;
+                    }
+                }
+            } catch (RemoteException e) {
+                Log.w(TAG, "Engine died while reading log", e);
+            }
         }
+        if (newLogLines.isEmpty()) {
+            return;
+        }
+        logLines.addAll(newLogLines);
+        if (logLines.size() > MAX_LOG_LINES + LOG_TRIM_SLACK) {
+            logLines.subList(0, logLines.size() - MAX_LOG_LINES).clear();
+        }
+        logAdapter.notifyDataSetChanged();
     }
 
-    private void startDeviceUpdates() {
-        deviceHandler.removeCallbacks(deviceUpdater);
-        deviceHandler.post(deviceUpdater);
-    }
-
-    private void stopDeviceUpdates() {
-        deviceHandler.removeCallbacks(deviceUpdater);
-    }
-
-    private void updateConnectedDevices(int arpCount, int proxyCount) {
-        connectedDevices = arpCount;
-        proxyConnections = proxyCount;
-        runOnUiThread(this::updateConnectedDevicesLabel);
+    /** Applies pushed changes; runs on the UI thread and only while the activity is started. */
+    private void applyStats(int changes) {
+        if ((changes & StatsBus.LOG) != 0) {
+            refreshLogView();
+        }
+        if (!isRouterActive || (changes & (StatsBus.TRAFFIC | StatsBus.TOP_TALKERS | StatsBus.CLIENTS)) == 0) {
+            return;
+        }
+        // One binder call per push; top talkers ride along only when they changed
+        EngineStats stats = readEngineStats((changes & StatsBus.TOP_TALKERS) != 0);
+        if (stats == null) {
+            return;
+        }
+        currentTotalBytes = stats.totalBytes;
+        currentSpeedKbps = stats.bytesPerSecond / 1024.0;
+        connectedDevices = stats.connectedClients;
+        proxyConnections = stats.proxyClients;
+        updateConnectedDevicesLabel();
+        if ((changes & StatsBus.TOP_TALKERS) != 0) {
+            updateTopTalkers(stats);
+        }
     }
 
-    private void updateTrafficStats(long totalBytesNow) {
-        long now = System.currentTimeMillis();
-        currentTotalBytes = totalBytesNow;
-        if (lastStatsTimeMs > 0) {
-            long deltaBytes = Math.max(0, totalBytesNow - lastStatsBytes);
-            long deltaMs = now - lastStatsTimeMs;
-            if (deltaMs > 0) {
-                currentSpeedKbps = (deltaBytes / 1024.0) / (deltaMs / 1000.0);
-            }
+    private EngineStats readEngineStats(boolean withTopTalkers) {
+        if (engine == null) {
+            return null;
+        }
+        try {
+            return engine.readStats(withTopTalkers);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Engine died while reading stats", e);
+            return null;
         }
-        lastStatsBytes = totalBytesNow;
-        lastStatsTimeMs = now;
     }
 
     private void updateConnectedDevicesLabel() {
-        int displayCount = Math.max(connectedDevices, proxyConnections);
         String totalText = String.format(Locale.US, "%.1f KB", currentTotalBytes / 1024.0);
         String speedText = String.format(Locale.US, "%.1f KB/s", currentSpeedKbps);
         connectedDevicesLabel.setText(
-            "Connected Devices: " + displayCount
+            "Connected Devices: " + connectedDevices
                 + " (proxy: " + proxyConnections + ")"
                 + " | Data: " + totalText
                 + " | Speed: " + speedText);
     }
 
-    private int getArpDeviceCount() {
-        int count = 0;
-        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/net/arp"))) {
-            String line = reader.readLine(); // Skip header
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.trim().split("\\s+");
-                if (parts.length >= 6) {
-                    String flags = parts[2];
-                    String mac = parts[3];
-                    String device = parts[5];
-                    if ("0x2".equals(flags)
-                        && mac != null
-                        && !"00:00:00:00:00:00".equals(mac)
-                        && isHotspotInterface(device)) {
-                        count++;
-                    }
-                }
-            }
-        } catch (IOException e) {
-            Log.w(TAG, "Failed to read /proc/net/arp", e);
+    private void updateTopTalkers(EngineStats stats) {
+        if (stats.topClients.isEmpty() && stats.topDestinations.isEmpty()) {
+            topTalkersText.setVisibility(View.GONE);
+            return;
         }
-        return count;
+        StringBuilder text = new StringBuilder("Top clients (recent):");
+        for (int i = 0; i < stats.topClients.size(); i++) {
+            text.append("\n  ").append(stats.topClients.get(i)).append("  ").append(formatBytes(stats.topClientBytes[i]));
+        }
+        text.append("\nTop destinations (recent):");
+        for (int i = 0; i < stats.topDestinations.size(); i++) {
+            text.append("\n  ").append(stats.topDestinations.get(i))
+                .append("  ").append(formatBytes(stats.topDestinationBytes[i]));
+        }
+        topTalkersText.setText(text);
+        topTalkersText.setVisibility(View.VISIBLE);
     }
 
-    private boolean isHotspotInterface(String device) {
-        return device != null
-            && (device.startsWith("wlan")
-                || device.startsWith("ap")
-                || device.startsWith("swlan")
-                || device.startsWith("wifi"));
+    private String getHotspotIpAddress() {
+        InterfaceAddress address = ClientRegistry.findHotspotAddress();
+        return address != null ? address.getAddress().getHostAddress() : "192.168.43.1";
     }
 
-    private String getHotspotIpAddress() {
-        try {
-            for (NetworkInterface intf : Collections.list(NetworkInterface.getNetworkInterfaces())) {
-                if (isHotspotInterface(intf.getName())) {
-                    for (InetAddress addr : Collections.list(intf.getInetAddresses())) {
-                        if (addr instanceof Inet4Address && !addr.isLoopbackAddress()) {
-                            return addr.getHostAddress();
-                        }
-                    }
-                }
-            }
-        } catch (SocketException e) {
-            Log.w(TAG, "Failed to read hotspot IP", e);
+    private void onHotspotStarted(String ssid, String password) {
+        String hotspotIp = getHotspotIpAddress();
+        ipText.setText(hotspotIp);
+        AppPreferences.saveHotspotIfEmpty(this, ssid, password);
+        if (TextUtils.isEmpty(ssidInput.getText().toString()) && !TextUtils.isEmpty(ssid)) {
+            ssidInput.setText(ssid);
+        }
+        if (TextUtils.isEmpty(passwordInput.getText().toString()) && !TextUtils.isEmpty(password)) {
+            passwordInput.setText(password);
         }
-        return "192.168.43.1";
-    }
 
-    private void startProxyService(int port) {
-        Intent proxyIntent = new Intent(this, ProxyService.class);
-        proxyIntent.putExtra(ProxyService.EXTRA_PORT, port);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            startForegroundService(proxyIntent);
-        } else {
-            startService(proxyIntent);
+        int proxyPort = getProxyPortFromInput();
+        appendLog("Hotspot started: " + ssid);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R && hasCustomHotspotConfig()) {
+            appendLog("Custom SSID/password cannot be applied on this Android version");
         }
+        appendLog("Set client proxy to " + hotspotIp + ":" + proxyPort);
+        appendLog("Or set automatic proxy to http://" + hotspotIp + ":" + proxyPort + PacEndpoint.PAC_PATH);
+        isRouterActive = true;
+        setRouterActiveUi(true);
+        applyStats(StatsBus.ALL);
+    }
+
+    private void onHotspotFailed(int reason) {
+        isRouterActive = false;
+        startupOrchestrator.cancel();
+        stopProxyService();
+        appendLog("Hotspot failed: " + getFailureReason(reason));
+        Toast.makeText(this, "Hotspot failed: " + getFailureReason(reason), Toast.LENGTH_LONG).show();
+        resetUI();
     }
 
     private void stopProxyService() {
@@ -695,12 +794,29 @@ public class MainActivity extends Activity {
     }
 
     @Override
-    protected void onDestroy() {
+    protected void onStop() {
+        StatsBus.removeListener(statsListener);
+        if (engine != null) {
+            // The engine writes the settings file, so hand it anything still queued
+            pushSettingsToEngine();
+            try {
+                engine.setListener(null);
+            } catch (RemoteException ignored) {
+                // Engine already gone, and its listener list with it
+            }
+            engine = null;
+        }
         if (isServiceBound) {
-            unbindService(serviceConnection);
+            unbindService(engineConnection);
             isServiceBound = false;
         }
-        stopDeviceUpdates();
+        deviceHandler.removeCallbacksAndMessages(null);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        AppPreferences.removeListener(settingsListener);
         super.onDestroy();
     }
 }
@@ -0,0 +1,211 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves {@code GET /__metrics} on the proxy port in the Prometheus text exposition
+ * format, so a scraper on the hotspot LAN can chart the phone without adb. Only
+ * origin-form requests match; absolute-URI requests for the same path are proxied
+ * as usual.
+ */
+final class MetricsEndpoint {
+    static final String PATH = "/__metrics";
+    private static final String PREFIX = "wifi_router_";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Histogram bucket bounds in seconds, matching the Prometheus client defaults plus a long tail. */
+    private static final double[] BUCKETS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 900
+    };
+
+    private MetricsEndpoint() {
+    }
+
+    static boolean isMetricsRequest(ProxyServer.HttpRequest request) {
+        if (!"GET".equalsIgnoreCase(request.method)) {
+            return false;
+        }
+        return request.path().equals(PATH);
+    }
+
+    static void write(OutputStream out) throws IOException {
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: " + CONTENT_TYPE + "\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "Cache-Control: no-store\r\n"
+            + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    static String render() {
+        StringBuilder b = new StringBuilder(8192);
+
+        counter(b, "proxy_bytes_total", "Bytes relayed by the proxy in both directions.",
+            ProxyServer.getTotalBytes());
+        counter(b, "proxy_pac_requests_total", "Auto-config scripts served at /proxy.pac and /wpad.dat.",
+            PacEndpoint.getServedCount());
+        counter(b, "proxy_connections_total", "Client connections accepted by the proxy.",
+            ProxyServer.getConnectionsAccepted());
+        gauge(b, "proxy_connections_active", "Client connections currently being handled.",
+            ProxyServer.getActiveConnectionCount());
+        gauge(b, "proxy_tunnels_active", "Relays currently copying data in both directions.",
+            ProxyServer.getActiveTunnelCount());
+        gauge(b, "proxy_clients_active", "Distinct client addresses seen within the session timeout.",
+            ProxyServer.getActiveClientCount());
+
+        help(b, "proxy_errors_total", "counter", "Proxy failures by stage. client_io counts every session"
+            + " that ended in an I/O error, including upstream failures.");
+        sample(b, "proxy_errors_total", "stage=\"bad_request\"", ProxyServer.getBadRequestCount());
+        sample(b, "proxy_errors_total", "stage=\"resolve\"", ProxyServer.getResolveFailureCount());
+        sample(b, "proxy_errors_total", "stage=\"connect\"", ProxyServer.getConnectFailureCount());
+        sample(b, "proxy_errors_total", "stage=\"client_io\"", ProxyServer.getClientErrorCount());
+        sample(b, "proxy_errors_total", "stage=\"rejected\"", ProxyServer.getRejectedClientCount());
+
+        BufferPool buffers = RouterEngine.get().buffers();
+        gauge(b, "proxy_relay_buffers_in_use", "Relay copy buffers currently in use.",
+            buffers.getInUseCount());
+        gauge(b, "proxy_relay_buffers_pooled", "Free relay copy buffers kept for reuse.",
+            buffers.getPooledCount());
+        gauge(b, "proxy_relay_buffer_bytes", "Bytes held by relay copy buffers, in use or pooled.",
+            (long) (buffers.getInUseCount() + buffers.getPooledCount()) * buffers.getBufferSize());
+        counter(b, "proxy_relay_buffers_allocated_total", "Relay copy buffers created because the pool was empty.",
+            buffers.getAllocatedCount());
+
+        help(b, "threads", "gauge", "Threads by role.");
+        sample(b, "threads", "role=\"engine_io\"", RouterEngine.get().getIoThreadCount());
+        sample(b, "threads", "role=\"engine_io_busy\"", RouterEngine.get().getIoActiveCount());
+        sample(b, "threads", "role=\"process\"", Thread.activeCount());
+        counter(b, "engine_rejected_tasks_total", "Tasks refused because every engine I/O thread was busy.",
+            RouterEngine.get().getRejectedCount());
+
+        help(b, "throughput_bytes_per_second", "gauge", "Moving-average throughput through the router.");
+        for (RateMeter.Window window : RateMeter.Window.values()) {
+            String suffix = ",window=\"" + window.name().toLowerCase(Locale.US) + "\"";
+            rate(b, "throughput_bytes_per_second", "direction=\"up\"" + suffix,
+                TrafficMeters.global().up.getRate(window));
+            rate(b, "throughput_bytes_per_second", "direction=\"down\"" + suffix,
+                TrafficMeters.global().down.getRate(window));
+        }
+
+        counter(b, "vpn_packets_total", "Packets read from the VPN interface.",
+            PacketRouter.getPacketCount());
+        counter(b, "vpn_packet_bytes_total", "IP bytes read from the VPN interface.",
+            PacketRouter.getPacketBytes());
+        counter(b, "vpn_udp_replies_total", "UDP replies written back to the VPN interface.",
+            PacketRouter.getUdpReplyCount());
+        counter(b, "vpn_errors_total", "Packets that failed to be handled.",
+            PacketRouter.getErrorCount());
+        gauge(b, "vpn_udp_flows_active", "Open upstream UDP flows.",
+            UdpFlowTable.getOpenFlowCount());
+        gauge(b, "proxy_udp_associations_active", "Open SOCKS UDP associations.",
+            SocksUdpRelay.getOpenAssociationCount());
+        help(b, "proxy_udp_datagrams_total", "counter", "Datagrams relayed for SOCKS UDP associations.");
+        sample(b, "proxy_udp_datagrams_total", "direction=\"up\"", SocksUdpRelay.getDatagramsUp());
+        sample(b, "proxy_udp_datagrams_total", "direction=\"down\"", SocksUdpRelay.getDatagramsDown());
+        counter(b, "proxy_udp_datagrams_dropped_total",
+            "SOCKS datagrams dropped: malformed, from a stranger, unsolicited or over a full buffer.",
+            SocksUdpRelay.getDroppedDatagrams());
+        help(b, "performance_lock_held", "gauge", "Whether the hotspot holds each performance lock.");
+        for (PerformanceLocks.Lock lock : PerformanceLocks.Lock.values()) {
+            sample(b, "performance_lock_held", lockLabel(lock), PerformanceLocks.isHeld(lock) ? 1 : 0);
+        }
+        help(b, "performance_lock_held_seconds_total", "counter", "Time spent holding each performance lock.");
+        for (PerformanceLocks.Lock lock : PerformanceLocks.Lock.values()) {
+            rate(b, "performance_lock_held_seconds_total", lockLabel(lock),
+                PerformanceLocks.getHeldMillis(lock) / 1000.0);
+        }
+        help(b, "performance_lock_acquisitions_total", "counter", "Times each performance lock was taken.");
+        for (PerformanceLocks.Lock lock : PerformanceLocks.Lock.values()) {
+            sample(b, "performance_lock_acquisitions_total", lockLabel(lock), PerformanceLocks.getAcquireCount(lock));
+        }
+
+        counter(b, "hotspot_recoveries_total", "Times the watchdog brought the hotspot back after an outage.",
+            HotspotWatchdog.getRecoveryCount());
+        counter(b, "hotspot_recovery_giveups_total", "Outages the watchdog stopped retrying.",
+            HotspotWatchdog.getGiveUpCount());
+        help(b, "hotspot_recovery_seconds_total", "counter", "Total time from hotspot loss to recovery.");
+        rate(b, "hotspot_recovery_seconds_total", null, HotspotWatchdog.getRecoveryMillisTotal() / 1000.0);
+        help(b, "hotspot_last_recovery_seconds", "gauge", "Duration of the most recent hotspot recovery.");
+        rate(b, "hotspot_last_recovery_seconds", null, HotspotWatchdog.getLastRecoveryMillis() / 1000.0);
+
+        counter(b, "journal_sessions_written_total", "Finished sessions written to the session journal.",
+            SessionJournal.getWrittenCount());
+        counter(b, "journal_sessions_dropped_total", "Sessions dropped because the journal queue was full.",
+            SessionJournal.getDroppedCount());
+
+        help(b, "proxy_phase_seconds", "histogram", "Proxy latency by request kind and phase.");
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : ProxyMetrics.snapshotAll().entrySet()) {
+            String key = entry.getKey();
+            int dot = key.indexOf('.');
+            String labels = "kind=\"" + key.substring(0, dot) + "\",phase=\"" + key.substring(dot + 1) + "\"";
+            histogram(b, "proxy_phase_seconds", labels, entry.getValue());
+        }
+        return b.toString();
+    }
+
+    private static void counter(StringBuilder b, String name, String help, long value) {
+        help(b, name, "counter", help);
+        sample(b, name, null, value);
+    }
+
+    private static void gauge(StringBuilder b, String name, String help, long value) {
+        help(b, name, "gauge", help);
+        sample(b, name, null, value);
+    }
+
+    private static void help(StringBuilder b, String name, String type, String help) {
+        b.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        b.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder b, String name, String labels, long value) {
+        b.append(PREFIX).append(name);
+        if (labels != null) {
+            b.append('{').append(labels).append('}');
+        }
+        b.append(' ').append(value).append('\n');
+    }
+
+    private static void rate(StringBuilder b, String name, String labels, double value) {
+        b.append(PREFIX).append(name);
+        if (labels != null) {
+            b.append('{').append(labels).append('}');
+        }
+        b.append(' ').append(formatDouble(value)).append('\n');
+    }
+
+    private static String lockLabel(PerformanceLocks.Lock lock) {
+        return "lock=\"" + lock.name().toLowerCase(Locale.US) + "\"";
+    }
+
+    private static void histogram(StringBuilder b, String name, String labels,
+                                  LatencyHistogram.Snapshot snapshot) {
+        for (double bound : BUCKETS) {
+            long count = snapshot.getCountAtOrBelow((long) (bound * 1_000_000L));
+            sample(b, name + "_bucket", labels + ",le=\"" + formatDouble(bound) + "\"", count);
+        }
+        sample(b, name + "_bucket", labels + ",le=\"+Inf\"", snapshot.getCount());
+        b.append(PREFIX).append(name).append("_sum{").append(labels).append("} ")
+            .append(formatDouble(snapshot.getSumMicros() / 1_000_000.0)).append('\n');
+        sample(b, name + "_count", labels, snapshot.getCount());
+    }
+
+    private static String formatDouble(double value) {
+        String text = String.format(Locale.US, "%.6f", value);
+        int end = text.length();
+        while (text.charAt(end - 1) == '0') {
+            end--;
+        }
+        if (text.charAt(end - 1) == '.') {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InterfaceAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Serves a proxy auto-config script on the proxy port at {@code /proxy.pac}, and at
+ * {@code /wpad.dat} for clients that discover it through WPAD. Hotspot and private
+ * addresses, plain and {@code .local} names and the user's direct hosts go
+ * {@code DIRECT}; everything else goes through this proxy. The script is regenerated
+ * when the hotspot address, the port or the direct hosts change. Like
+ * {@link MetricsEndpoint}, only origin-form requests match.
+ */
+final class PacEndpoint {
+    static final String PAC_PATH = "/proxy.pac";
+    static final String WPAD_PATH = "/wpad.dat";
+    private static final String CONTENT_TYPE = "application/x-ns-proxy-autoconfig";
+
+    /** Private, shared, link-local and loopback IPv4 ranges as network and mask. */
+    private static final String[][] LOCAL_RANGES = {
+        {"10.0.0.0", "255.0.0.0"},
+        {"172.16.0.0", "255.240.0.0"},
+        {"192.168.0.0", "255.255.0.0"},
+        {"100.64.0.0", "255.192.0.0"},
+        {"169.254.0.0", "255.255.0.0"},
+        {"127.0.0.0", "255.0.0.0"},
+    };
+    // Anything else could break out of the script's string literals
+    private static final Pattern HOST = Pattern.compile("[a-z0-9]([a-z0-9.-]*[a-z0-9])?");
+
+    private static final AtomicLong SERVED = new AtomicLong(0);
+    private static volatile Set<String> directHosts = Collections.emptySet();
+    private static volatile Script cached;
+
+    private PacEndpoint() {
+    }
+
+    static boolean isPacRequest(ProxyServer.HttpRequest request) {
+        if (!"GET".equalsIgnoreCase(request.method)) {
+            return false;
+        }
+        String path = request.path();
+        return path.equals(PAC_PATH) || path.equals(WPAD_PATH);
+    }
+
+    /**
+     * Sets the hosts to reach without the proxy. {@code example.com} also covers its
+     * subdomains, as does the {@code *.example.com} spelling; invalid entries are dropped.
+     */
+    static void setDirectHosts(Collection<String> hosts) {
+        Set<String> valid = new TreeSet<>();
+        for (String host : hosts) {
+            String domain = host.trim().toLowerCase(Locale.US);
+            if (domain.startsWith("*.")) {
+                domain = domain.substring(2);
+            } else if (domain.startsWith(".")) {
+                domain = domain.substring(1);
+            }
+            if (HOST.matcher(domain).matches()) {
+                valid.add(domain);
+            }
+        }
+        directHosts = Collections.unmodifiableSet(valid);
+    }
+
+    static void write(OutputStream out, Socket client) throws IOException {
+        SERVED.incrementAndGet();
+        byte[] body = script(client).getBytes(StandardCharsets.UTF_8);
+        // Clients cache the script; no-cache makes them revalidate after the address changes
+        String header = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: " + CONTENT_TYPE + "\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+
+    static long getServedCount() {
+        return SERVED.get();
+    }
+
+    /**
+     * Proxies through the hotspot address, as shown in the UI. Off the hotspot (the load
+     * harness, a USB tether) it falls back to the address the client reached us on.
+     */
+    private static String script(Socket client) {
+        InterfaceAddress hotspot = ClientRegistry.findHotspotAddress();
+        InetAddress address = hotspot != null ? hotspot.getAddress() : client.getLocalAddress();
+        String proxy = address instanceof Inet6Address
+            ? "[" + address.getHostAddress() + "]:" + client.getLocalPort()
+            : address.getHostAddress() + ":" + client.getLocalPort();
+        String[] subnet = hotspot != null ? subnet(address.getAddress(), hotspot.getNetworkPrefixLength()) : null;
+        Set<String> direct = directHosts;
+
+        Script script = cached;
+        if (script == null || !script.matches(proxy, subnet, direct)) {
+            script = new Script(proxy, subnet, direct);
+            cached = script;
+        }
+        return script.text;
+    }
+
+    static String render(String proxy, String[] subnet, Set<String> direct) {
+        StringBuilder b = new StringBuilder(1024);
+        b.append("function FindProxyForURL(url, host) {\n");
+        b.append("  host = host.toLowerCase();\n");
+        b.append("  if (isPlainHostName(host) || host == \"localhost\" || dnsDomainIs(host, \".local\")) {\n");
+        b.append("    return \"DIRECT\";\n");
+        b.append("  }\n");
+        for (String domain : direct) {
+            b.append("  if (host == \"").append(domain).append("\" || dnsDomainIs(host, \".")
+                .append(domain).append("\")) {\n");
+            b.append("    return \"DIRECT\";\n");
+            b.append("  }\n");
+        }
+        // Only literal addresses are matched; resolving names here would cost a lookup per request
+        b.append("  if (/^\\d+\\.\\d+\\.\\d+\\.\\d+$/.test(host)) {\n");
+        if (subnet != null) {
+            appendRange(b, subnet);
+        }
+        for (String[] range : LOCAL_RANGES) {
+            appendRange(b, range);
+        }
+        b.append("  }\n");
+        b.append("  return \"PROXY ").append(proxy).append("\";\n");
+        b.append("}\n");
+        return b.toString();
+    }
+
+    private static void appendRange(StringBuilder b, String[] range) {
+        b.append("    if (isInNet(host, \"").append(range[0]).append("\", \"").append(range[1]).append("\")) {\n");
+        b.append("      return \"DIRECT\";\n");
+        b.append("    }\n");
+    }
+
+    /** Network and mask for an IPv4 address and prefix length. */
+    private static String[] subnet(byte[] address, int prefix) {
+        int ip = ((address[0] & 0xFF) << 24) | ((address[1] & 0xFF) << 16)
+            | ((address[2] & 0xFF) << 8) | (address[3] & 0xFF);
+        int mask = prefix <= 0 ? 0 : -1 << (32 - Math.min(prefix, 32));
+        return new String[] {dotted(ip & mask), dotted(mask)};
+    }
+
+    private static String dotted(int value) {
+        return String.format(Locale.US, "%d.%d.%d.%d",
+            (value >>> 24) & 0xFF, (value >>> 16) & 0xFF, (value >>> 8) & 0xFF, value & 0xFF);
+    }
+
+    private static final class Script {
+        final String proxy;
+        final String[] subnet;
+        final Set<String> direct;
+        final String text;
+
+        Script(String proxy, String[] subnet, Set<String> direct) {
+            this.proxy = proxy;
+            this.subnet = subnet;
+            this.direct = direct;
+            this.text = render(proxy, subnet, direct);
+        }
+
+        boolean matches(String proxy, String[] subnet, Set<String> direct) {
+            return this.proxy.equals(proxy)
+                && Arrays.equals(this.subnet, subnet)
+                && this.direct.equals(direct);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies packets read from the TUN interface and builds the responses written
+ * back to it. Kept free of Android dependencies so the packet path can be driven
+ * from an in-memory source on a desktop JVM.
+ */
+public class PacketRouter {
+    private static final AtomicLong PACKETS = new AtomicLong(0);
+    private static final AtomicLong PACKET_BYTES = new AtomicLong(0);
+    private static final AtomicLong UDP_REPLIES = new AtomicLong(0);
+    private static final AtomicLong ERRORS = new AtomicLong(0);
+
+    private static final String TAG = "PacketRouter";
+    private static final RouterLog.Site IPV6_LOG = RouterLog.site(TAG, RouterLog.Level.INFO, 0.2, 1);
+    private static final RouterLog.Site TCP_LOG = RouterLog.site(TAG, RouterLog.Level.DEBUG, 5, 20);
+    private static final RouterLog.Site ICMP_LOG = RouterLog.site(TAG, RouterLog.Level.DEBUG, 5, 20);
+    private static final RouterLog.Site ERROR_LOG = RouterLog.site(TAG, RouterLog.Level.WARN, 1, 5);
+
+    private final int mtu;
+    private final UdpTransport udpTransport;
+    private final Listener listener;
+    // Packets arrive on one thread; the last source address is cached to avoid formatting it per packet
+    private int lastSrc;
+    private String lastSrcText;
+    private TrafficMeters.Pair lastSrcMeters;
+
+    /** Destination for packets going back to the TUN interface. */
+    public interface PacketSink {
+        void write(byte[] data, int offset, int length) throws IOException;
+    }
+
+    /** Forwards UDP payloads upstream and collects any reply that is already available. */
+    public interface UdpTransport {
+        /**
+         * Sends {@code payload} to {@code dstIp:dstPort} on the flow identified by
+         * {@code flowKey}, which is unique per client, and reads a pending reply into {@code reply}. {@code client} is
+         * the hotspot client's address, for accounting.
+         *
+         * @return number of reply bytes, or 0 when no reply is available yet
+         */
+        int exchange(FlowKey flowKey, String client, InetAddress dstIp, int dstPort, ByteBuffer payload,
+                     ByteBuffer reply)
+            throws IOException;
+    }
+
+    public interface Listener {
+        void onPacketForwarded(int bytes);
+    }
+
+    /** A UDP flow: both addresses and both ports, so clients reusing a source port stay apart. */
+    public static final class FlowKey {
+        private final int srcIp;
+        private final int dstIp;
+        private final int ports;
+
+        FlowKey(int srcIp, int srcPort, int dstIp, int dstPort) {
+            this.srcIp = srcIp;
+            this.dstIp = dstIp;
+            this.ports = srcPort << 16 | dstPort;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlowKey)) {
+                return false;
+            }
+            FlowKey other = (FlowKey) o;
+            return srcIp == other.srcIp && dstIp == other.dstIp && ports == other.ports;
+        }
+
+        @Override
+        public int hashCode() {
+            return (srcIp * 31 + dstIp) * 31 + ports;
+        }
+    }
+
+    public PacketRouter(int mtu, UdpTransport udpTransport, Listener listener) {
+        this.mtu = mtu;
+        this.udpTransport = udpTransport;
+        this.listener = listener;
+    }
+
+    public void handlePacket(ByteBuffer packet, PacketSink out) {
+        try {
+            int version = (packet.get(0) >> 4) & 0xF;
+            
+            if (version == 4) {
+                handleIPv4Packet(packet, out);
+            } else if (version == 6) {
+                // IPv6 - pass through
+                IPV6_LOG.log("IPv6 packet received (not yet supported)");
+            }
+            
+        } catch (Exception e) {
+            ERRORS.incrementAndGet();
+            ERROR_LOG.error("Error handling packet", e);
+        }
+    }
+
+    public void handleIPv4Packet(ByteBuffer packet, PacketSink out) throws IOException {
+        int headerLength = (packet.get(0) & 0x0F) * 4;
+        int totalLength = ((packet.get(2) & 0xFF) << 8) | (packet.get(3) & 0xFF);
+        int protocol = packet.get(9) & 0xFF;
+        
+        byte[] srcAddr = new byte[4];
+        byte[] dstAddr = new byte[4];
+        packet.position(12);
+        packet.get(srcAddr);
+        packet.get(dstAddr);
+        
+        InetAddress dstIp = InetAddress.getByAddress(dstAddr);
+        String source = sourceText(srcAddr);
+        ClientRegistry.recordActivity(ClientRegistry.Source.VPN, source, totalLength);
+        TrafficMeters.global().up.mark(totalLength);
+        lastSrcMeters.markUp(totalLength);
+
+        if (protocol == 17) { // UDP
+            handleUdpPacket(packet, headerLength, srcAddr, source, dstIp, out);
+        } else if (protocol == 6) { // TCP  
+            handleTcpPacket(packet, headerLength, dstIp);
+        } else if (protocol == 1) { // ICMP
+            handleIcmpPacket(packet, headerLength, dstIp);
+        }
+        
+        PACKETS.incrementAndGet();
+        PACKET_BYTES.addAndGet(totalLength);
+        listener.onPacketForwarded(totalLength);
+    }
+
+    private void handleUdpPacket(ByteBuffer packet, int ipHeaderLen, byte[] srcAddr, String source,
+                                 InetAddress dstIp, PacketSink out) {
+        try {
+            int srcPort = ((packet.get(ipHeaderLen) & 0xFF) << 8) | (packet.get(ipHeaderLen + 1) & 0xFF);
+            int dstPort = ((packet.get(ipHeaderLen + 2) & 0xFF) << 8) | (packet.get(ipHeaderLen + 3) & 0xFF);
+            int udpLength = ((packet.get(ipHeaderLen + 4) & 0xFF) << 8) | (packet.get(ipHeaderLen + 5) & 0xFF);
+            
+            int dataOffset = ipHeaderLen + 8;
+            int dataLength = udpLength - 8;
+            
+            if (dataLength > 0 && dataOffset + dataLength <= packet.limit()) {
+                byte[] data = new byte[dataLength];
+                packet.position(dataOffset);
+                packet.get(data);
+                
+                // Forward via UDP, reusing the flow's channel until it goes idle
+                ByteBuffer response = ByteBuffer.allocate(mtu);
+                int read = udpTransport.exchange(flowKey(srcAddr, srcPort, dstIp, dstPort), source, dstIp,
+                    dstPort, ByteBuffer.wrap(data), response);
+                
+                if (read > 0) {
+                    response.flip();
+                    byte[] responseData = new byte[read];
+                    response.get(responseData);
+                    
+                    // Build response packet and write back
+                    ByteBuffer responsePacket = buildUdpResponse(dstIp, srcAddr, dstPort, srcPort, responseData);
+                    out.write(responsePacket.array(), 0, responsePacket.limit());
+                    UDP_REPLIES.incrementAndGet();
+                    TrafficMeters.global().down.mark(responsePacket.limit());
+                    lastSrcMeters.markDown(responsePacket.limit());
+                }
+            }
+        } catch (Exception e) {
+            ERRORS.incrementAndGet();
+            ERROR_LOG.error("UDP forward error", e);
+        }
+    }
+
+    private void handleTcpPacket(ByteBuffer packet, int ipHeaderLen, InetAddress dstIp) {
+        // TCP requires stateful connection tracking - simplified implementation
+        try {
+            int dstPort = ((packet.get(ipHeaderLen + 2) & 0xFF) << 8) | (packet.get(ipHeaderLen + 3) & 0xFF);
+            if (TCP_LOG.isEnabled()) {
+                TCP_LOG.log("TCP packet to {}:{}", dstIp.getHostAddress(), dstPort);
+            }
+            
+            // For full TCP support, would need to implement TCP state machine
+            // or use a library like netty
+            
+        } catch (Exception e) {
+            ERROR_LOG.error("TCP handling error", e);
+        }
+    }
+
+    private void handleIcmpPacket(ByteBuffer packet, int ipHeaderLen, InetAddress dstIp) {
+        try {
+            int type = packet.get(ipHeaderLen) & 0xFF;
+            if (type == 8 && ICMP_LOG.isEnabled()) { // Echo request
+                ICMP_LOG.log("ICMP Echo request to {}", dstIp.getHostAddress());
+            }
+        } catch (Exception e) {
+            ERROR_LOG.error("ICMP handling error", e);
+        }
+    }
+
+    private String sourceText(byte[] srcAddr) {
+        int src = ((srcAddr[0] & 0xFF) << 24) | ((srcAddr[1] & 0xFF) << 16)
+            | ((srcAddr[2] & 0xFF) << 8) | (srcAddr[3] & 0xFF);
+        if (lastSrcText == null || src != lastSrc) {
+            lastSrc = src;
+            lastSrcText = (srcAddr[0] & 0xFF) + "." + (srcAddr[1] & 0xFF) + "."
+                + (srcAddr[2] & 0xFF) + "." + (srcAddr[3] & 0xFF);
+            lastSrcMeters = TrafficMeters.forClient(lastSrcText);
+        } else {
+            // The sampler drops meters of clients that went quiet
+            lastSrcMeters = lastSrcMeters.current();
+        }
+        return lastSrcText;
+    }
+
+    public static long getPacketCount() {
+        return PACKETS.get();
+    }
+
+    public static long getPacketBytes() {
+        return PACKET_BYTES.get();
+    }
+
+    public static long getUdpReplyCount() {
+        return UDP_REPLIES.get();
+    }
+
+    public static long getErrorCount() {
+        return ERRORS.get();
+    }
+
+    static FlowKey flowKey(byte[] srcAddr, int srcPort, InetAddress dstIp, int dstPort) {
+        return new FlowKey(toInt(srcAddr), srcPort, toInt(dstIp.getAddress()), dstPort);
+    }
+
+    private static int toInt(byte[] addr) {
+        return ((addr[0] & 0xFF) << 24) | ((addr[1] & 0xFF) << 16) | ((addr[2] & 0xFF) << 8) | (addr[3] & 0xFF);
+    }
+
+    /** A reply from {@code origDst:srcPort} to the client at {@code clientAddr:dstPort}. */
+    static ByteBuffer buildUdpResponse(InetAddress origDst, byte[] clientAddr, int srcPort, int dstPort,
+                                       byte[] data) {
+        // Simplified response packet builder
+        int totalLength = 20 + 8 + data.length; // IP + UDP + data
+        ByteBuffer response = ByteBuffer.allocate(totalLength);
+        
+        // IP Header (simplified)
+        response.put((byte) 0x45); // Version + IHL
+        response.put((byte) 0x00); // TOS
+        response.putShort((short) totalLength);
+        response.putShort((short) 0); // ID
+        response.putShort((short) 0x4000); // Flags + Fragment
+        response.put((byte) 64); // TTL
+        response.put((byte) 17); // Protocol UDP
+        response.putShort((short) 0); // Checksum (would need to calculate)
+        response.put(origDst.getAddress());
+        response.put(clientAddr);
+        
+        // UDP Header
+        response.putShort((short) srcPort);
+        response.putShort((short) dstPort);
+        response.putShort((short) (8 + data.length));
+        response.putShort((short) 0); // Checksum
+        
+        // Data
+        response.put(data);
+        
+        response.flip();
+        return response;
+    }
+}
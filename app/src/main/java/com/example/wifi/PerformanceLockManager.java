@@ -0,0 +1,118 @@
+package com.example.wifi;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Applies {@link PerformanceLocks} decisions to the real Wi-Fi lock and wake lock while
+ * the hotspot is up. Traffic and client counts are sampled every few seconds on the
+ * shared {@link TimingWheel}; the wake lock is taken with a lease that each sample
+ * renews, so it lapses on its own if the process stops sampling.
+ */
+public final class PerformanceLockManager {
+    private static final String TAG = "PerformanceLocks";
+    private static final long SAMPLE_INTERVAL_MS = 5000;
+    private static final long WAKE_LOCK_LEASE_MS = 3 * SAMPLE_INTERVAL_MS;
+
+    private final WifiManager.WifiLock wifiLock;
+    private final PowerManager.WakeLock wakeLock;
+    private volatile TimingWheel.Timeout next;
+    private volatile boolean running;
+
+    public PerformanceLockManager(Context context) {
+        Context app = context.getApplicationContext();
+        WifiManager wifiManager = (WifiManager) app.getSystemService(Context.WIFI_SERVICE);
+        PowerManager powerManager = (PowerManager) app.getSystemService(Context.POWER_SERVICE);
+        int wifiMode = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+            ? WifiManager.WIFI_MODE_FULL_LOW_LATENCY
+            : WifiManager.WIFI_MODE_FULL_HIGH_PERF;
+        wifiLock = wifiManager != null ? wifiManager.createWifiLock(wifiMode, TAG) : null;
+        wakeLock = powerManager != null
+            ? powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WifiRouter:" + TAG) : null;
+        if (wifiLock != null) {
+            wifiLock.setReferenceCounted(false);
+        }
+        if (wakeLock != null) {
+            wakeLock.setReferenceCounted(false);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        schedule();
+    }
+
+    /** Stops sampling and releases both locks. */
+    public synchronized void stop() {
+        running = false;
+        TimingWheel.Timeout current = next;
+        if (current != null) {
+            current.cancel();
+        }
+        PerformanceLocks.releaseAll(System.currentTimeMillis());
+        apply(PerformanceLocks.Lock.WIFI, false);
+        apply(PerformanceLocks.Lock.CPU, false);
+    }
+
+    private void schedule() {
+        next = TimingWheel.shared().schedule(this::sample, SAMPLE_INTERVAL_MS);
+    }
+
+    private synchronized void sample() {
+        if (!running) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            double rate = TrafficMeters.global().getRate(RateMeter.Window.FAST);
+            int clients = ClientRegistry.getConnectedCount();
+            for (PerformanceLocks.Lock lock : PerformanceLocks.Lock.values()) {
+                apply(lock, PerformanceLocks.evaluate(lock, now, rate, clients));
+            }
+        } catch (RuntimeException e) {
+            AppLogBuffer.add(TAG, "Lock sample failed: {}", e);
+        }
+        schedule();
+    }
+
+    private void apply(PerformanceLocks.Lock lock, boolean held) {
+        if (lock == PerformanceLocks.Lock.WIFI) {
+            if (wifiLock == null || held == wifiLock.isHeld()) {
+                return;
+            }
+            if (held) {
+                wifiLock.acquire();
+            } else {
+                wifiLock.release();
+            }
+        } else {
+            if (wakeLock == null) {
+                return;
+            }
+            if (held) {
+                // Renewed on every sample while wanted
+                boolean wasHeld = wakeLock.isHeld();
+                wakeLock.acquire(WAKE_LOCK_LEASE_MS);
+                if (wasHeld) {
+                    return;
+                }
+            } else if (wakeLock.isHeld()) {
+                wakeLock.release();
+            } else {
+                return;
+            }
+        }
+        String message = (held ? "Acquired " : "Released ") + lock.name().toLowerCase(Locale.US) + " lock"
+            + " (held " + PerformanceLocks.getHeldMillis(lock) / 1000 + " s in total)";
+        Log.i(TAG, message);
+        AppLogBuffer.add(TAG, message);
+    }
+}
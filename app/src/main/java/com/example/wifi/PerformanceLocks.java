@@ -0,0 +1,109 @@
+package com.example.wifi;
+
+/**
+ * When the hotspot should hold its Wi-Fi and CPU performance locks, and for how long
+ * it has. A lock is taken once clients are connected and traffic crosses its acquire
+ * rate, and only let go after traffic has stayed below {@link #IDLE_RATE} (or every
+ * client has left) for {@link #RELEASE_AFTER_MS}; the gap between the two rates plus
+ * the release delay keeps bursty browsing from toggling the radio mode.
+ *
+ * <p>Held time is accumulated per lock so its battery cost shows up in the metrics.
+ */
+public final class PerformanceLocks {
+    public enum Lock {
+        /** High-performance / low-latency Wi-Fi mode, which keeps the radio out of power save. */
+        WIFI(16 * 1024),
+        /** Partial wake lock, which keeps the CPU relaying with the screen off. */
+        CPU(128 * 1024);
+
+        /** Bytes per second (fast window) that take the lock. */
+        final double acquireRate;
+
+        Lock(double acquireRate) {
+            this.acquireRate = acquireRate;
+        }
+    }
+
+    /** Below this many bytes per second the router counts as idle. */
+    static final double IDLE_RATE = 2 * 1024;
+    static final long RELEASE_AFTER_MS = 45 * 1000L;
+
+    private static final State[] STATES = new State[Lock.values().length];
+
+    static {
+        for (int i = 0; i < STATES.length; i++) {
+            STATES[i] = new State();
+        }
+    }
+
+    private PerformanceLocks() {
+    }
+
+    /**
+     * Feeds one observation and returns whether {@code lock} should now be held.
+     *
+     * @param rate overall throughput in bytes per second
+     * @param clients connected hotspot clients
+     */
+    static synchronized boolean evaluate(Lock lock, long nowMs, double rate, int clients) {
+        State state = STATES[lock.ordinal()];
+        if (!state.held) {
+            if (clients > 0 && rate >= lock.acquireRate) {
+                state.held = true;
+                state.heldSinceMs = nowMs;
+                state.idleSinceMs = 0;
+                state.acquisitions++;
+            }
+            return state.held;
+        }
+        if (clients > 0 && rate >= IDLE_RATE) {
+            state.idleSinceMs = 0;
+        } else if (state.idleSinceMs == 0) {
+            state.idleSinceMs = nowMs;
+        } else if (nowMs - state.idleSinceMs >= RELEASE_AFTER_MS) {
+            release(state, nowMs);
+        }
+        return state.held;
+    }
+
+    /** Marks every lock released, e.g. when the hotspot stops. */
+    static synchronized void releaseAll(long nowMs) {
+        for (State state : STATES) {
+            if (state.held) {
+                release(state, nowMs);
+            }
+        }
+    }
+
+    public static synchronized boolean isHeld(Lock lock) {
+        return STATES[lock.ordinal()].held;
+    }
+
+    /** Total time {@code lock} has been held in this process, including a hold in progress. */
+    public static synchronized long getHeldMillis(Lock lock) {
+        State state = STATES[lock.ordinal()];
+        long total = state.heldMs;
+        if (state.held) {
+            total += System.currentTimeMillis() - state.heldSinceMs;
+        }
+        return total;
+    }
+
+    public static synchronized long getAcquireCount(Lock lock) {
+        return STATES[lock.ordinal()].acquisitions;
+    }
+
+    private static void release(State state, long nowMs) {
+        state.held = false;
+        state.heldMs += Math.max(0, nowMs - state.heldSinceMs);
+        state.idleSinceMs = 0;
+    }
+
+    private static final class State {
+        boolean held;
+        long heldSinceMs;
+        long idleSinceMs;
+        long heldMs;
+        long acquisitions;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.wifi;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Per-phase latency histograms for proxied connections, split by request kind.
+ */
+public final class ProxyMetrics {
+    public enum Kind {
+        CONNECT,
+        HTTP
+    }
+
+    public enum Phase {
+        /** Socket accepted until the request header is parsed. */
+        ACCEPT_TO_PARSED,
+        /** DNS lookup of the target host. */
+        RESOLVE,
+        /** TCP connect to the resolved origin address. */
+        CONNECT,
+        /** Request forwarded (or tunnel established) until the first origin byte. */
+        FIRST_BYTE,
+        /** Relay start until both directions have finished. */
+        TUNNEL_LIFETIME
+    }
+
+    private static final LatencyHistogram[][] HISTOGRAMS = createHistograms();
+
+    private ProxyMetrics() {
+    }
+
+    public static void record(Kind kind, Phase phase, long nanos) {
+        HISTOGRAMS[kind.ordinal()][phase.ordinal()].recordNanos(nanos);
+    }
+
+    public static LatencyHistogram.Snapshot snapshot(Kind kind, Phase phase) {
+        return HISTOGRAMS[kind.ordinal()][phase.ordinal()].snapshot();
+    }
+
+    /** All histograms keyed as {@code kind.phase}, e.g. {@code connect.first_byte}. */
+    public static Map<String, LatencyHistogram.Snapshot> snapshotAll() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+        for (Kind kind : Kind.values()) {
+            for (Phase phase : Phase.values()) {
+                snapshots.put(kind.name().toLowerCase(Locale.US) + "." + phase.name().toLowerCase(Locale.US),
+                    snapshot(kind, phase));
+            }
+        }
+        return snapshots;
+    }
+
+    public static void reset() {
+        for (LatencyHistogram[] byKind : HISTOGRAMS) {
+            for (LatencyHistogram histogram : byKind) {
+                histogram.reset();
+            }
+        }
+    }
+
+    private static LatencyHistogram[][] createHistograms() {
+        LatencyHistogram[][] histograms = new LatencyHistogram[Kind.values().length][Phase.values().length];
+        for (int k = 0; k < histograms.length; k++) {
+            for (int p = 0; p < histograms[k].length; p++) {
+                histograms[k][p] = new LatencyHistogram();
+            }
+        }
+        return histograms;
+    }
+}
@@ -0,0 +1,890 @@
+package com.example.wifi;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * HTTP CONNECT and absolute-URI proxy engine behind {@link ProxyService}. Kept free of
+ * Android dependencies so it can be driven by the load harness on a desktop JVM.
+ *
+ * <p>The same port speaks SOCKS5, told apart by the first byte a client sends: SOCKS
+ * CONNECT goes through the tunnel path without any header parsing, and UDP ASSOCIATE is
+ * relayed by {@link SocksUdpRelay}.
+ *
+ * <p>The accept loop, request handlers and relays all run on {@link RouterEngine} I/O
+ * threads; a tunnel takes two of them, its handler relaying downstream while a second
+ * thread relays upstream.
+ */
+public class ProxyServer {
+    private static final AtomicBoolean RUNNING = new AtomicBoolean(false);
+    private static final AtomicLong TOTAL_BYTES = new AtomicLong(0);
+    private static final AtomicLong CONNECTIONS_ACCEPTED = new AtomicLong(0);
+    private static final AtomicInteger ACTIVE_CONNECTIONS = new AtomicInteger(0);
+    private static final AtomicInteger ACTIVE_TUNNELS = new AtomicInteger(0);
+    private static final AtomicLong BAD_REQUESTS = new AtomicLong(0);
+    private static final AtomicLong RESOLVE_FAILURES = new AtomicLong(0);
+    private static final AtomicLong CONNECT_FAILURES = new AtomicLong(0);
+    private static final AtomicLong CLIENT_ERRORS = new AtomicLong(0);
+    private static final AtomicLong CLIENTS_REJECTED = new AtomicLong(0);
+    // Bounds how long a refusal can hold up the accept loop
+    private static final int REFUSE_READ_TIMEOUT_MS = 100;
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+        + "Retry-After: 1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    private static final RouterLog.Site CLIENT_ERROR_LOG =
+        RouterLog.site("ProxyServer", RouterLog.Level.WARN, 1, 10);
+
+    private final int proxyPort;
+    private final Listener listener;
+    private final RouterEngine engine = RouterEngine.get();
+    // Closed on stop so handlers and relays blocked in I/O return
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    // Started by the first UDP ASSOCIATE; guarded by this
+    private SocksUdpRelay udpRelay;
+
+    public interface Listener {
+        void onLog(String message);
+    }
+
+    public ProxyServer(int port, Listener listener) {
+        this.proxyPort = port;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (RUNNING.getAndSet(true)) {
+            return;
+        }
+        engine.prewarm();
+        if (!engine.execute(this::acceptLoop)) {
+            RUNNING.set(false);
+            log("Proxy could not start: router engine is saturated");
+        }
+    }
+
+    /**
+     * Loads and exercises the request path once, off the critical path of the first
+     * client: class loading, header parsing and the shared timers. Safe to call from any
+     * thread, any number of times.
+     */
+    public static void prewarm() {
+        long start = System.nanoTime();
+        RouterEngine.get().prewarm();
+        try {
+            byte[] sample = ("GET http://localhost/ HTTP/1.1\r\nHost: localhost\r\n"
+                + "Proxy-Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            HttpRequest request = HttpRequest.read(new ByteArrayInputStream(sample));
+            if (request != null) {
+                buildForwardHeader(request, resolveTarget(request));
+            }
+        } catch (IOException ignored) {
+            // Not expected for a canned request
+        }
+        InetAddress.getLoopbackAddress();
+        ProxyMetrics.snapshotAll();
+        StartupTimeline.step("prewarm proxy", start, System.nanoTime());
+    }
+
+    public void stop() {
+        RUNNING.set(false);
+        closeServer();
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        synchronized (this) {
+            if (udpRelay != null) {
+                udpRelay.close();
+                udpRelay = null;
+            }
+        }
+        TOTAL_BYTES.set(0);
+    }
+
+    private void acceptLoop() {
+        try {
+            long bindStart = System.nanoTime();
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress("0.0.0.0", proxyPort));
+            StartupTimeline.step("proxy bind", bindStart, System.nanoTime());
+            StartupTimeline.mark(StartupTimeline.PROXY_LISTENING);
+            log("Proxy listening on port " + proxyPort);
+
+            while (RUNNING.get()) {
+                Socket client = serverSocket.accept();
+                long acceptedAt = System.nanoTime();
+                CONNECTIONS_ACCEPTED.incrementAndGet();
+                // Counted here rather than in handleClient so a burst can't overshoot the limit
+                if (ACTIVE_CONNECTIONS.incrementAndGet() > RouterEngine.MAX_PROXY_CONNECTIONS
+                    || !engine.execute(() -> handleClient(client, acceptedAt))) {
+                    ACTIVE_CONNECTIONS.decrementAndGet();
+                    CLIENTS_REJECTED.incrementAndGet();
+                    refuse(client);
+                }
+            }
+        } catch (IOException e) {
+            if (RUNNING.get()) {
+                log("Proxy error: " + e.getMessage());
+            }
+        } finally {
+            closeServer();
+            RUNNING.set(false);
+        }
+    }
+
+    private void handleClient(Socket client, long acceptedAt) {
+        long startedMs = System.currentTimeMillis();
+        long handleStart = System.nanoTime();
+        String clientIp = clientIp(client);
+        ConnectionTrace trace = ConnectionTrace.begin(clientIp);
+        trace.span("queued", ConnectionTrace.LANE_CONTROL, acceptedAt, handleStart, null);
+        TimingWheel.Timeout handshake = TimingWheel.shared().schedule(
+            () -> closeQuietly(client), TimeoutClass.PROXY_HANDSHAKE.getMillis());
+        openSockets.add(client);
+        try (Socket c = client) {
+            recordClient(clientIp);
+            InputStream in = new BufferedInputStream(c.getInputStream());
+            OutputStream out = c.getOutputStream();
+            in.mark(1);
+            int first = in.read();
+            if (first < 0) {
+                return;
+            }
+            in.reset();
+            if (first == Socks5.VERSION) {
+                handleSocks(c, in, out, handshake, acceptedAt, handleStart, startedMs, trace);
+                return;
+            }
+            HttpRequest request = HttpRequest.read(in);
+            if (request == null) {
+                return;
+            }
+            long parsed = System.nanoTime();
+            if (trace.isSampled()) {
+                trace.span("read request", ConnectionTrace.LANE_CONTROL, handleStart, parsed,
+                    request.method + " " + request.uri);
+            }
+
+            if (PacEndpoint.isPacRequest(request)) {
+                handshake.cancel();
+                PacEndpoint.write(out, c);
+            } else if (MetricsEndpoint.isMetricsRequest(request)) {
+                handshake.cancel();
+                MetricsEndpoint.write(out);
+            } else if (HistoryEndpoint.isHistoryRequest(request)) {
+                handshake.cancel();
+                HistoryEndpoint.write(out, request);
+            } else if (TraceEndpoint.isTraceRequest(request)) {
+                handshake.cancel();
+                if (TraceEndpoint.isAllowed(c)) {
+                    TraceEndpoint.write(out, request);
+                } else {
+                    sendError(out, "403 Forbidden");
+                }
+            } else if ("CONNECT".equalsIgnoreCase(request.method)) {
+                ProxyMetrics.record(ProxyMetrics.Kind.CONNECT, ProxyMetrics.Phase.ACCEPT_TO_PARSED,
+                    parsed - acceptedAt);
+                handleConnect(request, c, in, out, handshake, startedMs, trace);
+            } else {
+                ProxyMetrics.record(ProxyMetrics.Kind.HTTP, ProxyMetrics.Phase.ACCEPT_TO_PARSED,
+                    parsed - acceptedAt);
+                handleHttp(request, c, in, out, handshake, startedMs, trace);
+            }
+        } catch (IOException e) {
+            CLIENT_ERRORS.incrementAndGet();
+            trace.instant("error", ConnectionTrace.LANE_CONTROL, e.getMessage());
+            CLIENT_ERROR_LOG.log("Client error: {}", e.getMessage());
+        } finally {
+            handshake.cancel();
+            openSockets.remove(client);
+            ACTIVE_CONNECTIONS.decrementAndGet();
+            trace.finish();
+        }
+    }
+
+    private void handleConnect(HttpRequest request, Socket client, InputStream clientIn,
+                               OutputStream clientOut, TimingWheel.Timeout handshake, long startedMs,
+                               ConnectionTrace trace)
+        throws IOException {
+        HostPort target = parseHostPort(request.uri, 443);
+        if (target.host == null) {
+            BAD_REQUESTS.incrementAndGet();
+            trace.instant("bad request", ConnectionTrace.LANE_CONTROL, request.uri);
+            journal(client, request.uri, 0, ProxyMetrics.Kind.CONNECT, startedMs,
+                SessionJournal.Outcome.BAD_REQUEST, 0, 0);
+            sendError(clientOut, "400 Bad Request");
+            return;
+        }
+
+        trace.setTarget(target.host, target.port);
+        try (Socket remote = connectRemote(client, target.host, target.port, ProxyMetrics.Kind.CONNECT,
+            startedMs, trace)) {
+            handshake.cancel();
+            clientOut.write("HTTP/1.1 200 Connection Established\r\n\r\n"
+                .getBytes(StandardCharsets.ISO_8859_1));
+            clientOut.flush();
+            trace.instant("established", ConnectionTrace.LANE_CONTROL, null);
+
+            if (request.leftover.length > 0) {
+                remote.getOutputStream().write(request.leftover);
+                remote.getOutputStream().flush();
+            }
+
+            relayBidirectional(client, clientIn, clientOut, remote, target.host, target.port,
+                ProxyMetrics.Kind.CONNECT, startedMs, trace);
+        }
+    }
+
+    private void handleHttp(HttpRequest request, Socket client, InputStream clientIn,
+                            OutputStream clientOut, TimingWheel.Timeout handshake, long startedMs,
+                            ConnectionTrace trace)
+        throws IOException {
+        long resolveStart = System.nanoTime();
+        Target target = resolveTarget(request);
+        trace.span("resolveTarget", ConnectionTrace.LANE_CONTROL, resolveStart, System.nanoTime(), null);
+        if (target == null) {
+            BAD_REQUESTS.incrementAndGet();
+            trace.instant("bad request", ConnectionTrace.LANE_CONTROL, request.hostHeader);
+            journal(client, request.hostHeader, 0, ProxyMetrics.Kind.HTTP, startedMs,
+                SessionJournal.Outcome.BAD_REQUEST, 0, 0);
+            sendError(clientOut, "400 Bad Request");
+            return;
+        }
+
+        trace.setTarget(target.host, target.port);
+        try (Socket remote = connectRemote(client, target.host, target.port, ProxyMetrics.Kind.HTTP,
+            startedMs, trace)) {
+            handshake.cancel();
+            OutputStream remoteOut = remote.getOutputStream();
+
+            byte[] headerBytes = buildForwardHeader(request, target);
+            remoteOut.write(headerBytes);
+            if (request.leftover.length > 0) {
+                remoteOut.write(request.leftover);
+            }
+            remoteOut.flush();
+
+            relayBidirectional(client, clientIn, clientOut, remote, target.host, target.port,
+                ProxyMetrics.Kind.HTTP, startedMs, trace);
+        }
+    }
+
+    private void handleSocks(Socket client, InputStream clientIn, OutputStream clientOut,
+                             TimingWheel.Timeout handshake, long acceptedAt, long handleStart, long startedMs,
+                             ConnectionTrace trace)
+        throws IOException {
+        Socks5.Request request = Socks5.readRequest(clientIn, clientOut);
+        if (request == null) {
+            BAD_REQUESTS.incrementAndGet();
+            trace.instant("bad request", ConnectionTrace.LANE_CONTROL, "socks");
+            journal(client, null, 0, ProxyMetrics.Kind.CONNECT, startedMs, SessionJournal.Outcome.BAD_REQUEST, 0, 0);
+            return;
+        }
+        long parsed = System.nanoTime();
+        if (trace.isSampled()) {
+            trace.span("read request", ConnectionTrace.LANE_CONTROL, handleStart, parsed,
+                (request.command == Socks5.CMD_CONNECT ? "SOCKS CONNECT " : "SOCKS UDP ")
+                    + request.host + ":" + request.port);
+        }
+        if (request.command == Socks5.CMD_UDP_ASSOCIATE) {
+            handshake.cancel();
+            handleUdpAssociate(request, client, clientIn, clientOut, trace);
+            return;
+        }
+
+        ProxyMetrics.record(ProxyMetrics.Kind.CONNECT, ProxyMetrics.Phase.ACCEPT_TO_PARSED, parsed - acceptedAt);
+        trace.setTarget(request.host, request.port);
+        Socket remote;
+        try {
+            remote = connectRemote(client, request.host, request.port, ProxyMetrics.Kind.CONNECT, startedMs, trace);
+        } catch (IOException e) {
+            Socks5.writeReply(clientOut, Socks5.replyFor(e), null);
+            throw e;
+        }
+        try (Socket r = remote) {
+            handshake.cancel();
+            Socks5.writeReply(clientOut, Socks5.REP_SUCCEEDED, r.getLocalSocketAddress());
+            trace.instant("established", ConnectionTrace.LANE_CONTROL, null);
+            relayBidirectional(client, clientIn, clientOut, r, request.host, request.port,
+                ProxyMetrics.Kind.CONNECT, startedMs, trace);
+        }
+    }
+
+    /** Holds the control connection open for the association's lifetime, as RFC 1928 asks. */
+    private void handleUdpAssociate(Socks5.Request request, Socket client, InputStream clientIn,
+                                    OutputStream clientOut, ConnectionTrace trace)
+        throws IOException {
+        SocksUdpRelay.Association association;
+        try {
+            association = udpRelay().open(client, request.port, () -> closeQuietly(client));
+        } catch (IOException e) {
+            Socks5.writeReply(clientOut, Socks5.REP_GENERAL_FAILURE, null);
+            throw e;
+        }
+        ACTIVE_TUNNELS.incrementAndGet();
+        try {
+            Socks5.writeReply(clientOut, Socks5.REP_SUCCEEDED, association.getBoundAddress());
+            trace.instant("associated", ConnectionTrace.LANE_CONTROL, null);
+            // Nothing more is expected on the control connection; it just marks the session's end
+            while (clientIn.read() != -1) {
+                // Discard
+            }
+        } catch (IOException ignored) {
+            // Closed by the client, by stop() or by the idle timeout
+        } finally {
+            ACTIVE_TUNNELS.decrementAndGet();
+            if (association.hasIdled()) {
+                trace.instant("idle timeout", ConnectionTrace.LANE_CONTROL, null);
+            }
+            association.close();
+        }
+    }
+
+    private synchronized SocksUdpRelay udpRelay() throws IOException {
+        if (udpRelay == null) {
+            udpRelay = SocksUdpRelay.start(engine);
+        }
+        return udpRelay;
+    }
+
+    private Socket connectRemote(Socket client, String host, int port, ProxyMetrics.Kind kind,
+                                 long startedMs, ConnectionTrace trace) throws IOException {
+        long start = System.nanoTime();
+        InetAddress address;
+        try {
+            address = InetAddress.getByName(host);
+        } catch (IOException e) {
+            RESOLVE_FAILURES.incrementAndGet();
+            trace.span("resolve", ConnectionTrace.LANE_CONTROL, start, System.nanoTime(), e.toString());
+            journal(client, host, port, kind, startedMs, SessionJournal.Outcome.RESOLVE_FAILED, 0, 0);
+            throw e;
+        }
+        long resolved = System.nanoTime();
+        ProxyMetrics.record(kind, ProxyMetrics.Phase.RESOLVE, resolved - start);
+        trace.span("resolve", ConnectionTrace.LANE_CONTROL, start, resolved, null);
+
+        Socket remote = new Socket();
+        try {
+            remote.connect(new InetSocketAddress(address, port),
+                (int) TimeoutClass.PROXY_HANDSHAKE.getMillis());
+            long connected = System.nanoTime();
+            ProxyMetrics.record(kind, ProxyMetrics.Phase.CONNECT, connected - resolved);
+            if (trace.isSampled()) {
+                trace.span("connect", ConnectionTrace.LANE_CONTROL, resolved, connected,
+                    address.getHostAddress() + ":" + port);
+            }
+        } catch (IOException e) {
+            CONNECT_FAILURES.incrementAndGet();
+            trace.span("connect", ConnectionTrace.LANE_CONTROL, resolved, System.nanoTime(), e.toString());
+            journal(client, host, port, kind, startedMs, SessionJournal.Outcome.CONNECT_FAILED, 0, 0);
+            closeQuietly(remote);
+            throw e;
+        }
+        return remote;
+    }
+
+    private void relayBidirectional(Socket client, InputStream clientIn, OutputStream clientOut,
+                                    Socket remote, String host, int port, ProxyMetrics.Kind kind,
+                                    long startedMs, ConnectionTrace trace)
+        throws IOException {
+        long relayStart = System.nanoTime();
+        String clientIp = clientIp(client);
+        if (clientIp == null) {
+            clientIp = "?";
+        }
+        TrafficSketches.Tally tally = TrafficSketches.open(clientIp, host);
+        TrafficMeters.Pair clientMeters = TrafficMeters.forClient(clientIp);
+        TrafficMeters.Pair globalMeters = TrafficMeters.global();
+        AtomicLong bytesUp = new AtomicLong();
+        AtomicLong bytesDown = new AtomicLong();
+        LongConsumer upstreamBytes = bytes -> {
+            bytesUp.addAndGet(bytes);
+            tally.add(bytes);
+            clientMeters.markUp(bytes);
+            globalMeters.up.mark(bytes);
+        };
+        LongConsumer downstreamBytes = bytes -> {
+            bytesDown.addAndGet(bytes);
+            tally.add(bytes);
+            clientMeters.markDown(bytes);
+            globalMeters.down.mark(bytes);
+        };
+        InputStream remoteIn = remote.getInputStream();
+        OutputStream remoteOut = remote.getOutputStream();
+        TimeoutClass idleClass = kind == ProxyMetrics.Kind.CONNECT
+            ? TimeoutClass.PROXY_TUNNEL_IDLE : TimeoutClass.PROXY_HTTP_IDLE;
+        IdleTimer idle = new IdleTimer(TimingWheel.shared(), idleClass, () -> {
+            trace.instant("idle timeout", ConnectionTrace.LANE_CONTROL, null);
+            closeQuietly(client);
+            closeQuietly(remote);
+        }).start();
+
+        Runnable firstByte = () -> {
+            ProxyMetrics.record(kind, ProxyMetrics.Phase.FIRST_BYTE, System.nanoTime() - relayStart);
+            trace.instant("first byte", ConnectionTrace.LANE_DOWNSTREAM, null);
+        };
+
+        CountDownLatch upstreamDone = new CountDownLatch(1);
+        Runnable upstream = () -> {
+            try {
+                copyStream(clientIn, remoteOut, idle, null, upstreamBytes);
+                traceCopy(trace, ConnectionTrace.LANE_UPSTREAM, relayStart, bytesUp.get());
+            } finally {
+                upstreamDone.countDown();
+            }
+        };
+        ACTIVE_TUNNELS.incrementAndGet();
+        openSockets.add(remote);
+        try {
+            if (!engine.execute(upstream)) {
+                CLIENTS_REJECTED.incrementAndGet();
+                throw new IOException("No I/O thread free for the upstream relay");
+            }
+            copyStream(remoteIn, clientOut, idle, firstByte, downstreamBytes);
+            traceCopy(trace, ConnectionTrace.LANE_DOWNSTREAM, relayStart, bytesDown.get());
+            upstreamDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openSockets.remove(remote);
+            idle.cancel();
+            tally.close();
+            ACTIVE_TUNNELS.decrementAndGet();
+            ProxyMetrics.record(kind, ProxyMetrics.Phase.TUNNEL_LIFETIME, System.nanoTime() - relayStart);
+            journal(client, host, port, kind, startedMs,
+                idle.hasFired() ? SessionJournal.Outcome.IDLE_TIMEOUT : SessionJournal.Outcome.OK,
+                bytesUp.get(), bytesDown.get());
+        }
+    }
+
+    private static void traceCopy(ConnectionTrace trace, int lane, long relayStart, long bytes) {
+        if (trace.isSampled()) {
+            trace.span("copyStream", lane, relayStart, System.nanoTime(), bytes + " bytes");
+        }
+    }
+
+    private static void journal(Socket client, String host, int port, ProxyMetrics.Kind kind, long startedMs,
+                                SessionJournal.Outcome outcome, long bytesUp, long bytesDown) {
+        SessionJournal.record(new SessionJournal.Session(startedMs, System.currentTimeMillis(),
+            clientIp(client), host, port,
+            kind == ProxyMetrics.Kind.CONNECT ? SessionJournal.Kind.CONNECT : SessionJournal.Kind.HTTP,
+            outcome, bytesUp, bytesDown));
+    }
+
+    /**
+     * Copies until EOF or error. {@code onFirstByte}, if given, runs once when the
+     * first chunk arrives; {@code onBytes}, if given, is told the size of every chunk.
+     */
+    public static void copyStream(InputStream in, OutputStream out, IdleTimer idle, Runnable onFirstByte,
+                                  LongConsumer onBytes) {
+        BufferPool pool = RouterEngine.get().buffers();
+        byte[] buffer = pool.acquire();
+        int read;
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                if (onFirstByte != null) {
+                    onFirstByte.run();
+                    onFirstByte = null;
+                }
+                idle.touch();
+                TOTAL_BYTES.addAndGet(read);
+                if (onBytes != null) {
+                    onBytes.accept(read);
+                }
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // Connection closed
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    public static byte[] buildForwardHeader(HttpRequest request, Target target) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(request.method)
+            .append(" ")
+            .append(target.path)
+            .append(" ")
+            .append(request.protocol)
+            .append("\r\n");
+
+        boolean hasHost = false;
+        for (String header : request.headerLines) {
+            String lower = header.toLowerCase(Locale.US);
+            if (lower.startsWith("host:")) {
+                hasHost = true;
+            }
+            if (lower.startsWith("proxy-connection:") || lower.startsWith("connection:")) {
+                continue;
+            }
+            builder.append(header).append("\r\n");
+        }
+
+        if (!hasHost && target.hostHeader != null) {
+            builder.append("Host: ").append(target.hostHeader).append("\r\n");
+        }
+
+        builder.append("Connection: close\r\n\r\n");
+        return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    public static Target resolveTarget(HttpRequest request) throws IOException {
+        if (request.uri.startsWith("http://") || request.uri.startsWith("https://")) {
+            URI uri = URI.create(request.uri);
+            String host = uri.getHost();
+            if (host == null) {
+                return null;
+            }
+            int port = uri.getPort();
+            boolean isHttps = "https".equalsIgnoreCase(uri.getScheme());
+            if (port == -1) {
+                port = isHttps ? 443 : 80;
+            }
+            String path = uri.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            }
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+            String hostHeader = host;
+            if ((isHttps && port != 443) || (!isHttps && port != 80)) {
+                hostHeader = host + ":" + port;
+            }
+            return new Target(host, port, path, hostHeader);
+        }
+
+        if (request.hostHeader == null) {
+            return null;
+        }
+        HostPort hostPort = parseHostPort(request.hostHeader, 80);
+        return new Target(hostPort.host, hostPort.port, request.uri, request.hostHeader);
+    }
+
+    public static HostPort parseHostPort(String value, int defaultPort) throws IOException {
+        String host = value;
+        int port = defaultPort;
+
+        if (value.startsWith("[")) {
+            int end = value.indexOf(']');
+            if (end == -1) {
+                throw new IOException("Invalid host");
+            }
+            host = value.substring(1, end);
+            if (end + 1 < value.length() && value.charAt(end + 1) == ':') {
+                port = Integer.parseInt(value.substring(end + 2));
+            }
+        } else if (value.contains(":")) {
+            String[] parts = value.split(":", 2);
+            host = parts[0];
+            port = Integer.parseInt(parts[1]);
+        }
+
+        return new HostPort(host, port);
+    }
+
+    /**
+     * Turns a client away on the accept thread with a reply its protocol understands. The
+     * first byte tells SOCKS from HTTP; a client that hasn't sent it within
+     * {@link #REFUSE_READ_TIMEOUT_MS} gets the HTTP reply, so a silent one can't stall accepting.
+     */
+    private static void refuse(Socket client) {
+        try (Socket c = client) {
+            c.setSoTimeout(REFUSE_READ_TIMEOUT_MS);
+            InputStream in = c.getInputStream();
+            int first;
+            try {
+                first = in.read();
+            } catch (SocketTimeoutException e) {
+                first = -1;
+            }
+            OutputStream out = c.getOutputStream();
+            if (first == Socks5.VERSION) {
+                Socks5.writeRefusal(out);
+            } else {
+                out.write(SERVICE_UNAVAILABLE);
+                out.flush();
+            }
+            // Unread request bytes would make the close a reset that can discard the reply
+            in.skip(in.available());
+            c.shutdownOutput();
+        } catch (IOException ignored) {
+            // Refusing anyway
+        }
+    }
+
+    private void sendError(OutputStream out, String status) throws IOException {
+        String response = "HTTP/1.1 " + status + "\r\nConnection: close\r\n\r\n";
+        out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String clientIp(Socket client) {
+        InetAddress address = client.getInetAddress();
+        return address != null ? address.getHostAddress() : null;
+    }
+
+    private void recordClient(String ip) {
+        if (ip == null) {
+            return;
+        }
+        if (ClientRegistry.recordActivity(ClientRegistry.Source.PROXY, ip, 0)) {
+            log("Client connected: " + ip);
+        }
+    }
+
+    private void log(String message) {
+        listener.onLog(message);
+    }
+
+    public static int getActiveClientCount() {
+        return ClientRegistry.getActiveCount(ClientRegistry.Source.PROXY);
+    }
+
+    public static boolean isRunning() {
+        return RUNNING.get();
+    }
+
+    public static long getTotalBytes() {
+        return TOTAL_BYTES.get();
+    }
+
+    public static long getConnectionsAccepted() {
+        return CONNECTIONS_ACCEPTED.get();
+    }
+
+    public static int getActiveConnectionCount() {
+        return ACTIVE_CONNECTIONS.get();
+    }
+
+    public static int getActiveTunnelCount() {
+        return ACTIVE_TUNNELS.get();
+    }
+
+    /** Clients closed unserved because every engine I/O thread was busy. */
+    public static long getRejectedClientCount() {
+        return CLIENTS_REJECTED.get();
+    }
+
+    public static long getBadRequestCount() {
+        return BAD_REQUESTS.get();
+    }
+
+    public static long getResolveFailureCount() {
+        return RESOLVE_FAILURES.get();
+    }
+
+    public static long getConnectFailureCount() {
+        return CONNECT_FAILURES.get();
+    }
+
+    public static long getClientErrorCount() {
+        return CLIENT_ERRORS.get();
+    }
+
+    /** Adds bytes relayed outside {@link #copyStream}, i.e. SOCKS UDP datagrams. */
+    static void countRelayedBytes(long bytes) {
+        TOTAL_BYTES.addAndGet(bytes);
+    }
+
+    public static void resetStats() {
+        TOTAL_BYTES.set(0);
+    }
+
+    private void closeServer() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+            serverSocket = null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Ignore
+        }
+    }
+
+    // The request types and the parsing and copy helpers are public for :benchmark
+    public static class HostPort {
+        final String host;
+        final int port;
+
+        HostPort(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    public static class Target {
+        final String host;
+        final int port;
+        final String path;
+        final String hostHeader;
+
+        Target(String host, int port, String path, String hostHeader) {
+            this.host = host;
+            this.port = port;
+            this.path = path;
+            this.hostHeader = hostHeader;
+        }
+    }
+
+    public static class HttpRequest {
+        private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+        final String method;
+        final String uri;
+        final String protocol;
+        final String hostHeader;
+        final List<String> headerLines;
+        final byte[] leftover;
+
+        /** The request target without its query string. */
+        String path() {
+            int query = uri.indexOf('?');
+            return query >= 0 ? uri.substring(0, query) : uri;
+        }
+
+        /** The raw query string, or null if there is none. */
+        String query() {
+            int query = uri.indexOf('?');
+            return query >= 0 ? uri.substring(query + 1) : null;
+        }
+
+        /** The raw value of query parameter {@code name}, or null if it is absent. */
+        String parameter(String name) {
+            String query = query();
+            if (query == null) {
+                return null;
+            }
+            for (String pair : query.split("&")) {
+                if (pair.startsWith(name + "=")) {
+                    return pair.substring(name.length() + 1);
+                }
+            }
+            return null;
+        }
+
+        private HttpRequest(String method, String uri, String protocol, String hostHeader,
+                            List<String> headerLines, byte[] leftover) {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.hostHeader = hostHeader;
+            this.headerLines = headerLines;
+            this.leftover = leftover;
+        }
+
+        public static HttpRequest read(InputStream in) throws IOException {
+            HeaderData headerData = readHeader(in);
+            if (headerData == null) {
+                return null;
+            }
+            String headerText = new String(headerData.headerBytes, StandardCharsets.ISO_8859_1);
+            String[] lines = headerText.split("\r\n");
+            if (lines.length == 0) {
+                return null;
+            }
+
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length < 3) {
+                return null;
+            }
+
+            String method = requestLine[0];
+            String uri = requestLine[1];
+            String protocol = requestLine[2];
+            String hostHeader = null;
+            List<String> headers = new ArrayList<>();
+
+            for (int i = 1; i < lines.length; i++) {
+                String line = lines[i];
+                if (line.isEmpty()) {
+                    continue;
+                }
+                headers.add(line);
+                if (line.toLowerCase(Locale.US).startsWith("host:")) {
+                    hostHeader = line.substring(5).trim();
+                }
+            }
+
+            return new HttpRequest(method, uri, protocol, hostHeader, headers, headerData.leftover);
+        }
+
+        private static HeaderData readHeader(InputStream in) throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+                byte[] data = buffer.toByteArray();
+                int index = indexOf(data, HEADER_END);
+                if (index >= 0) {
+                    byte[] headerBytes = Arrays.copyOfRange(data, 0, index + HEADER_END.length);
+                    byte[] leftover = Arrays.copyOfRange(data, index + HEADER_END.length, data.length);
+                    return new HeaderData(headerBytes, leftover);
+                }
+                if (buffer.size() > 65536) {
+                    throw new IOException("Header too large");
+                }
+            }
+            return null;
+        }
+
+        private static int indexOf(byte[] data, byte[] pattern) {
+            for (int i = 0; i <= data.length - pattern.length; i++) {
+                boolean match = true;
+                for (int j = 0; j < pattern.length; j++) {
+                    if (data[i + j] != pattern[j]) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class HeaderData {
+        final byte[] headerBytes;
+        final byte[] leftover;
+
+        HeaderData(byte[] headerBytes, byte[] leftover) {
+            this.headerBytes = headerBytes;
+            this.leftover = leftover;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.wifi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exponentially weighted byte-rate meter. {@link #mark} is a single uncontended add and
+ * can be called from any thread; {@link #tick} is called by one sampler thread about
+ * once a second and folds the bytes since the previous tick into a fast (5 s) and a
+ * slow (60 s) moving average.
+ */
+public final class RateMeter {
+    public enum Window {
+        FAST(5),
+        SLOW(60);
+
+        final double tauSeconds;
+
+        Window(double tauSeconds) {
+            this.tauSeconds = tauSeconds;
+        }
+    }
+
+    private final LongAdder pending = new LongAdder();
+    private volatile double fastRate;
+    private volatile double slowRate;
+    private volatile long total;
+    private boolean primed;
+
+    public void mark(long bytes) {
+        pending.add(bytes);
+    }
+
+    /** Bytes per second averaged over {@code window}. */
+    public double getRate(Window window) {
+        return window == Window.FAST ? fastRate : slowRate;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Folds pending bytes into the averages. The first tick seeds both averages with the
+     * instantaneous rate so they don't ramp up from zero.
+     *
+     * @return bytes marked since the previous tick
+     */
+    long tick(double elapsedSeconds) {
+        long bytes = pending.sumThenReset();
+        total += bytes;
+        if (elapsedSeconds <= 0) {
+            return bytes;
+        }
+        double instant = bytes / elapsedSeconds;
+        if (!primed) {
+            fastRate = instant;
+            slowRate = instant;
+            primed = true;
+        } else {
+            fastRate = blend(fastRate, instant, elapsedSeconds, Window.FAST.tauSeconds);
+            slowRate = blend(slowRate, instant, elapsedSeconds, Window.SLOW.tauSeconds);
+        }
+        return bytes;
+    }
+
+    private static double blend(double current, double instant, double elapsedSeconds, double tau) {
+        double alpha = 1 - Math.exp(-elapsedSeconds / tau);
+        return current + alpha * (instant - current);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.wifi;
+
+import java.io.File;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide resources shared by the proxy and VPN services: one pool of I/O
+ * threads, the relay buffer pool, the timing wheel, and the metering, client and
+ * journal machinery. Services hold the engine between {@link #acquire} and
+ * {@link #release}; the shared machinery runs while at least one holds it.
+ *
+ * <p>The I/O pool is bounded by {@link #MAX_IO_THREADS} across all services, so the
+ * thread count cannot grow with the number of clients. It has no queue, so the proxy
+ * admits at most {@link #MAX_PROXY_CONNECTIONS} connections and turns the rest away
+ * rather than have a relay find no thread. Idle threads, including the warm core, time
+ * out, so a stopped router costs no threads.
+ */
+public final class RouterEngine {
+    private static final String TAG = "RouterEngine";
+
+    public static final int RELAY_BUFFER_SIZE = 8192;
+    /** Pool threads started up front so the first clients don't wait for thread creation. */
+    static final int WARM_IO_THREADS = 4;
+    static final int MAX_IO_THREADS = 512;
+    /** Kept for the accept loop, the SOCKS UDP selector, name lookups and engine tasks. */
+    static final int RESERVED_IO_THREADS = 16;
+    /** A relay blocks one thread per direction. */
+    static final int THREADS_PER_RELAY = 2;
+    static final int MAX_PROXY_CONNECTIONS = (MAX_IO_THREADS - RESERVED_IO_THREADS) / THREADS_PER_RELAY;
+    static final int MAX_POOLED_BUFFERS = 64;
+    private static final long IO_KEEP_ALIVE_SECONDS = 60;
+
+    private static final RouterEngine INSTANCE = new RouterEngine();
+
+    private final ThreadPoolExecutor io;
+    private final BufferPool buffers = new BufferPool(RELAY_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private int holders;
+
+    private RouterEngine() {
+        AtomicInteger threadIds = new AtomicInteger();
+        io = new ThreadPoolExecutor(WARM_IO_THREADS, MAX_IO_THREADS, IO_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, TAG + "-io-" + threadIds.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        io.allowCoreThreadTimeOut(true);
+    }
+
+    public static RouterEngine get() {
+        return INSTANCE;
+    }
+
+    /** Registers a holder, starting the shared machinery for the first one. */
+    public synchronized void acquire(File journalDir) {
+        if (holders++ > 0) {
+            return;
+        }
+        io.prestartAllCoreThreads();
+        TrafficMeters.acquire();
+        SessionJournal.acquire(journalDir);
+        ClientRegistry.start();
+    }
+
+    /** Drops a holder; the last one stops the shared machinery. */
+    public void release() {
+        synchronized (this) {
+            if (holders == 0 || --holders > 0) {
+                return;
+            }
+            ClientRegistry.stop();
+            TrafficMeters.release();
+        }
+        // Waits for queued records to be written, so it stays out of the engine lock;
+        // the journal counts its own holders, so a racing acquire still balances
+        SessionJournal.release();
+    }
+
+    /**
+     * Runs {@code task} on an I/O thread.
+     *
+     * @return false if every I/O thread is busy; the task was not run
+     */
+    public boolean execute(Runnable task) {
+        try {
+            io.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Like {@link #execute}, for tasks that may need interrupting; null if rejected. */
+    public Future<?> submit(Runnable task) {
+        try {
+            return io.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Runs {@code task} after {@code initialDelayMs} and then every {@code periodMs} on
+     * the shared {@link TimingWheel} until cancelled. Tasks that block, such as file
+     * reads, pass {@code blocking} and run on an I/O thread instead of the wheel thread.
+     */
+    public Periodic every(long initialDelayMs, long periodMs, boolean blocking, Runnable task) {
+        Periodic periodic = new Periodic(periodMs, blocking, task);
+        periodic.schedule(initialDelayMs);
+        return periodic;
+    }
+
+    public BufferPool buffers() {
+        return buffers;
+    }
+
+    public TimingWheel timers() {
+        return TimingWheel.shared();
+    }
+
+    /** Loads the engine and starts its warm threads ahead of the first service. */
+    public void prewarm() {
+        io.prestartAllCoreThreads();
+        timers();
+    }
+
+    /** Lets go of memory that is only kept for speed, e.g. when the system runs low. */
+    public void trimMemory() {
+        buffers.trim();
+    }
+
+    public int getIoThreadCount() {
+        return io.getPoolSize();
+    }
+
+    public int getIoActiveCount() {
+        return io.getActiveCount();
+    }
+
+    /** Tasks turned away because all {@link #MAX_IO_THREADS} threads were busy. */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /** Handle for a task started with {@link #every}. */
+    public final class Periodic {
+        private final long periodMs;
+        private final boolean blocking;
+        private final Runnable task;
+        private volatile boolean cancelled;
+        private volatile TimingWheel.Timeout next;
+
+        Periodic(long periodMs, boolean blocking, Runnable task) {
+            this.periodMs = periodMs;
+            this.blocking = blocking;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            TimingWheel.Timeout current = next;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        void schedule(long delayMs) {
+            if (!cancelled) {
+                next = timers().schedule(this::fire, delayMs);
+            }
+        }
+
+        private void fire() {
+            if (cancelled) {
+                return;
+            }
+            if (!blocking) {
+                runAndReschedule();
+            } else if (!execute(this::runAndReschedule)) {
+                schedule(periodMs);
+            }
+        }
+
+        private void runAndReschedule() {
+            try {
+                if (!cancelled) {
+                    task.run();
+                }
+            } finally {
+                schedule(periodMs);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.wifi;
+
+/**
+ * Logging for the forwarding paths. Each call site declares a {@link Site} with a
+ * level and a token bucket; a message is dropped before anything is formatted if its
+ * level is below the minimum or the bucket is empty. The next message a site lets
+ * through reports how many were dropped since the last one.
+ *
+ * <p>Messages are {@link AppLogBuffer}-style templates with {@code {}} placeholders,
+ * handed to the {@link Sink} unformatted. The default sink appends to
+ * {@link AppLogBuffer}; the app also mirrors to logcat.
+ */
+public final class RouterLog {
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    public interface Sink {
+        /** {@code args} may be null; {@code error} is null unless the site logged one. */
+        void write(Level level, String tag, String template, Object[] args, Throwable error);
+    }
+
+    public static final Sink BUFFER_SINK = (level, tag, template, args, error) -> {
+        if (error != null) {
+            AppLogBuffer.add(tag, template + ": {}", append(args, error));
+        } else {
+            AppLogBuffer.add(tag, template, args);
+        }
+    };
+
+    private static volatile Level minLevel = Level.INFO;
+    private static volatile Sink sink = BUFFER_SINK;
+
+    private RouterLog() {
+    }
+
+    public static void setLevel(Level level) {
+        minLevel = level;
+    }
+
+    public static Level getLevel() {
+        return minLevel;
+    }
+
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : BUFFER_SINK;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    /**
+     * Declares a call site, normally as a static field next to the code that logs.
+     *
+     * @param perSecond messages per second the site may sustain
+     * @param burst messages the site may emit back to back after a quiet spell
+     */
+    public static Site site(String tag, Level level, double perSecond, int burst) {
+        return new Site(tag, level, perSecond, burst);
+    }
+
+    /** Fills {@code {}} placeholders the way {@link AppLogBuffer} does. */
+    public static String format(String template, Object[] args) {
+        if (args == null || args.length == 0) {
+            return template;
+        }
+        StringBuilder builder = new StringBuilder(template.length() + 16 * args.length);
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while (argIndex < args.length && (at = template.indexOf("{}", from)) >= 0) {
+            builder.append(template, from, at).append(args[argIndex++]);
+            from = at + 2;
+        }
+        return builder.append(template, from, template.length()).toString();
+    }
+
+    private static Object[] append(Object[] args, Object last) {
+        int length = args != null ? args.length : 0;
+        Object[] grown = new Object[length + 1];
+        if (length > 0) {
+            System.arraycopy(args, 0, grown, 0, length);
+        }
+        grown[length] = last;
+        return grown;
+    }
+
+    /** One logging call site with its own rate limit. */
+    public static final class Site {
+        private final String tag;
+        private final Level level;
+        private final double tokensPerNano;
+        private final double burst;
+        private double tokens;
+        private long refilledAt;
+        private long suppressed;
+
+        Site(String tag, Level level, double perSecond, int burst) {
+            this.tag = tag;
+            this.level = level;
+            this.tokensPerNano = perSecond / 1e9;
+            this.burst = Math.max(1, burst);
+            this.tokens = this.burst;
+            this.refilledAt = System.nanoTime();
+        }
+
+        public boolean isEnabled() {
+            return RouterLog.isEnabled(level);
+        }
+
+        public void log(String message) {
+            if (isEnabled()) {
+                emit(message, null, null);
+            }
+        }
+
+        public void log(String template, Object arg) {
+            if (isEnabled()) {
+                emit(template, new Object[] {arg}, null);
+            }
+        }
+
+        public void log(String template, Object arg1, Object arg2) {
+            if (isEnabled()) {
+                emit(template, new Object[] {arg1, arg2}, null);
+            }
+        }
+
+        public void error(String message, Throwable error) {
+            if (isEnabled()) {
+                emit(message, null, error);
+            }
+        }
+
+        /** Messages dropped since this site last logged. */
+        public synchronized long getSuppressed() {
+            return suppressed;
+        }
+
+        private void emit(String template, Object[] args, Throwable error) {
+            long dropped;
+            synchronized (this) {
+                long now = System.nanoTime();
+                tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+                refilledAt = now;
+                if (tokens < 1) {
+                    suppressed++;
+                    return;
+                }
+                tokens -= 1;
+                dropped = suppressed;
+                suppressed = 0;
+            }
+            Sink target = sink;
+            if (dropped > 0) {
+                target.write(level, tag, "{} similar messages suppressed", new Object[] {dropped}, null);
+            }
+            target.write(level, tag, template, args, error);
+        }
+    }
+}
@@ -7,23 +7,15 @@ import android.app.PendingIntent;
 import android.content.Intent;
 import android.net.VpnService;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -42,29 +34,29 @@ public class RouterVpnService extends VpnService {
     private static final int MTU = 1500;
 
     private ParcelFileDescriptor vpnInterface;
-    private ExecutorService executor;
+    private Future<?> forwarder;
     private AtomicBoolean isRunning = new AtomicBoolean(false);
+    private final UdpFlowTable udpFlows = new UdpFlowTable(this::protect);
+    private final PacketRouter packetRouter = new PacketRouter(MTU, udpFlows, new PacketRouter.Listener() {
+        @Override
+        public void onPacketForwarded(int bytes) {
+            // Counted by PacketRouter and TrafficMeters; the UI hears about it through StatsBus
+        }
+    });
     
-    private static RouterVpnService instance;
-    private StatusCallback statusCallback;
-
-    public interface StatusCallback {
-        void onPacketForwarded(int bytes);
-        void onLog(String message);
-    }
-
-    public static RouterVpnService getInstance() {
-        return instance;
-    }
+    private static volatile RouterVpnService instance;
 
-    public void setStatusCallback(StatusCallback callback) {
-        this.statusCallback = callback;
+    /** Whether the VPN is forwarding; only meaningful inside the {@code :engine} process. */
+    static boolean isActive() {
+        RouterVpnService service = instance;
+        return service != null && service.isRunning.get();
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
         instance = this;
+        AppPreferences.initEngineProcess(this);
         createNotificationChannel();
     }
 
@@ -105,10 +97,13 @@ public class RouterVpnService extends VpnService {
             }
 
             isRunning.set(true);
-            executor = Executors.newFixedThreadPool(2);
-            
-            // Start packet forwarding threads
-            executor.submit(this::forwardOutgoing);
+            RouterEngine.get().acquire(new File(getFilesDir(), "journal"));
+            forwarder = RouterEngine.get().submit(this::forwardOutgoing);
+            if (forwarder == null) {
+                log("VPN start failed: router engine is saturated");
+                stopVpn();
+                return;
+            }
             
             log("VPN started successfully");
             
@@ -131,7 +126,7 @@ public class RouterVpnService extends VpnService {
                 
                 if (length > 0) {
                     packet.limit(length);
-                    handlePacket(packet, out);
+                    packetRouter.handlePacket(packet, out::write);
                 }
                 
             } catch (IOException e) {
@@ -143,154 +138,17 @@ public class RouterVpnService extends VpnService {
         }
     }
 
-    private void handlePacket(ByteBuffer packet, FileOutputStream out) {
-        try {
-            int version = (packet.get(0) >> 4) & 0xF;
-            
-            if (version == 4) {
-                handleIPv4Packet(packet, out);
-            } else if (version == 6) {
-                // IPv6 - pass through
-                log("IPv6 packet received (not yet supported)");
-            }
-            
-        } catch (Exception e) {
-            Log.e(TAG, "Error handling packet", e);
-        }
-    }
-
-    private void handleIPv4Packet(ByteBuffer packet, FileOutputStream out) throws IOException {
-        int headerLength = (packet.get(0) & 0x0F) * 4;
-        int totalLength = ((packet.get(2) & 0xFF) << 8) | (packet.get(3) & 0xFF);
-        int protocol = packet.get(9) & 0xFF;
-        
-        byte[] srcAddr = new byte[4];
-        byte[] dstAddr = new byte[4];
-        packet.position(12);
-        packet.get(srcAddr);
-        packet.get(dstAddr);
-        
-        InetAddress srcIp = InetAddress.getByAddress(srcAddr);
-        InetAddress dstIp = InetAddress.getByAddress(dstAddr);
-
-        if (protocol == 17) { // UDP
-            handleUdpPacket(packet, headerLength, dstIp, out);
-        } else if (protocol == 6) { // TCP  
-            handleTcpPacket(packet, headerLength, dstIp, out);
-        } else if (protocol == 1) { // ICMP
-            handleIcmpPacket(packet, headerLength, dstIp, out);
-        }
-        
-        if (statusCallback != null) {
-            new Handler(Looper.getMainLooper()).post(() -> 
-                statusCallback.onPacketForwarded(totalLength));
-        }
-    }
-
-    private void handleUdpPacket(ByteBuffer packet, int ipHeaderLen, InetAddress dstIp, FileOutputStream out) {
-        try {
-            int srcPort = ((packet.get(ipHeaderLen) & 0xFF) << 8) | (packet.get(ipHeaderLen + 1) & 0xFF);
-            int dstPort = ((packet.get(ipHeaderLen + 2) & 0xFF) << 8) | (packet.get(ipHeaderLen + 3) & 0xFF);
-            int udpLength = ((packet.get(ipHeaderLen + 4) & 0xFF) << 8) | (packet.get(ipHeaderLen + 5) & 0xFF);
-            
-            int dataOffset = ipHeaderLen + 8;
-            int dataLength = udpLength - 8;
-            
-            if (dataLength > 0 && dataOffset + dataLength <= packet.limit()) {
-                byte[] data = new byte[dataLength];
-                packet.position(dataOffset);
-                packet.get(data);
-                
-                // Forward via UDP
-                DatagramChannel channel = DatagramChannel.open();
-                protect(channel.socket());
-                channel.connect(new InetSocketAddress(dstIp, dstPort));
-                channel.write(ByteBuffer.wrap(data));
-                
-                // Read response
-                ByteBuffer response = ByteBuffer.allocate(MTU);
-                channel.configureBlocking(false);
-                int read = channel.read(response);
-                
-                if (read > 0) {
-                    response.flip();
-                    byte[] responseData = new byte[read];
-                    response.get(responseData);
-                    
-                    // Build response packet and write back
-                    ByteBuffer responsePacket = buildUdpResponse(dstIp, packet, dstPort, srcPort, responseData);
-                    out.write(responsePacket.array(), 0, responsePacket.limit());
-                }
-                
-                channel.close();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "UDP forward error", e);
-        }
-    }
-
-    private void handleTcpPacket(ByteBuffer packet, int ipHeaderLen, InetAddress dstIp, FileOutputStream out) {
-        // TCP requires stateful connection tracking - simplified implementation
-        try {
-            int dstPort = ((packet.get(ipHeaderLen + 2) & 0xFF) << 8) | (packet.get(ipHeaderLen + 3) & 0xFF);
-            log("TCP packet to " + dstIp.getHostAddress() + ":" + dstPort);
-            
-            // For full TCP support, would need to implement TCP state machine
-            // or use a library like netty
-            
-        } catch (Exception e) {
-            Log.e(TAG, "TCP handling error", e);
-        }
-    }
-
-    private void handleIcmpPacket(ByteBuffer packet, int ipHeaderLen, InetAddress dstIp, FileOutputStream out) {
-        try {
-            int type = packet.get(ipHeaderLen) & 0xFF;
-            if (type == 8) { // Echo request
-                log("ICMP Echo request to " + dstIp.getHostAddress());
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "ICMP handling error", e);
-        }
-    }
-
-    private ByteBuffer buildUdpResponse(InetAddress origDst, ByteBuffer origPacket, 
-                                        int srcPort, int dstPort, byte[] data) {
-        // Simplified response packet builder
-        int totalLength = 20 + 8 + data.length; // IP + UDP + data
-        ByteBuffer response = ByteBuffer.allocate(totalLength);
-        
-        // IP Header (simplified)
-        response.put((byte) 0x45); // Version + IHL
-        response.put((byte) 0x00); // TOS
-        response.putShort((short) totalLength);
-        response.putShort((short) 0); // ID
-        response.putShort((short) 0x4000); // Flags + Fragment
-        response.put((byte) 64); // TTL
-        response.put((byte) 17); // Protocol UDP
-        response.putShort((short) 0); // Checksum (would need to calculate)
-        response.put(origDst.getAddress());
-        response.put(new byte[]{10, 0, 0, 2}); // VPN client address
-        
-        // UDP Header
-        response.putShort((short) srcPort);
-        response.putShort((short) dstPort);
-        response.putShort((short) (8 + data.length));
-        response.putShort((short) 0); // Checksum
-        
-        // Data
-        response.put(data);
-        
-        response.flip();
-        return response;
-    }
-
     public void stopVpn() {
-        isRunning.set(false);
+        boolean wasRunning = isRunning.getAndSet(false);
         
-        if (executor != null) {
-            executor.shutdownNow();
-            executor = null;
+        if (forwarder != null) {
+            forwarder.cancel(true);
+            forwarder = null;
+        }
+        udpFlows.closeAll();
+        if (wasRunning) {
+            // After closeAll so the final UDP flows still reach the journal
+            RouterEngine.get().release();
         }
         
         if (vpnInterface != null) {
@@ -308,10 +166,6 @@ public class RouterVpnService extends VpnService {
     private void log(String message) {
         Log.i(TAG, message);
         AppLogBuffer.add(TAG, message);
-        if (statusCallback != null) {
-            new Handler(Looper.getMainLooper()).post(() -> 
-                statusCallback.onLog(message));
-        }
     }
 
     private void createNotificationChannel() {
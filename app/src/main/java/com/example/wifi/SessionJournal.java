@@ -0,0 +1,635 @@
+package com.example.wifi;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only journal of finished proxy sessions and VPN UDP flows, stored as
+ * fixed-size binary records in memory-mapped segment files.
+ *
+ * <p>{@link #record} only offers to a bounded queue, so relay threads never wait on
+ * disk; a single writer thread drains the queue in batches, writes into the mapped
+ * segment and forces it to storage every couple of seconds. If the queue is full the
+ * record is dropped and counted. Segments hold {@value #RECORDS_PER_SEGMENT} records;
+ * when more than {@value #MAX_DETAIL_SEGMENTS} are on disk the oldest is compacted into
+ * hourly per-client, per-destination totals, and the oldest compacted segments are
+ * deleted beyond {@value #MAX_COMPACT_SEGMENTS}.
+ *
+ * <p>Record layout (little-endian, {@value #RECORD_SIZE} bytes): start ms, end ms, bytes
+ * up, bytes down (8 each), client address (16, IPv4-mapped), session count (4), port (2),
+ * kind (1), outcome (1), host length (1), reserved (7), host (64, ASCII; longer names
+ * keep their rightmost characters).
+ */
+public final class SessionJournal {
+    private static final String TAG = "SessionJournal";
+    static final int RECORD_SIZE = 128;
+    static final int HEADER_SIZE = 64;
+    static final int RECORDS_PER_SEGMENT = 32768;
+    static final int MAX_DETAIL_SEGMENTS = 8;
+    static final int MAX_COMPACT_SEGMENTS = 16;
+    private static final int MAGIC = 0x57524A31; // "WRJ1"
+    private static final int FLAG_COMPACTED = 1;
+    private static final int HOST_BYTES = 64;
+    private static final int QUEUE_CAPACITY = 16384;
+    private static final int BATCH_SIZE = 512;
+    private static final long FORCE_INTERVAL_MS = 2000;
+    private static final long COMPACT_BUCKET_MS = 60 * 60 * 1000L;
+    private static final String DETAIL_PREFIX = "sessions-";
+    private static final String COMPACT_PREFIX = "compact-";
+    private static final String SUFFIX = ".seg";
+
+    public enum Kind {
+        CONNECT,
+        HTTP,
+        UDP
+    }
+
+    public enum Outcome {
+        OK,
+        IDLE_TIMEOUT,
+        BAD_REQUEST,
+        RESOLVE_FAILED,
+        CONNECT_FAILED,
+        ERROR
+    }
+
+    private static final BlockingQueue<Session> QUEUE = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong WRITTEN = new AtomicLong(0);
+    private static final AtomicLong DROPPED = new AtomicLong(0);
+    // Queued to wake the writer on shutdown; interrupting it would close the mapped channel
+    private static final Session WAKE = new Session(0, 0, null, null, 0, Kind.UDP, Outcome.OK, 0, 0);
+    private static final Object LOCK = new Object();
+    private static volatile Writer writer;
+    // The newest writer, possibly still draining after release; guarded by LOCK
+    private static Writer lastWriter;
+    private static int holders;
+
+    private SessionJournal() {
+    }
+
+    /** Starts the writer on {@code dir} if this is the first holder. */
+    public static void acquire(File dir) {
+        synchronized (LOCK) {
+            if (holders++ > 0) {
+                return;
+            }
+            writer = new Writer(dir, lastWriter);
+            lastWriter = writer;
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops the writer once the last holder releases it. Queued records are written
+     * first; the wait for that happens outside the lock, so a concurrent
+     * {@link #acquire} isn't held up.
+     */
+    public static void release() {
+        Writer stopping;
+        synchronized (LOCK) {
+            if (holders == 0 || --holders > 0) {
+                return;
+            }
+            stopping = writer;
+            writer = null;
+            stopping.shutdown();
+        }
+        stopping.awaitExit();
+    }
+
+    /**
+     * Queues {@code session} for writing without blocking.
+     *
+     * @return false if the journal is not running or its queue is full
+     */
+    public static boolean record(Session session) {
+        if (writer == null) {
+            return false;
+        }
+        if (!QUEUE.offer(session)) {
+            DROPPED.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public static long getWrittenCount() {
+        return WRITTEN.get();
+    }
+
+    public static long getDroppedCount() {
+        return DROPPED.get();
+    }
+
+    /** Matching records, newest first. Compacted records have {@code sessions > 1}. */
+    public static List<Session> query(Query query) {
+        File dir = currentDir();
+        List<Session> results = new ArrayList<>();
+        if (dir == null) {
+            return results;
+        }
+        // Newest detail segment first, then compacted history
+        List<File> ordered = listSegments(dir, DETAIL_PREFIX);
+        Collections.reverse(ordered);
+        List<File> compacted = listSegments(dir, COMPACT_PREFIX);
+        Collections.reverse(compacted);
+        ordered.addAll(compacted);
+        for (File segment : ordered) {
+            if (scanSegment(segment, query, results)) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /** Writes matching records as CSV with a header row and returns the number of rows. */
+    public static int exportCsv(Query query, Appendable out) throws IOException {
+        out.append("start_ms,end_ms,client,host,port,kind,outcome,bytes_up,bytes_down,sessions\n");
+        List<Session> sessions = query(query);
+        for (Session session : sessions) {
+            out.append(Long.toString(session.startMs)).append(',')
+                .append(Long.toString(session.endMs)).append(',')
+                .append(session.client != null ? session.client : "").append(',')
+                .append(session.host != null ? session.host : "").append(',')
+                .append(Integer.toString(session.port)).append(',')
+                .append(session.kind.name()).append(',')
+                .append(session.outcome.name()).append(',')
+                .append(Long.toString(session.bytesUp)).append(',')
+                .append(Long.toString(session.bytesDown)).append(',')
+                .append(Integer.toString(session.sessions)).append('\n');
+        }
+        return sessions.size();
+    }
+
+    private static File currentDir() {
+        synchronized (LOCK) {
+            return writer != null ? writer.dir : null;
+        }
+    }
+
+    /** Appends matches from one segment; returns true once the query limit is reached. */
+    private static boolean scanSegment(File file, Query query, List<Session> results) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                return false;
+            }
+            int count = Math.min(buffer.getInt(16), (int) ((channel.size() - HEADER_SIZE) / RECORD_SIZE));
+            for (int i = count - 1; i >= 0; i--) {
+                Session session = readRecord(buffer, HEADER_SIZE + i * RECORD_SIZE);
+                if (query.matches(session)) {
+                    results.add(session);
+                    if (results.size() >= query.limit) {
+                        return true;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Segment rotated away or unreadable; skip it
+        }
+        return false;
+    }
+
+    static void writeRecord(ByteBuffer buffer, int offset, Session session) {
+        buffer.putLong(offset, session.startMs);
+        buffer.putLong(offset + 8, session.endMs);
+        buffer.putLong(offset + 16, session.bytesUp);
+        buffer.putLong(offset + 24, session.bytesDown);
+        byte[] address = encodeAddress(session.client);
+        for (int i = 0; i < 16; i++) {
+            buffer.put(offset + 32 + i, address[i]);
+        }
+        buffer.putInt(offset + 48, session.sessions);
+        buffer.putShort(offset + 52, (short) session.port);
+        buffer.put(offset + 54, (byte) session.kind.ordinal());
+        buffer.put(offset + 55, (byte) session.outcome.ordinal());
+        byte[] host = session.host != null ? session.host.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        int from = Math.max(0, host.length - HOST_BYTES);
+        int length = host.length - from;
+        buffer.put(offset + 56, (byte) length);
+        for (int i = 0; i < HOST_BYTES; i++) {
+            buffer.put(offset + 64 + i, i < length ? host[from + i] : 0);
+        }
+    }
+
+    static Session readRecord(ByteBuffer buffer, int offset) {
+        byte[] address = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            address[i] = buffer.get(offset + 32 + i);
+        }
+        int hostLength = Math.min(buffer.get(offset + 56) & 0xFF, HOST_BYTES);
+        byte[] host = new byte[hostLength];
+        for (int i = 0; i < hostLength; i++) {
+            host[i] = buffer.get(offset + 64 + i);
+        }
+        Kind[] kinds = Kind.values();
+        Outcome[] outcomes = Outcome.values();
+        int kind = buffer.get(offset + 54) & 0xFF;
+        int outcome = buffer.get(offset + 55) & 0xFF;
+        return new Session(
+            buffer.getLong(offset),
+            buffer.getLong(offset + 8),
+            decodeAddress(address),
+            new String(host, StandardCharsets.US_ASCII),
+            buffer.getShort(offset + 52) & 0xFFFF,
+            kind < kinds.length ? kinds[kind] : Kind.CONNECT,
+            outcome < outcomes.length ? outcomes[outcome] : Outcome.ERROR,
+            buffer.getLong(offset + 16),
+            buffer.getLong(offset + 24),
+            buffer.getInt(offset + 48));
+    }
+
+    private static byte[] encodeAddress(String client) {
+        byte[] encoded = new byte[16];
+        if (client == null || client.isEmpty() || !isLiteral(client)) {
+            return encoded;
+        }
+        try {
+            byte[] raw = InetAddress.getByName(client).getAddress();
+            if (raw.length == 4) {
+                encoded[10] = (byte) 0xFF;
+                encoded[11] = (byte) 0xFF;
+                System.arraycopy(raw, 0, encoded, 12, 4);
+            } else {
+                System.arraycopy(raw, 0, encoded, 0, 16);
+            }
+        } catch (IOException ignored) {
+            // Leave unspecified
+        }
+        return encoded;
+    }
+
+    private static String decodeAddress(byte[] address) {
+        boolean zero = true;
+        boolean mapped = address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+        for (int i = 0; i < 16; i++) {
+            if (address[i] != 0) {
+                zero = false;
+            }
+            if (i < 10 && address[i] != 0) {
+                mapped = false;
+            }
+        }
+        if (zero) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(mapped ? Arrays.copyOfRange(address, 12, 16) : address)
+                .getHostAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Only numeric addresses are encoded, so the writer never triggers a DNS lookup. */
+    private static boolean isLiteral(String client) {
+        char first = client.charAt(0);
+        return client.indexOf(':') >= 0 || (first >= '0' && first <= '9');
+    }
+
+    private static List<File> listSegments(File dir, String prefix) {
+        List<File> segments = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(prefix) && name.endsWith(SUFFIX)) {
+                    segments.add(file);
+                }
+            }
+        }
+        segments.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return segments;
+    }
+
+    private static long segmentIndex(File file, String prefix) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File segmentFile(File dir, String prefix, long index) {
+        return new File(dir, String.format(Locale.US, "%s%010d%s", prefix, index, SUFFIX));
+    }
+
+    /** Single writer thread owning the active mapped segment. */
+    private static final class Writer extends Thread {
+        final File dir;
+        // A writer started right after a release waits for the old one to close its segment
+        private Writer previous;
+        private volatile boolean running = true;
+        private FileChannel channel;
+        private MappedByteBuffer segment;
+        private long segmentIndex;
+        private int count;
+        private long lastForceMs;
+        private boolean dirty;
+
+        Writer(File dir, Writer previous) {
+            super(TAG);
+            this.dir = dir;
+            this.previous = previous;
+            setDaemon(true);
+        }
+
+        void shutdown() {
+            running = false;
+            // If the queue is full the writer is busy and sees the flag on its next pass
+            QUEUE.offer(WAKE);
+        }
+
+        void awaitExit() {
+            try {
+                join(FORCE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Session> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                awaitPrevious();
+                openLatest();
+                while (running || !QUEUE.isEmpty()) {
+                    Session first = null;
+                    try {
+                        first = QUEUE.poll(FORCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        // Not expected; keep draining
+                    }
+                    if (first != null) {
+                        batch.add(first);
+                        QUEUE.drainTo(batch, BATCH_SIZE - 1);
+                        int written = 0;
+                        for (Session session : batch) {
+                            if (session != WAKE) {
+                                append(session);
+                                written++;
+                            }
+                        }
+                        WRITTEN.addAndGet(written);
+                        batch.clear();
+                    }
+                    forceIfDue(!running);
+                }
+            } catch (IOException e) {
+                AppLogBuffer.add(TAG, "Journal writer stopped: {}", e);
+                QUEUE.clear();
+            } finally {
+                closeSegment();
+            }
+        }
+
+        private void awaitPrevious() {
+            while (previous != null && previous.isAlive()) {
+                try {
+                    previous.join();
+                } catch (InterruptedException e) {
+                    // The old writer must still finish before the segment is reopened
+                }
+            }
+            previous = null;
+        }
+
+        private void openLatest() throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            List<File> existing = listSegments(dir, DETAIL_PREFIX);
+            long index = existing.isEmpty() ? 0 : segmentIndex(existing.get(existing.size() - 1), DETAIL_PREFIX);
+            openSegment(Math.max(index, 0));
+            if (count >= RECORDS_PER_SEGMENT) {
+                roll();
+            }
+        }
+
+        private void openSegment(long index) throws IOException {
+            File file = segmentFile(dir, DETAIL_PREFIX, index);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) RECORDS_PER_SEGMENT * RECORD_SIZE);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segmentIndex = index;
+            if (segment.getInt(0) == MAGIC) {
+                count = Math.min(segment.getInt(16), RECORDS_PER_SEGMENT);
+            } else {
+                writeHeader(segment, 0, System.currentTimeMillis());
+                count = 0;
+            }
+        }
+
+        private void append(Session session) throws IOException {
+            if (count >= RECORDS_PER_SEGMENT) {
+                roll();
+            }
+            writeRecord(segment, HEADER_SIZE + count * RECORD_SIZE, session);
+            count++;
+            // Publish the record before the count so readers never see a partial one
+            segment.putInt(16, count);
+            dirty = true;
+        }
+
+        private void forceIfDue(boolean always) {
+            long now = System.currentTimeMillis();
+            if (dirty && (always || now - lastForceMs >= FORCE_INTERVAL_MS)) {
+                segment.force();
+                dirty = false;
+                lastForceMs = now;
+            }
+        }
+
+        private void roll() throws IOException {
+            closeSegment();
+            openSegment(segmentIndex + 1);
+            List<File> details = listSegments(dir, DETAIL_PREFIX);
+            while (details.size() > MAX_DETAIL_SEGMENTS) {
+                File oldest = details.remove(0);
+                compact(oldest);
+                if (!oldest.delete()) {
+                    AppLogBuffer.add(TAG, "Could not delete {}", oldest.getName());
+                    break;
+                }
+            }
+            List<File> compacted = listSegments(dir, COMPACT_PREFIX);
+            for (int i = 0; i < compacted.size() - MAX_COMPACT_SEGMENTS; i++) {
+                if (!compacted.get(i).delete()) {
+                    AppLogBuffer.add(TAG, "Could not delete {}", compacted.get(i).getName());
+                }
+            }
+        }
+
+        /** Folds a detail segment into hourly totals keyed by client, host, port, kind and outcome. */
+        private void compact(File detail) throws IOException {
+            Map<String, Session> totals = new LinkedHashMap<>();
+            try (FileChannel in = FileChannel.open(detail.toPath(), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int records = buffer.getInt(0) == MAGIC ? Math.min(buffer.getInt(16), RECORDS_PER_SEGMENT) : 0;
+                for (int i = 0; i < records; i++) {
+                    Session session = readRecord(buffer, HEADER_SIZE + i * RECORD_SIZE);
+                    long bucket = session.startMs / COMPACT_BUCKET_MS;
+                    String key = bucket + "|" + session.client + "|" + session.host + "|" + session.port
+                        + "|" + session.kind + "|" + session.outcome;
+                    Session total = totals.get(key);
+                    totals.put(key, total == null ? session : total.merge(session));
+                }
+            }
+            if (totals.isEmpty()) {
+                return;
+            }
+            long index = segmentIndex(detail, DETAIL_PREFIX);
+            File target = segmentFile(dir, COMPACT_PREFIX, index);
+            try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = out.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) totals.size() * RECORD_SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int offset = HEADER_SIZE;
+                for (Session total : totals.values()) {
+                    writeRecord(buffer, offset, total);
+                    offset += RECORD_SIZE;
+                }
+                writeHeader(buffer, FLAG_COMPACTED, System.currentTimeMillis());
+                buffer.putInt(16, totals.size());
+                buffer.force();
+            }
+        }
+
+        private void closeSegment() {
+            if (segment != null) {
+                segment.force();
+                segment = null;
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Ignore
+                }
+                channel = null;
+            }
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int flags, long createdMs) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, 1);
+        buffer.putInt(8, RECORD_SIZE);
+        buffer.putInt(12, flags);
+        buffer.putInt(16, 0);
+        buffer.putLong(24, createdMs);
+    }
+
+    /** One finished session, or an hourly total of several when read from compacted history. */
+    public static final class Session {
+        public final long startMs;
+        public final long endMs;
+        public final String client;
+        public final String host;
+        public final int port;
+        public final Kind kind;
+        public final Outcome outcome;
+        public final long bytesUp;
+        public final long bytesDown;
+        public final int sessions;
+
+        public Session(long startMs, long endMs, String client, String host, int port, Kind kind,
+                       Outcome outcome, long bytesUp, long bytesDown) {
+            this(startMs, endMs, client, host, port, kind, outcome, bytesUp, bytesDown, 1);
+        }
+
+        Session(long startMs, long endMs, String client, String host, int port, Kind kind,
+                Outcome outcome, long bytesUp, long bytesDown, int sessions) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.client = client;
+            this.host = host;
+            this.port = port;
+            this.kind = kind;
+            this.outcome = outcome;
+            this.bytesUp = bytesUp;
+            this.bytesDown = bytesDown;
+            this.sessions = sessions;
+        }
+
+        Session merge(Session other) {
+            return new Session(Math.min(startMs, other.startMs), Math.max(endMs, other.endMs), client, host,
+                port, kind, outcome, bytesUp + other.bytesUp, bytesDown + other.bytesDown,
+                sessions + other.sessions);
+        }
+    }
+
+    /** Filter for {@link #query}; unset fields match everything. */
+    public static final class Query {
+        long fromMs = Long.MIN_VALUE;
+        long toMs = Long.MAX_VALUE;
+        String client;
+        String hostSuffix;
+        int limit = 1000;
+
+        /** Sessions that overlap {@code [fromMs, toMs)}. */
+        public Query between(long fromMs, long toMs) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            return this;
+        }
+
+        public Query client(String client) {
+            this.client = client;
+            return this;
+        }
+
+        /** Matches the host itself and its subdomains, e.g. {@code example.com}. */
+        public Query host(String hostSuffix) {
+            this.hostSuffix = hostSuffix != null ? hostSuffix.toLowerCase(Locale.US) : null;
+            return this;
+        }
+
+        public Query limit(int limit) {
+            this.limit = Math.max(1, limit);
+            return this;
+        }
+
+        boolean matches(Session session) {
+            if (session.endMs < fromMs || session.startMs >= toMs) {
+                return false;
+            }
+            if (client != null && !client.equals(session.client)) {
+                return false;
+            }
+            if (hostSuffix != null) {
+                String host = session.host != null ? session.host.toLowerCase(Locale.US) : "";
+                return host.equals(hostSuffix) || host.endsWith("." + hostSuffix);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.wifi;
+
+import android.os.Parcel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every persisted setting at one point in time. Immutable, so readers on any thread
+ * take the current instance from {@link AppPreferences#snapshot} without locking;
+ * changes build a new one through {@link Builder}.
+ */
+public final class SettingsSnapshot {
+    public final String ssid;
+    public final String password;
+    public final int proxyPort;
+    public final boolean keepRunning;
+    public final float traceSampleRate;
+    /** Unmodifiable. */
+    public final Set<String> traceClients;
+    public final RouterLog.Level logLevel;
+    /** Log ring size; only read when a process starts. */
+    public final int logCapacity;
+    /** Hosts and domains the PAC script sends direct; unmodifiable. */
+    public final Set<String> directHosts;
+    private final Map<TimeoutClass, Long> timeouts;
+
+    private SettingsSnapshot(Builder builder) {
+        ssid = builder.ssid;
+        password = builder.password;
+        proxyPort = builder.proxyPort;
+        keepRunning = builder.keepRunning;
+        traceSampleRate = builder.traceSampleRate;
+        traceClients = Collections.unmodifiableSet(new HashSet<>(builder.traceClients));
+        logLevel = builder.logLevel;
+        logCapacity = builder.logCapacity;
+        directHosts = Collections.unmodifiableSet(new HashSet<>(builder.directHosts));
+        timeouts = Collections.unmodifiableMap(new EnumMap<>(builder.timeouts));
+    }
+
+    public long getTimeoutMs(TimeoutClass timeoutClass) {
+        Long millis = timeouts.get(timeoutClass);
+        return millis != null ? millis : timeoutClass.getDefaultMillis();
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    void writeTo(Parcel out) {
+        out.writeString(ssid);
+        out.writeString(password);
+        out.writeInt(proxyPort);
+        out.writeInt(keepRunning ? 1 : 0);
+        out.writeFloat(traceSampleRate);
+        out.writeStringList(new ArrayList<>(traceClients));
+        out.writeString(logLevel.name());
+        out.writeInt(logCapacity);
+        out.writeStringList(new ArrayList<>(directHosts));
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            out.writeLong(getTimeoutMs(timeoutClass));
+        }
+    }
+
+    static SettingsSnapshot readFrom(Parcel in) {
+        Builder builder = new Builder()
+            .setSsid(in.readString())
+            .setPassword(in.readString())
+            .setProxyPort(in.readInt())
+            .setKeepRunning(in.readInt() != 0)
+            .setTraceSampleRate(in.readFloat())
+            .setTraceClients(in.createStringArrayList())
+            .setLogLevel(RouterLog.Level.valueOf(in.readString()))
+            .setLogCapacity(in.readInt())
+            .setDirectHosts(in.createStringArrayList());
+        for (TimeoutClass timeoutClass : TimeoutClass.values()) {
+            builder.setTimeoutMs(timeoutClass, in.readLong());
+        }
+        return builder.build();
+    }
+
+    public static final class Builder {
+        private String ssid = "";
+        private String password = "";
+        private int proxyPort = ProxyService.DEFAULT_PORT;
+        private boolean keepRunning = true;
+        private float traceSampleRate;
+        private Set<String> traceClients = Collections.emptySet();
+        private RouterLog.Level logLevel = RouterLog.Level.INFO;
+        private int logCapacity = AppLogBuffer.DEFAULT_CAPACITY;
+        private Set<String> directHosts = Collections.emptySet();
+        private final Map<TimeoutClass, Long> timeouts = new EnumMap<>(TimeoutClass.class);
+
+        /** Starts from the defaults. */
+        public Builder() {
+        }
+
+        Builder(SettingsSnapshot from) {
+            ssid = from.ssid;
+            password = from.password;
+            proxyPort = from.proxyPort;
+            keepRunning = from.keepRunning;
+            traceSampleRate = from.traceSampleRate;
+            traceClients = from.traceClients;
+            logLevel = from.logLevel;
+            logCapacity = from.logCapacity;
+            directHosts = from.directHosts;
+            timeouts.putAll(from.timeouts);
+        }
+
+        public Builder setSsid(String ssid) {
+            this.ssid = ssid != null ? ssid : "";
+            return this;
+        }
+
+        public Builder setPassword(String password) {
+            this.password = password != null ? password : "";
+            return this;
+        }
+
+        public Builder setProxyPort(int proxyPort) {
+            this.proxyPort = proxyPort;
+            return this;
+        }
+
+        public Builder setKeepRunning(boolean keepRunning) {
+            this.keepRunning = keepRunning;
+            return this;
+        }
+
+        public Builder setTraceSampleRate(float traceSampleRate) {
+            this.traceSampleRate = traceSampleRate;
+            return this;
+        }
+
+        public Builder setTraceClients(Collection<String> traceClients) {
+            this.traceClients = new HashSet<>(traceClients);
+            return this;
+        }
+
+        public Builder setLogLevel(RouterLog.Level logLevel) {
+            this.logLevel = logLevel;
+            return this;
+        }
+
+        public Builder setLogCapacity(int logCapacity) {
+            this.logCapacity = logCapacity;
+            return this;
+        }
+
+        public Builder setDirectHosts(Collection<String> directHosts) {
+            this.directHosts = new HashSet<>(directHosts);
+            return this;
+        }
+
+        public Builder setTimeoutMs(TimeoutClass timeoutClass, long millis) {
+            timeouts.put(timeoutClass, millis);
+            return this;
+        }
+
+        public SettingsSnapshot build() {
+            return new SettingsSnapshot(this);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SOCKS5 wire format (RFC 1928) for {@link ProxyServer}: method negotiation, the
+ * request and reply, and the header on relayed UDP datagrams. Only the "no
+ * authentication" method is offered; the proxy is reachable from the hotspot alone.
+ */
+final class Socks5 {
+    static final int VERSION = 5;
+
+    static final int CMD_CONNECT = 1;
+    static final int CMD_UDP_ASSOCIATE = 3;
+
+    static final int REP_SUCCEEDED = 0;
+    static final int REP_GENERAL_FAILURE = 1;
+    static final int REP_NETWORK_UNREACHABLE = 3;
+    static final int REP_HOST_UNREACHABLE = 4;
+    static final int REP_CONNECTION_REFUSED = 5;
+    static final int REP_COMMAND_NOT_SUPPORTED = 7;
+    static final int REP_ADDRESS_TYPE_NOT_SUPPORTED = 8;
+
+    /** Largest header {@link #writeUdpHeader} produces: IPv6 address and port. */
+    static final int MAX_UDP_HEADER = 4 + 16 + 2;
+
+    private static final int METHOD_NO_AUTH = 0;
+    private static final int METHOD_NONE_ACCEPTABLE = 0xFF;
+    private static final int ATYP_IPV4 = 1;
+    private static final int ATYP_DOMAIN = 3;
+    private static final int ATYP_IPV6 = 4;
+
+    private Socks5() {
+    }
+
+    /** A parsed request. {@code address} is null when the client sent a domain name. */
+    static final class Request {
+        final int command;
+        final String host;
+        final InetAddress address;
+        final int port;
+
+        Request(int command, String host, InetAddress address, int port) {
+            this.command = command;
+            this.host = host;
+            this.address = address;
+            this.port = port;
+        }
+    }
+
+    /**
+     * Runs method negotiation and reads the request. Protocol violations are answered
+     * on {@code out} as the RFC asks, and return null.
+     *
+     * @throws IOException if the stream fails or ends early
+     */
+    static Request readRequest(InputStream in, OutputStream out) throws IOException {
+        if (readByte(in) != VERSION) {
+            return null;
+        }
+        int methodCount = readByte(in);
+        boolean noAuth = false;
+        for (int i = 0; i < methodCount; i++) {
+            noAuth |= readByte(in) == METHOD_NO_AUTH;
+        }
+        out.write(new byte[] {VERSION, (byte) (noAuth ? METHOD_NO_AUTH : METHOD_NONE_ACCEPTABLE)});
+        out.flush();
+        if (!noAuth) {
+            return null;
+        }
+
+        if (readByte(in) != VERSION) {
+            return null;
+        }
+        int command = readByte(in);
+        readByte(in); // Reserved
+        int addressType = readByte(in);
+        String host;
+        InetAddress address = null;
+        switch (addressType) {
+            case ATYP_IPV4:
+                address = InetAddress.getByAddress(readFully(in, 4));
+                host = address.getHostAddress();
+                break;
+            case ATYP_IPV6:
+                address = InetAddress.getByAddress(readFully(in, 16));
+                host = address.getHostAddress();
+                break;
+            case ATYP_DOMAIN:
+                host = new String(readFully(in, readByte(in)), StandardCharsets.ISO_8859_1);
+                break;
+            default:
+                writeReply(out, REP_ADDRESS_TYPE_NOT_SUPPORTED, null);
+                return null;
+        }
+        int port = (readByte(in) << 8) | readByte(in);
+        if (command != CMD_CONNECT && command != CMD_UDP_ASSOCIATE) {
+            writeReply(out, REP_COMMAND_NOT_SUPPORTED, null);
+            return null;
+        }
+        return new Request(command, host, address, port);
+    }
+
+    /** Answers a greeting with "no acceptable methods", the only refusal possible before a request. */
+    static void writeRefusal(OutputStream out) throws IOException {
+        out.write(new byte[] {VERSION, (byte) METHOD_NONE_ACCEPTABLE});
+        out.flush();
+    }
+
+    /** Writes a reply; {@code bound} may be null for failures. */
+    static void writeReply(OutputStream out, int reply, SocketAddress bound) throws IOException {
+        InetAddress address = null;
+        int port = 0;
+        if (bound instanceof InetSocketAddress) {
+            address = ((InetSocketAddress) bound).getAddress();
+            port = ((InetSocketAddress) bound).getPort();
+        }
+        byte[] raw = address != null ? address.getAddress() : new byte[4];
+        ByteBuffer buffer = ByteBuffer.allocate(4 + raw.length + 2);
+        buffer.put((byte) VERSION).put((byte) reply).put((byte) 0)
+            .put((byte) (raw.length == 16 ? ATYP_IPV6 : ATYP_IPV4))
+            .put(raw)
+            .putShort((short) port);
+        out.write(buffer.array());
+        out.flush();
+    }
+
+    /** The reply code for a failed outbound connection. */
+    static int replyFor(IOException e) {
+        if (e instanceof UnknownHostException) {
+            return REP_HOST_UNREACHABLE;
+        }
+        if (e instanceof NoRouteToHostException) {
+            return REP_NETWORK_UNREACHABLE;
+        }
+        if (e instanceof ConnectException) {
+            return REP_CONNECTION_REFUSED;
+        }
+        return REP_GENERAL_FAILURE;
+    }
+
+    /** Destination of a datagram from the client. {@code address} is null for domain names. */
+    static final class UdpHeader {
+        final String host;
+        final InetAddress address;
+        final int port;
+
+        UdpHeader(String host, InetAddress address, int port) {
+            this.host = host;
+            this.address = address;
+            this.port = port;
+        }
+    }
+
+    /**
+     * Parses the header of a datagram from the client, leaving {@code datagram}
+     * positioned at the payload. Returns null for malformed and fragmented datagrams,
+     * which the RFC lets a server drop.
+     */
+    static UdpHeader readUdpHeader(ByteBuffer datagram) {
+        try {
+            if (datagram.getShort() != 0 || datagram.get() != 0) {
+                return null;
+            }
+            int addressType = datagram.get() & 0xFF;
+            String host;
+            InetAddress address = null;
+            if (addressType == ATYP_IPV4 || addressType == ATYP_IPV6) {
+                byte[] raw = new byte[addressType == ATYP_IPV4 ? 4 : 16];
+                datagram.get(raw);
+                address = InetAddress.getByAddress(raw);
+                host = address.getHostAddress();
+            } else if (addressType == ATYP_DOMAIN) {
+                byte[] raw = new byte[datagram.get() & 0xFF];
+                datagram.get(raw);
+                host = new String(raw, StandardCharsets.ISO_8859_1);
+            } else {
+                return null;
+            }
+            int port = datagram.getShort() & 0xFFFF;
+            return new UdpHeader(host, address, port);
+        } catch (RuntimeException | UnknownHostException e) {
+            // Truncated datagram
+            return null;
+        }
+    }
+
+    /**
+     * Writes the header for a datagram from {@code source} so that it ends exactly at
+     * {@code payloadStart}, and returns where it begins. The caller leaves at least
+     * {@link #MAX_UDP_HEADER} bytes free before the payload.
+     */
+    static int writeUdpHeader(ByteBuffer datagram, int payloadStart, InetSocketAddress source) {
+        InetAddress address = source.getAddress();
+        byte[] raw = address.getAddress();
+        int start = payloadStart - 4 - raw.length - 2;
+        datagram.put(start, (byte) 0);
+        datagram.put(start + 1, (byte) 0);
+        datagram.put(start + 2, (byte) 0);
+        datagram.put(start + 3, (byte) (address instanceof Inet6Address ? ATYP_IPV6 : ATYP_IPV4));
+        for (int i = 0; i < raw.length; i++) {
+            datagram.put(start + 4 + i, raw[i]);
+        }
+        datagram.putShort(payloadStart - 2, (short) source.getPort());
+        return start;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new IOException("SOCKS client closed mid-handshake");
+        }
+        return value;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(data, offset, length - offset);
+            if (read < 0) {
+                throw new IOException("SOCKS client closed mid-handshake");
+            }
+            offset += read;
+        }
+        return data;
+    }
+}
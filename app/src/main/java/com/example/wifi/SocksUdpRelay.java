@@ -0,0 +1,352 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP half of the SOCKS5 mode of {@link ProxyServer}. One selector thread relays every
+ * UDP ASSOCIATE session. Each association owns a client-facing channel, bound on the
+ * address the client reached the proxy on, and one unconnected upstream channel. Replies
+ * are only accepted from destinations the client has sent to, and are returned wrapped
+ * in the SOCKS UDP header.
+ *
+ * <p>Bytes are accounted like proxy relays, in the proxy total, traffic meters and top
+ * talkers, and each destination is journaled as a {@link SessionJournal.Kind#UDP} session.
+ */
+final class SocksUdpRelay {
+    /** Largest UDP payload. */
+    private static final int MAX_PAYLOAD = 65_507;
+    /** Caps the destinations one association may fan out to. */
+    private static final int MAX_FLOWS_PER_ASSOCIATION = 256;
+    /** Datagrams drained from one channel per wake-up before others get a turn. */
+    private static final int BATCH = 64;
+    private static final RouterLog.Site ERROR_LOG = RouterLog.site("SocksUdpRelay", RouterLog.Level.WARN, 1, 10);
+
+    private static final AtomicInteger OPEN_ASSOCIATIONS = new AtomicInteger(0);
+    private static final AtomicLong DATAGRAMS_UP = new AtomicLong(0);
+    private static final AtomicLong DATAGRAMS_DOWN = new AtomicLong(0);
+    private static final AtomicLong DATAGRAMS_DROPPED = new AtomicLong(0);
+
+    private final RouterEngine engine;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Association> pending = new ConcurrentLinkedQueue<>();
+    private final Set<Association> associations = ConcurrentHashMap.newKeySet();
+    // Only touched by the selector thread; room for the header in front of the largest payload
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(Socks5.MAX_UDP_HEADER + MAX_PAYLOAD);
+    private volatile boolean running = true;
+
+    private SocksUdpRelay(RouterEngine engine) throws IOException {
+        this.engine = engine;
+        this.selector = Selector.open();
+    }
+
+    /** Opens the selector and starts its thread on the engine. */
+    static SocksUdpRelay start(RouterEngine engine) throws IOException {
+        SocksUdpRelay relay = new SocksUdpRelay(engine);
+        if (!engine.execute(relay::selectLoop)) {
+            relay.selector.close();
+            throw new IOException("No I/O thread free for the SOCKS UDP relay");
+        }
+        return relay;
+    }
+
+    /**
+     * Opens an association for the client on {@code control}. The client's datagrams
+     * must come from the control connection's address and, if it named one, port.
+     */
+    Association open(Socket control, int clientPort, Runnable onIdle) throws IOException {
+        Association association = new Association(control, clientPort, onIdle);
+        associations.add(association);
+        OPEN_ASSOCIATIONS.incrementAndGet();
+        pending.add(association);
+        selector.wakeup();
+        return association;
+    }
+
+    void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    static int getOpenAssociationCount() {
+        return OPEN_ASSOCIATIONS.get();
+    }
+
+    static long getDatagramsUp() {
+        return DATAGRAMS_UP.get();
+    }
+
+    static long getDatagramsDown() {
+        return DATAGRAMS_DOWN.get();
+    }
+
+    static long getDroppedDatagrams() {
+        return DATAGRAMS_DROPPED.get();
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Association added;
+                while ((added = pending.poll()) != null) {
+                    try {
+                        added.register();
+                    } catch (IOException e) {
+                        added.close();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    Association association = (Association) key.attachment();
+                    try {
+                        if (key.channel() == association.clientChannel) {
+                            association.fromClient();
+                        } else {
+                            association.fromUpstream();
+                        }
+                    } catch (IOException | CancelledKeyException e) {
+                        // Closed by its control connection while we were reading
+                        association.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ERROR_LOG.error("SOCKS UDP relay stopped", e);
+        } finally {
+            for (Association association : associations) {
+                association.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+        }
+    }
+
+    /** One UDP ASSOCIATE session, alive as long as its control connection. */
+    final class Association {
+        private final InetAddress clientIp;
+        private final String clientKey;
+        private final int declaredPort;
+        private final DatagramChannel clientChannel;
+        private final DatagramChannel upstream;
+        private final IdleTimer idle;
+        private final TrafficMeters.Pair clientMeters;
+        private final Map<InetSocketAddress, Flow> flows = new ConcurrentHashMap<>();
+        private volatile InetSocketAddress clientAddress;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Association(Socket control, int declaredPort, Runnable onIdle) throws IOException {
+            this.clientIp = control.getInetAddress();
+            this.clientKey = clientIp.getHostAddress();
+            this.declaredPort = declaredPort;
+            this.clientMeters = TrafficMeters.forClient(clientKey);
+            clientChannel = DatagramChannel.open();
+            upstream = DatagramChannel.open();
+            try {
+                clientChannel.bind(new InetSocketAddress(control.getLocalAddress(), 0));
+                clientChannel.configureBlocking(false);
+                upstream.bind(null);
+                upstream.configureBlocking(false);
+            } catch (IOException e) {
+                closeChannels();
+                throw e;
+            }
+            idle = new IdleTimer(TimingWheel.shared(), TimeoutClass.PROXY_UDP_IDLE, onIdle).start();
+        }
+
+        /** Where the client sends its datagrams; goes into the UDP ASSOCIATE reply. */
+        SocketAddress getBoundAddress() throws IOException {
+            return clientChannel.getLocalAddress();
+        }
+
+        boolean hasIdled() {
+            return idle.hasFired();
+        }
+
+        private void register() throws IOException {
+            if (closed.get()) {
+                return;
+            }
+            clientChannel.register(selector, SelectionKey.OP_READ, this);
+            upstream.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        private void fromClient() throws IOException {
+            for (int i = 0; i < BATCH; i++) {
+                buffer.clear();
+                SocketAddress from = clientChannel.receive(buffer);
+                if (from == null) {
+                    return;
+                }
+                buffer.flip();
+                InetSocketAddress sender = (InetSocketAddress) from;
+                Socks5.UdpHeader header = Socks5.readUdpHeader(buffer);
+                if (!sender.getAddress().equals(clientIp)
+                    || (declaredPort != 0 && sender.getPort() != declaredPort)
+                    || header == null || header.port == 0) {
+                    DATAGRAMS_DROPPED.incrementAndGet();
+                    continue;
+                }
+                clientAddress = sender;
+                idle.touch();
+                if (header.address != null) {
+                    send(new InetSocketAddress(header.address, header.port), header.host, buffer);
+                } else {
+                    resolveAndSend(header, buffer);
+                }
+            }
+        }
+
+        /** Name lookups block, so they and the send run on an engine thread instead of the selector. */
+        private void resolveAndSend(Socks5.UdpHeader header, ByteBuffer payload) {
+            ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+            copy.put(payload).flip();
+            boolean queued = engine.execute(() -> {
+                try {
+                    InetAddress address = InetAddress.getByName(header.host);
+                    send(new InetSocketAddress(address, header.port), header.host, copy);
+                } catch (IOException e) {
+                    DATAGRAMS_DROPPED.incrementAndGet();
+                }
+            });
+            if (!queued) {
+                DATAGRAMS_DROPPED.incrementAndGet();
+            }
+        }
+
+        // DatagramChannel.send is safe to call from a resolver thread alongside the selector
+        private void send(InetSocketAddress destination, String host, ByteBuffer payload) throws IOException {
+            Flow flow = flows.get(destination);
+            if (flow == null) {
+                if (flows.size() >= MAX_FLOWS_PER_ASSOCIATION) {
+                    DATAGRAMS_DROPPED.incrementAndGet();
+                    return;
+                }
+                flow = flows.computeIfAbsent(destination, d -> new Flow(clientKey, host, d.getPort()));
+            }
+            int sent = upstream.send(payload, destination);
+            if (sent == 0) {
+                // Socket buffer full; UDP may drop, and the client will retry
+                DATAGRAMS_DROPPED.incrementAndGet();
+                return;
+            }
+            DATAGRAMS_UP.incrementAndGet();
+            flow.bytesUp.addAndGet(sent);
+            account(flow, sent, true);
+        }
+
+        private void fromUpstream() throws IOException {
+            for (int i = 0; i < BATCH; i++) {
+                buffer.clear();
+                buffer.position(Socks5.MAX_UDP_HEADER);
+                SocketAddress from = upstream.receive(buffer);
+                if (from == null) {
+                    return;
+                }
+                InetSocketAddress source = (InetSocketAddress) from;
+                Flow flow = flows.get(source);
+                InetSocketAddress client = clientAddress;
+                if (flow == null || client == null) {
+                    DATAGRAMS_DROPPED.incrementAndGet();
+                    continue;
+                }
+                int payload = buffer.position() - Socks5.MAX_UDP_HEADER;
+                int start = Socks5.writeUdpHeader(buffer, Socks5.MAX_UDP_HEADER, source);
+                buffer.limit(buffer.position());
+                buffer.position(start);
+                if (clientChannel.send(buffer, client) == 0) {
+                    DATAGRAMS_DROPPED.incrementAndGet();
+                    continue;
+                }
+                idle.touch();
+                DATAGRAMS_DOWN.incrementAndGet();
+                flow.bytesDown.addAndGet(payload);
+                account(flow, payload, false);
+            }
+        }
+
+        private void account(Flow flow, long bytes, boolean upstream) {
+            ProxyServer.countRelayedBytes(bytes);
+            flow.tally.add(bytes);
+            if (upstream) {
+                clientMeters.markUp(bytes);
+                TrafficMeters.global().up.mark(bytes);
+            } else {
+                clientMeters.markDown(bytes);
+                TrafficMeters.global().down.mark(bytes);
+            }
+        }
+
+        /** Ends the association and journals each destination; safe to call more than once. */
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            idle.cancel();
+            closeChannels();
+            associations.remove(this);
+            OPEN_ASSOCIATIONS.decrementAndGet();
+            SessionJournal.Outcome outcome = idle.hasFired()
+                ? SessionJournal.Outcome.IDLE_TIMEOUT : SessionJournal.Outcome.OK;
+            long now = System.currentTimeMillis();
+            for (Flow flow : flows.values()) {
+                flow.tally.close();
+                SessionJournal.record(new SessionJournal.Session(flow.startedMs, now, clientKey,
+                    flow.host, flow.port, SessionJournal.Kind.UDP, outcome, flow.bytesUp.get(), flow.bytesDown.get()));
+            }
+            flows.clear();
+        }
+
+        private void closeChannels() {
+            try {
+                clientChannel.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+            try {
+                upstream.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+        }
+    }
+
+    private static final class Flow {
+        final String host;
+        final int port;
+        final long startedMs = System.currentTimeMillis();
+        final TrafficSketches.Tally tally;
+        final AtomicLong bytesUp = new AtomicLong();
+        final AtomicLong bytesDown = new AtomicLong();
+
+        Flow(String client, String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.tally = TrafficSketches.open(client, host);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.wifi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitter summary (Metwally et al.) with weighted updates. Memory is
+ * fixed at {@code capacity} counters; when a new key arrives and the summary is full,
+ * the smallest counter is reassigned to it and its old count becomes the new key's
+ * error bound. Any key whose true weight exceeds total/capacity is guaranteed to be
+ * present. Counts can be scaled down to age out old traffic.
+ *
+ * <p>Not thread-safe; {@link TrafficSketches} guards its summaries with one lock.
+ */
+public final class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Counter> counters;
+
+    SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Adds {@code weight} to {@code key}.
+     *
+     * @return the key that was evicted to make room, or null
+     */
+    String offer(String key, double weight) {
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count += weight;
+            return null;
+        }
+        if (counters.size() < capacity) {
+            counters.put(key, new Counter(key, weight, 0));
+            return null;
+        }
+        Counter min = findMin();
+        counters.remove(min.key);
+        counters.put(key, new Counter(key, min.count + weight, min.count));
+        return min.key;
+    }
+
+    /** Multiplies every count and error by {@code factor}, dropping counters that reach ~0. */
+    void scale(double factor) {
+        List<String> empty = null;
+        for (Counter counter : counters.values()) {
+            counter.count *= factor;
+            counter.error *= factor;
+            if (counter.count < 1e-3) {
+                if (empty == null) {
+                    empty = new ArrayList<>();
+                }
+                empty.add(counter.key);
+            }
+        }
+        if (empty != null) {
+            for (String key : empty) {
+                counters.remove(key);
+            }
+        }
+    }
+
+    boolean contains(String key) {
+        return counters.containsKey(key);
+    }
+
+    void clear() {
+        counters.clear();
+    }
+
+    /** Up to {@code k} keys with the largest estimates, largest first. */
+    List<HeavyHitter> top(int k) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        Collections.sort(sorted, (a, b) -> Double.compare(b.count, a.count));
+        List<HeavyHitter> result = new ArrayList<>(Math.min(k, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < k; i++) {
+            Counter counter = sorted.get(i);
+            result.add(new HeavyHitter(counter.key, counter.count, counter.error));
+        }
+        return result;
+    }
+
+    private Counter findMin() {
+        Counter min = null;
+        for (Counter counter : counters.values()) {
+            if (min == null || counter.count < min.count) {
+                min = counter;
+            }
+        }
+        return min;
+    }
+
+    private static final class Counter {
+        final String key;
+        double count;
+        double error;
+
+        Counter(String key, double count, double error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /** A key with its estimated (decayed) weight; the true weight is at least estimate - error. */
+    public static final class HeavyHitter {
+        public final String key;
+        public final double estimate;
+        public final double error;
+
+        HeavyHitter(String key, double estimate, double error) {
+            this.key = key;
+            this.estimate = estimate;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.wifi;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+/**
+ * Brings the router up from a tap. The proxy listens on all interfaces, so it doesn't
+ * need the hotspot address and is started alongside the hotspot reservation instead of
+ * after it; the slow system-side reservation and the proxy bind then overlap. Class
+ * loading, reflection and pool threads are warmed by {@link EngineService} when the
+ * activity binds, and every step is recorded in {@link StartupTimeline}.
+ */
+public final class StartupOrchestrator {
+    private final Context context;
+
+    public StartupOrchestrator(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Starts the hotspot and proxy services together. {@code listener} is told once
+     * clients can browse, i.e. the hotspot is up and the proxy is listening; both
+     * milestones happen in the engine process and reach this timeline through
+     * {@link EngineBinder}.
+     *
+     * @param tapNanos {@link System#nanoTime} when the user asked to start
+     */
+    public void start(long tapNanos, String ssid, String password, int proxyPort,
+                      StartupTimeline.Listener listener) {
+        StartupTimeline.begin(tapNanos, listener,
+            StartupTimeline.HOTSPOT_STARTED, StartupTimeline.PROXY_LISTENING);
+
+        long start = System.nanoTime();
+        Intent hotspotIntent = new Intent(context, HotspotService.class);
+        hotspotIntent.putExtra(HotspotService.EXTRA_SSID, ssid);
+        hotspotIntent.putExtra(HotspotService.EXTRA_PASSWORD, password);
+        startForegroundService(hotspotIntent);
+        long hotspotRequested = System.nanoTime();
+        StartupTimeline.step("request hotspot service", start, hotspotRequested);
+
+        Intent proxyIntent = new Intent(context, ProxyService.class);
+        proxyIntent.putExtra(ProxyService.EXTRA_PORT, proxyPort);
+        startForegroundService(proxyIntent);
+        StartupTimeline.step("request proxy service", hotspotRequested, System.nanoTime());
+    }
+
+    /** Abandons the timeline of a start that failed or was stopped before it was ready. */
+    public void cancel() {
+        StartupTimeline.cancel();
+    }
+
+    private void startForegroundService(Intent intent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.wifi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Per-step timeline of the most recent router start, measured from the tap. Steps may
+ * be recorded from any thread or service in the process; the start is ready once every
+ * milestone passed to {@link #begin} has been marked, at which point the listener is
+ * told and the summary goes to {@link AppLogBuffer}.
+ *
+ * <p>Calls made while no start is in progress are ignored, so the services can record
+ * steps unconditionally, including when the system restarts them on its own.
+ *
+ * <p>The timeline lives in the UI process. The engine process installs a
+ * {@link Forwarder} that hands its steps over the engine binder, and the UI replays
+ * them with {@link #replay}; {@link System#nanoTime} is the same monotonic clock in both.
+ */
+public final class StartupTimeline {
+    private static final String TAG = "Startup";
+
+    public static final String PROXY_LISTENING = "proxy listening";
+    public static final String HOTSPOT_STARTED = "hotspot started";
+
+    public interface Listener {
+        /** Called on the thread that marked the last milestone. */
+        void onReady(long totalMs, List<Step> steps);
+    }
+
+    /** Receives every step and milestone recorded in this process, whether or not a start is active. */
+    public interface Forwarder {
+        void onStep(String name, long startNanos, long endNanos, boolean milestone);
+    }
+
+    private static final Object LOCK = new Object();
+    private static final Set<String> PENDING = new HashSet<>();
+    private static List<Step> steps = Collections.emptyList();
+    private static long originNanos;
+    private static boolean active;
+    private static Listener listener;
+    private static volatile Forwarder forwarder;
+
+    private StartupTimeline() {
+    }
+
+    /** One step; times are milliseconds since the tap. */
+    public static final class Step {
+        public final String name;
+        public final double startMs;
+        public final double endMs;
+        public final String thread;
+
+        Step(String name, double startMs, double endMs, String thread) {
+            this.name = name;
+            this.startMs = startMs;
+            this.endMs = endMs;
+            this.thread = thread;
+        }
+    }
+
+    /** Starts a new timeline at {@code originNanos}, replacing any unfinished one. */
+    public static void begin(long originNanos, Listener listener, String... milestones) {
+        synchronized (LOCK) {
+            StartupTimeline.originNanos = originNanos;
+            StartupTimeline.listener = listener;
+            steps = new ArrayList<>();
+            PENDING.clear();
+            Collections.addAll(PENDING, milestones);
+            active = true;
+        }
+    }
+
+    /** Abandons the current start, e.g. when it failed or was cancelled. */
+    public static void cancel() {
+        synchronized (LOCK) {
+            active = false;
+            listener = null;
+            PENDING.clear();
+        }
+    }
+
+    public static void setForwarder(Forwarder newForwarder) {
+        forwarder = newForwarder;
+    }
+
+    public static void step(String name, long startNanos, long endNanos) {
+        Forwarder target = forwarder;
+        if (target != null) {
+            target.onStep(name, startNanos, endNanos, false);
+        }
+        synchronized (LOCK) {
+            if (active) {
+                steps.add(new Step(name, offsetMs(startNanos), offsetMs(endNanos),
+                    Thread.currentThread().getName()));
+            }
+        }
+    }
+
+    /** Records {@code milestone} as reached now. */
+    public static void mark(String milestone) {
+        long now = System.nanoTime();
+        Forwarder target = forwarder;
+        if (target != null) {
+            target.onStep(milestone, now, now, true);
+        }
+        markAt(milestone, now);
+    }
+
+    /**
+     * Records a step forwarded from another process. Steps from before the current
+     * start began, e.g. replayed from an earlier start, are ignored.
+     */
+    public static void replay(String name, long startNanos, long endNanos, boolean milestone) {
+        synchronized (LOCK) {
+            if (!active || startNanos < originNanos) {
+                return;
+            }
+            if (!milestone) {
+                steps.add(new Step(name, offsetMs(startNanos), offsetMs(endNanos), "engine"));
+                return;
+            }
+        }
+        markAt(name, endNanos);
+    }
+
+    private static void markAt(String milestone, long now) {
+        Listener ready;
+        List<Step> finished;
+        long totalMs;
+        synchronized (LOCK) {
+            if (!active) {
+                return;
+            }
+            steps.add(new Step(milestone, offsetMs(now), offsetMs(now), Thread.currentThread().getName()));
+            if (!PENDING.remove(milestone) || !PENDING.isEmpty()) {
+                return;
+            }
+            active = false;
+            ready = listener;
+            listener = null;
+            Collections.sort(steps, (a, b) -> Double.compare(a.startMs, b.startMs));
+            finished = Collections.unmodifiableList(steps);
+            totalMs = Math.round(offsetMs(now));
+        }
+        AppLogBuffer.add(TAG, format(totalMs, finished));
+        if (ready != null) {
+            ready.onReady(totalMs, finished);
+        }
+    }
+
+    /** Steps of the last start, finished or not. */
+    public static List<Step> last() {
+        synchronized (LOCK) {
+            return new ArrayList<>(steps);
+        }
+    }
+
+    static String format(long totalMs, List<Step> steps) {
+        StringBuilder builder = new StringBuilder("Ready in ").append(totalMs).append(" ms");
+        for (Step step : steps) {
+            builder.append(String.format(Locale.US, "\n  %7.1f %7.1f ms  %s [%s]",
+                step.startMs, step.endMs - step.startMs, step.name, step.thread));
+        }
+        return builder.toString();
+    }
+
+    private static double offsetMs(long nanos) {
+        return (nanos - originNanos) / 1e6;
+    }
+}
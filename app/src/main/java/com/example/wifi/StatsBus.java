@@ -0,0 +1,86 @@
+package com.example.wifi;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Change notifications from the engine to whatever UI is visible. Publishers OR a
+ * change flag into a pending set; one dispatch on the shared {@link TimingWheel}
+ * delivers everything pending since the last one. While changes keep arriving the
+ * dispatch delay doubles up to {@link #MAX_DELAY_MS}, and drops back once things go
+ * quiet, so a busy router costs the UI a refresh every couple of seconds at most.
+ *
+ * <p>With no listener registered, {@link #publish} returns after one volatile read.
+ */
+public final class StatsBus {
+    public static final int TRAFFIC = 1;
+    public static final int TOP_TALKERS = 1 << 1;
+    public static final int LOG = 1 << 2;
+    /** Client list changes; published across processes by {@link EngineBinder}. */
+    public static final int CLIENTS = 1 << 3;
+    public static final int ALL = TRAFFIC | TOP_TALKERS | LOG | CLIENTS;
+
+    private static final long MIN_DELAY_MS = 250;
+    private static final long MAX_DELAY_MS = 2000;
+
+    /** Called on the timer thread with the flags that changed; post to the UI thread before touching views. */
+    public interface Listener {
+        void onStatsChanged(int changes);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+    private static final AtomicBoolean SCHEDULED = new AtomicBoolean(false);
+
+    // Written only by dispatch(), which runs on the wheel thread
+    private static volatile long delayMs = MIN_DELAY_MS;
+    private static volatile long lastDispatchMs;
+
+    private StatsBus() {
+    }
+
+    public static void addListener(Listener listener) {
+        LISTENERS.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        LISTENERS.remove(listener);
+        if (LISTENERS.isEmpty()) {
+            PENDING.set(0);
+        }
+    }
+
+    public static void publish(int changes) {
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+        if ((PENDING.get() & changes) != changes) {
+            PENDING.accumulateAndGet(changes, (a, b) -> a | b);
+        }
+        if (!SCHEDULED.get() && SCHEDULED.compareAndSet(false, true)) {
+            long delay = delayMs;
+            // The first change after a quiet spell shows up quickly whatever the back-off had reached
+            if (System.currentTimeMillis() - lastDispatchMs > 2 * delay) {
+                delay = MIN_DELAY_MS;
+            }
+            TimingWheel.shared().schedule(StatsBus::dispatch, delay);
+        }
+    }
+
+    private static void dispatch() {
+        // Cleared first so a publish racing with this dispatch schedules the next one
+        SCHEDULED.set(false);
+        int changes = PENDING.getAndSet(0);
+        if (changes == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean busy = now - lastDispatchMs <= 2 * delayMs + MIN_DELAY_MS;
+        delayMs = busy ? Math.min(delayMs * 2, MAX_DELAY_MS) : MIN_DELAY_MS;
+        lastDispatchMs = now;
+        for (Listener listener : LISTENERS) {
+            listener.onStatsChanged(changes);
+        }
+    }
+}
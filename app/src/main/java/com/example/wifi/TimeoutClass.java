@@ -0,0 +1,46 @@
+package com.example.wifi;
+
+/**
+ * Timeout classes applied through {@link TimingWheel}. Each class has its own
+ * configurable limit, persisted by {@link AppPreferences}.
+ */
+public enum TimeoutClass {
+    /** Client connect until the request header is parsed and the origin is connected. */
+    PROXY_HANDSHAKE("timeout_proxy_handshake", 15_000),
+    /** Plain HTTP exchange with no bytes flowing in either direction. */
+    PROXY_HTTP_IDLE("timeout_proxy_http_idle", 120_000),
+    /** CONNECT tunnel with no bytes flowing; long enough for long-polls and websockets. */
+    PROXY_TUNNEL_IDLE("timeout_proxy_tunnel_idle", 15 * 60_000),
+    /** How long a proxy client counts as connected after its last request. */
+    PROXY_CLIENT_SESSION("timeout_proxy_client_session", 2 * 60_000),
+    /** UDP flow through the VPN with no datagrams in either direction. */
+    VPN_UDP_IDLE("timeout_vpn_udp_idle", 60_000),
+    /** SOCKS UDP association with no datagrams in either direction. */
+    PROXY_UDP_IDLE("timeout_proxy_udp_idle", 2 * 60_000);
+
+    private final String prefKey;
+    private final long defaultMillis;
+    private volatile long millis;
+
+    TimeoutClass(String prefKey, long defaultMillis) {
+        this.prefKey = prefKey;
+        this.defaultMillis = defaultMillis;
+        this.millis = defaultMillis;
+    }
+
+    public String getPrefKey() {
+        return prefKey;
+    }
+
+    public long getDefaultMillis() {
+        return defaultMillis;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public void setMillis(long value) {
+        millis = value > 0 ? value : defaultMillis;
+    }
+}
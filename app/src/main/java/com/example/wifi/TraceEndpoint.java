@@ -0,0 +1,46 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@code GET /__traces} on the proxy port as Chrome trace-event JSON, optionally
+ * filtered with {@code ?client=<ip>}. Save the response and load it in
+ * {@code chrome://tracing} or Perfetto. Like {@link MetricsEndpoint}, only origin-form
+ * requests match. Traces name every client and the hosts it visited, so they are only
+ * served to the phone itself, e.g. over {@code adb forward}.
+ */
+final class TraceEndpoint {
+    static final String PATH = "/__traces";
+
+    private TraceEndpoint() {
+    }
+
+    static boolean isTraceRequest(ProxyServer.HttpRequest request) {
+        return "GET".equalsIgnoreCase(request.method) && request.path().equals(PATH);
+    }
+
+    /** True for loopback connections and ones from an address of this device. */
+    static boolean isAllowed(Socket client) {
+        InetAddress remote = client.getInetAddress();
+        return remote != null && (remote.isLoopbackAddress() || remote.equals(client.getLocalAddress()));
+    }
+
+    static void write(OutputStream out, ProxyServer.HttpRequest request) throws IOException {
+        StringBuilder json = new StringBuilder(16384);
+        ConnectionTrace.exportChromeJson(request.parameter("client"), json);
+        byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/json; charset=utf-8\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "Content-Disposition: inline; filename=\"proxy-traces.json\"\r\n"
+            + "Cache-Control: no-store\r\n"
+            + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+}
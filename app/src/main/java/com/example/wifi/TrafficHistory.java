@@ -0,0 +1,134 @@
+package com.example.wifi;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-memory round-robin throughput history, RRD style. Each resolution is a ring of
+ * primitive arrays holding bytes up and down per slot; the sampler writes one
+ * one-second sample at a time and the coarser rings accumulate it in place, so reading a
+ * graph is a copy of the ring and needs no sampling of its own.
+ *
+ * <p>About 65 KB in total: 600 one-second slots (10 minutes), 1440 one-minute slots
+ * (24 hours) and 720 one-hour slots (30 days), each two byte counts and a slot index.
+ */
+public final class TrafficHistory {
+    public enum Resolution {
+        SECOND(1000L, 600),
+        MINUTE(60 * 1000L, 1440),
+        HOUR(60 * 60 * 1000L, 720);
+
+        public final long slotMs;
+        public final int slots;
+
+        Resolution(long slotMs, int slots) {
+            this.slotMs = slotMs;
+            this.slots = slots;
+        }
+    }
+
+    private final Ring[] rings;
+
+    public TrafficHistory() {
+        Resolution[] resolutions = Resolution.values();
+        rings = new Ring[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            rings[i] = new Ring(resolutions[i]);
+        }
+    }
+
+    /** Adds the bytes seen during the second that ends at {@code timeMs}. */
+    public synchronized void record(long timeMs, long upBytes, long downBytes) {
+        for (Ring ring : rings) {
+            ring.add(timeMs, upBytes, downBytes);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Ring ring : rings) {
+            ring.clear();
+        }
+    }
+
+    /**
+     * Copies the ring for {@code resolution} covering the window that ends at
+     * {@code nowMs}, oldest slot first. Slots with no data read as zero.
+     */
+    public synchronized Series read(Resolution resolution, long nowMs) {
+        return rings[resolution.ordinal()].read(nowMs);
+    }
+
+    /** A copied window of history. Rates are in bytes per second, averaged over each slot. */
+    public static final class Series {
+        public final Resolution resolution;
+        /** Start time of the first slot, in epoch milliseconds. */
+        public final long startMs;
+        public final double[] upRate;
+        public final double[] downRate;
+
+        Series(Resolution resolution, long startMs, double[] upRate, double[] downRate) {
+            this.resolution = resolution;
+            this.startMs = startMs;
+            this.upRate = upRate;
+            this.downRate = downRate;
+        }
+
+        public int size() {
+            return upRate.length;
+        }
+
+        public long timeAt(int index) {
+            return startMs + index * resolution.slotMs;
+        }
+    }
+
+    private static final class Ring {
+        final Resolution resolution;
+        final long[] slotIndex;
+        final long[] up;
+        final long[] down;
+
+        Ring(Resolution resolution) {
+            this.resolution = resolution;
+            this.slotIndex = new long[resolution.slots];
+            this.up = new long[resolution.slots];
+            this.down = new long[resolution.slots];
+            Arrays.fill(slotIndex, -1);
+        }
+
+        void add(long timeMs, long upBytes, long downBytes) {
+            long index = Math.floorDiv(timeMs - 1, resolution.slotMs);
+            int slot = (int) Math.floorMod(index, (long) resolution.slots);
+            if (slotIndex[slot] != index) {
+                slotIndex[slot] = index;
+                up[slot] = 0;
+                down[slot] = 0;
+            }
+            up[slot] += upBytes;
+            down[slot] += downBytes;
+        }
+
+        void clear() {
+            Arrays.fill(slotIndex, -1);
+            Arrays.fill(up, 0);
+            Arrays.fill(down, 0);
+        }
+
+        Series read(long nowMs) {
+            int slots = resolution.slots;
+            long last = Math.floorDiv(nowMs - 1, resolution.slotMs);
+            long first = last - slots + 1;
+            double seconds = resolution.slotMs / 1000.0;
+            double[] upRate = new double[slots];
+            double[] downRate = new double[slots];
+            for (int i = 0; i < slots; i++) {
+                long index = first + i;
+                int slot = (int) Math.floorMod(index, (long) slots);
+                if (slotIndex[slot] == index) {
+                    upRate[i] = up[slot] / seconds;
+                    downRate[i] = down[slot] / seconds;
+                }
+            }
+            return new Series(resolution, first * resolution.slotMs, upRate, downRate);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.wifi;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide throughput meters, overall and per client, each split into upstream
+ * (client to internet) and downstream. A sampler on the {@link RouterEngine} timers
+ * ticks every meter once a second and appends the overall totals to a
+ * {@link TrafficHistory}, so the UI and exporters only ever read precomputed values.
+ *
+ * <p>The sampler runs while at least one service holds it via {@link #acquire()}.
+ */
+public final class TrafficMeters {
+    private static final String TAG = "TrafficMeters";
+    private static final long TICK_MS = 1000;
+    private static final long CLIENT_IDLE_EVICT_MS = 10 * 60 * 1000L;
+    /** Below this the displayed rate rounds to zero, so decay stops being worth a UI refresh. */
+    private static final double NOTIFY_MIN_RATE = 50;
+
+    private static final Pair GLOBAL = new Pair(null);
+    private static final ConcurrentHashMap<String, Pair> CLIENTS = new ConcurrentHashMap<>();
+    private static final TrafficHistory HISTORY = new TrafficHistory();
+    private static final Object LOCK = new Object();
+    private static RouterEngine.Periodic sampler;
+    private static int holders;
+    private static long lastTickNanos;
+
+    private TrafficMeters() {
+    }
+
+    /**
+     * Upstream and downstream meters for one client, or for the whole router. Producers
+     * count through {@link #markUp} and {@link #markDown}, which follow the client to its
+     * new meters if this pair was dropped while they still held it.
+     */
+    public static final class Pair {
+        public final RateMeter up = new RateMeter();
+        public final RateMeter down = new RateMeter();
+        private final String ip;
+        volatile long lastActiveMs = System.currentTimeMillis();
+        // Set once the pair is no longer in CLIENTS
+        private volatile boolean evicted;
+
+        Pair(String ip) {
+            this.ip = ip;
+        }
+
+        public double getRate(RateMeter.Window window) {
+            return up.getRate(window) + down.getRate(window);
+        }
+
+        public void markUp(long bytes) {
+            current().up.mark(bytes);
+        }
+
+        public void markDown(long bytes) {
+            current().down.mark(bytes);
+        }
+
+        /** This pair, or the client's current meters if this one was dropped. */
+        public Pair current() {
+            return evicted ? forClient(ip) : this;
+        }
+    }
+
+    public static void acquire() {
+        synchronized (LOCK) {
+            if (holders++ > 0) {
+                return;
+            }
+            lastTickNanos = System.nanoTime();
+            sampler = RouterEngine.get().every(TICK_MS, TICK_MS, false, TrafficMeters::tick);
+        }
+    }
+
+    public static void release() {
+        synchronized (LOCK) {
+            if (holders == 0 || --holders > 0) {
+                return;
+            }
+            sampler.cancel();
+            sampler = null;
+        }
+    }
+
+    public static Pair global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Meters for {@code ip}, created on first use. Callers may keep the result for the
+     * lifetime of a connection; meters idle for ten minutes are dropped by the sampler.
+     */
+    public static Pair forClient(String ip) {
+        Pair pair = CLIENTS.get(ip);
+        if (pair == null) {
+            Pair created = new Pair(ip);
+            pair = CLIENTS.putIfAbsent(ip, created);
+            if (pair == null) {
+                pair = created;
+            }
+        }
+        return pair;
+    }
+
+    /** Meters for clients that have carried traffic in the last ten minutes, keyed by IP. */
+    public static Map<String, Pair> clients() {
+        return CLIENTS;
+    }
+
+    public static TrafficHistory.Series history(TrafficHistory.Resolution resolution) {
+        return HISTORY.read(resolution, System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets per-client meters for a new session; the overall rate keeps decaying
+     * naturally. History is kept: it spans sessions and restarts of the router.
+     */
+    public static void reset() {
+        Iterator<Pair> iterator = CLIENTS.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().evicted = true;
+            iterator.remove();
+        }
+    }
+
+    private static void tick() {
+        try {
+            long nowNanos = System.nanoTime();
+            double elapsed = (nowNanos - lastTickNanos) / 1e9;
+            lastTickNanos = nowNanos;
+            long nowMs = System.currentTimeMillis();
+
+            long up = GLOBAL.up.tick(elapsed);
+            long down = GLOBAL.down.tick(elapsed);
+            HISTORY.record(nowMs, up, down);
+            if (up + down > 0 || GLOBAL.getRate(RateMeter.Window.FAST) >= NOTIFY_MIN_RATE) {
+                StatsBus.publish(StatsBus.TRAFFIC);
+            }
+
+            Iterator<Pair> iterator = CLIENTS.values().iterator();
+            while (iterator.hasNext()) {
+                Pair pair = iterator.next();
+                if (pair.up.tick(elapsed) + pair.down.tick(elapsed) > 0) {
+                    pair.lastActiveMs = nowMs;
+                } else if (nowMs - pair.lastActiveMs > CLIENT_IDLE_EVICT_MS) {
+                    pair.evicted = true;
+                    iterator.remove();
+                }
+            }
+        } catch (RuntimeException e) {
+            AppLogBuffer.add(TAG, "Meter tick failed: {}", e);
+        }
+    }
+}
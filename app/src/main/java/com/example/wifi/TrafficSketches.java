@@ -0,0 +1,191 @@
+package com.example.wifi;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-memory top-talker tracking for the proxy: heaviest clients, and heaviest
+ * destination hosts by bytes and by connections, overall and per client. Backed by
+ * {@link SpaceSaving} summaries whose counts halve every {@link #HALF_LIFE_MS}, so the
+ * rankings follow recent traffic rather than the whole session.
+ *
+ * <p>Per-client summaries are only kept for clients currently tracked by the client
+ * summary, which bounds memory regardless of how many addresses are seen.
+ */
+public final class TrafficSketches {
+    static final long HALF_LIFE_MS = 10 * 60 * 1000L;
+    private static final long DECAY_STEP_MS = 30 * 1000L;
+    private static final long FLUSH_INTERVAL_MS = 5000L;
+    private static final int HOST_CAPACITY = 64;
+    private static final int CLIENT_CAPACITY = 16;
+    private static final int PER_CLIENT_HOST_CAPACITY = 16;
+
+    private static final Object LOCK = new Object();
+    private static final SpaceSaving HOST_BYTES = new SpaceSaving(HOST_CAPACITY);
+    private static final SpaceSaving HOST_CONNECTIONS = new SpaceSaving(HOST_CAPACITY);
+    private static final SpaceSaving CLIENT_BYTES = new SpaceSaving(CLIENT_CAPACITY);
+    private static final Map<String, ClientSketch> PER_CLIENT = new HashMap<>();
+    private static long lastDecayMs = System.currentTimeMillis();
+
+    private TrafficSketches() {
+    }
+
+    public enum Metric {
+        BYTES,
+        CONNECTIONS
+    }
+
+    /**
+     * Starts accounting for one proxied connection. Counts the connection immediately;
+     * bytes added to the tally are folded into the summaries every few seconds and when
+     * the tally is closed, so long-lived tunnels show up while they are still open.
+     */
+    static Tally open(String client, String host) {
+        String clientKey = client != null ? client : "?";
+        String hostKey = host != null ? host.toLowerCase(Locale.US) : "?";
+        synchronized (LOCK) {
+            decayIfDue(System.currentTimeMillis());
+            HOST_CONNECTIONS.offer(hostKey, 1);
+            clientSketch(clientKey).connections.offer(hostKey, 1);
+        }
+        return new Tally(clientKey, hostKey).start();
+    }
+
+    public static List<SpaceSaving.HeavyHitter> topDestinations(Metric metric, int k) {
+        synchronized (LOCK) {
+            decayIfDue(System.currentTimeMillis());
+            return (metric == Metric.BYTES ? HOST_BYTES : HOST_CONNECTIONS).top(k);
+        }
+    }
+
+    public static List<SpaceSaving.HeavyHitter> topClients(int k) {
+        synchronized (LOCK) {
+            decayIfDue(System.currentTimeMillis());
+            return CLIENT_BYTES.top(k);
+        }
+    }
+
+    /** Top destinations for one client, or an empty list if the client is not being tracked. */
+    public static List<SpaceSaving.HeavyHitter> topDestinationsForClient(String client, Metric metric, int k) {
+        synchronized (LOCK) {
+            decayIfDue(System.currentTimeMillis());
+            ClientSketch sketch = PER_CLIENT.get(client);
+            if (sketch == null) {
+                return Collections.emptyList();
+            }
+            return (metric == Metric.BYTES ? sketch.bytes : sketch.connections).top(k);
+        }
+    }
+
+    public static void reset() {
+        synchronized (LOCK) {
+            HOST_BYTES.clear();
+            HOST_CONNECTIONS.clear();
+            CLIENT_BYTES.clear();
+            PER_CLIENT.clear();
+            lastDecayMs = System.currentTimeMillis();
+        }
+    }
+
+    private static void addBytes(String client, String host, long bytes) {
+        synchronized (LOCK) {
+            decayIfDue(System.currentTimeMillis());
+            HOST_BYTES.offer(host, bytes);
+            String evicted = CLIENT_BYTES.offer(client, bytes);
+            if (evicted != null) {
+                PER_CLIENT.remove(evicted);
+            }
+            clientSketch(client).bytes.offer(host, bytes);
+        }
+    }
+
+    private static ClientSketch clientSketch(String client) {
+        ClientSketch sketch = PER_CLIENT.get(client);
+        if (sketch == null) {
+            if (PER_CLIENT.size() >= CLIENT_CAPACITY) {
+                dropUntrackedClients();
+            }
+            sketch = new ClientSketch();
+            PER_CLIENT.put(client, sketch);
+        }
+        return sketch;
+    }
+
+    /** Forgets per-client summaries for clients that have fallen out of the client summary. */
+    private static void dropUntrackedClients() {
+        PER_CLIENT.keySet().removeIf(key -> !CLIENT_BYTES.contains(key));
+    }
+
+    private static void decayIfDue(long nowMs) {
+        long elapsed = nowMs - lastDecayMs;
+        if (elapsed < DECAY_STEP_MS) {
+            return;
+        }
+        double factor = Math.pow(0.5, (double) elapsed / HALF_LIFE_MS);
+        HOST_BYTES.scale(factor);
+        HOST_CONNECTIONS.scale(factor);
+        CLIENT_BYTES.scale(factor);
+        for (ClientSketch sketch : PER_CLIENT.values()) {
+            sketch.bytes.scale(factor);
+            sketch.connections.scale(factor);
+        }
+        lastDecayMs = nowMs;
+    }
+
+    private static final class ClientSketch {
+        final SpaceSaving bytes = new SpaceSaving(PER_CLIENT_HOST_CAPACITY);
+        final SpaceSaving connections = new SpaceSaving(PER_CLIENT_HOST_CAPACITY);
+    }
+
+    /** Byte counter for one proxied connection; {@link #add} is a single atomic add. */
+    static final class Tally {
+        private final String client;
+        private final String host;
+        private final AtomicLong pending = new AtomicLong();
+        private volatile TimingWheel.Timeout flush;
+        private volatile boolean closed;
+
+        private Tally(String client, String host) {
+            this.client = client;
+            this.host = host;
+        }
+
+        void add(long bytes) {
+            pending.addAndGet(bytes);
+        }
+
+        void close() {
+            closed = true;
+            TimingWheel.Timeout current = flush;
+            if (current != null) {
+                current.cancel();
+            }
+            drain();
+        }
+
+        private Tally start() {
+            flush = TimingWheel.shared().schedule(this::periodicFlush, FLUSH_INTERVAL_MS);
+            return this;
+        }
+
+        private void periodicFlush() {
+            drain();
+            if (!closed) {
+                start();
+            }
+        }
+
+        private void drain() {
+            long bytes = pending.getAndSet(0);
+            if (bytes > 0) {
+                addBytes(client, host, bytes);
+                ClientRegistry.recordActivity(ClientRegistry.Source.PROXY, client, bytes);
+                StatsBus.publish(StatsBus.TOP_TALKERS);
+            }
+        }
+    }
+}
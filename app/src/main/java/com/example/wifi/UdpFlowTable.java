@@ -0,0 +1,120 @@
+package com.example.wifi;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upstream UDP transport for {@link PacketRouter}. Each flow keeps one connected,
+ * non-blocking channel open until it has been idle for {@link TimeoutClass#VPN_UDP_IDLE}.
+ */
+public class UdpFlowTable implements PacketRouter.UdpTransport {
+    private static final AtomicInteger OPEN_FLOWS = new AtomicInteger(0);
+
+    private final ConcurrentHashMap<PacketRouter.FlowKey, UdpFlow> flows = new ConcurrentHashMap<>();
+    private final Protector protector;
+
+    /** Excludes upstream sockets from the VPN so they reach the mobile network. */
+    public interface Protector {
+        boolean protect(DatagramSocket socket);
+    }
+
+    public UdpFlowTable(Protector protector) {
+        this.protector = protector;
+    }
+
+    @Override
+    public int exchange(PacketRouter.FlowKey flowKey, String client, InetAddress dstIp, int dstPort, ByteBuffer payload,
+                        ByteBuffer reply)
+        throws IOException {
+        UdpFlow flow = getOrOpen(flowKey, client, dstIp, dstPort);
+        flow.idle.touch();
+        flow.bytesUp.addAndGet(flow.channel.write(payload));
+        int read = Math.max(flow.channel.read(reply), 0);
+        flow.bytesDown.addAndGet(read);
+        return read;
+    }
+
+    public int size() {
+        return flows.size();
+    }
+
+    /** Open flows across all tables in the process. */
+    public static int getOpenFlowCount() {
+        return OPEN_FLOWS.get();
+    }
+
+    public void closeAll() {
+        for (UdpFlow flow : flows.values()) {
+            flow.close();
+        }
+        flows.clear();
+    }
+
+    private UdpFlow getOrOpen(PacketRouter.FlowKey key, String client, InetAddress dstIp, int dstPort) throws IOException {
+        UdpFlow flow = flows.get(key);
+        if (flow != null && flow.channel.isOpen()) {
+            return flow;
+        }
+
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            protector.protect(channel.socket());
+            channel.connect(new InetSocketAddress(dstIp, dstPort));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        UdpFlow created = new UdpFlow(key, channel, client, dstIp, dstPort);
+        UdpFlow replaced = flows.put(key, created);
+        if (replaced == null) {
+            OPEN_FLOWS.incrementAndGet();
+        }
+        created.idle.start();
+        return created;
+    }
+
+    private final class UdpFlow {
+        final PacketRouter.FlowKey key;
+        final DatagramChannel channel;
+        final IdleTimer idle;
+        final String client;
+        final String host;
+        final int port;
+        final long startedMs = System.currentTimeMillis();
+        final AtomicLong bytesUp = new AtomicLong();
+        final AtomicLong bytesDown = new AtomicLong();
+
+        UdpFlow(PacketRouter.FlowKey key, DatagramChannel channel, String client, InetAddress dstIp, int dstPort) {
+            this.key = key;
+            this.channel = channel;
+            this.client = client;
+            this.host = dstIp.getHostAddress();
+            this.port = dstPort;
+            this.idle = new IdleTimer(TimingWheel.shared(), TimeoutClass.VPN_UDP_IDLE, this::close);
+        }
+
+        void close() {
+            idle.cancel();
+            if (flows.remove(key, this)) {
+                OPEN_FLOWS.decrementAndGet();
+                SessionJournal.record(new SessionJournal.Session(startedMs, System.currentTimeMillis(),
+                    client, host, port, SessionJournal.Kind.UDP,
+                    idle.hasFired() ? SessionJournal.Outcome.IDLE_TIMEOUT : SessionJournal.Outcome.OK,
+                    bytesUp.get(), bytesDown.get()));
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Ignore
+            }
+        }
+    }
+}
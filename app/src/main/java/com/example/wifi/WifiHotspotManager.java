@@ -2,6 +2,7 @@ package com.example.wifi;
 
 import android.content.Context;
 
+import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.LocalOnlyHotspotCallback;
 import android.net.wifi.WifiManager.LocalOnlyHotspotReservation;
@@ -11,8 +12,14 @@ import android.os.Handler;
 import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseIntArray;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Manages Local-only Hotspot for WiFi AP functionality.
@@ -26,6 +33,8 @@ public class WifiHotspotManager {
     private LocalOnlyHotspotReservation reservation;
     private HotspotCallback callback;
     private boolean isStarted = false;
+    private ChannelPlanner.Plan plan;
+    private boolean planApplied;
 
     public interface HotspotCallback {
         void onStarted(String ssid, String password);
@@ -56,10 +65,16 @@ public class WifiHotspotManager {
             return;
         }
 
+        long requestedAt = System.nanoTime();
+        plan = null;
+        planApplied = false;
         try {
             LocalOnlyHotspotCallback callbackWrapper = new LocalOnlyHotspotCallback() {
+                private boolean retriedWithoutPlan;
+
                 @Override
                 public void onStarted(LocalOnlyHotspotReservation res) {
+                    StartupTimeline.step("hotspot reservation", requestedAt, System.nanoTime());
                     reservation = res;
                     isStarted = true;
                     
@@ -82,7 +97,9 @@ public class WifiHotspotManager {
                     }
                     
                     Log.i(TAG, "Hotspot started - SSID: " + ssid);
+                    ChannelPlanner.sessionStarted(plan != null ? plan : ChannelPlanner.systemDefault(), planApplied);
                     
+                    StartupTimeline.mark(StartupTimeline.HOTSPOT_STARTED);
                     if (callback != null) {
                         callback.onStarted(ssid, password);
                     }
@@ -93,6 +110,7 @@ public class WifiHotspotManager {
                     isStarted = false;
                     reservation = null;
                     Log.i(TAG, "Hotspot stopped");
+                    ChannelPlanner.sessionEnded();
                     
                     if (callback != null) {
                         callback.onStopped();
@@ -102,6 +120,16 @@ public class WifiHotspotManager {
                 @Override
                 public void onFailed(int reason) {
                     isStarted = false;
+                    if (planApplied && !retriedWithoutPlan) {
+                        // The band/channel hint may be what the framework rejected
+                        retriedWithoutPlan = true;
+                        Log.w(TAG, "Hotspot failed with " + plan + " (reason " + reason + "); retrying without it");
+                        planApplied = false;
+                        plan = null;
+                        if (tryStartHotspotWithConfig(desiredSsid, desiredPassword, null, this)) {
+                            return;
+                        }
+                    }
                     Log.e(TAG, "Hotspot failed with reason: " + reason);
                     
                     if (callback != null) {
@@ -115,7 +143,8 @@ public class WifiHotspotManager {
             boolean shouldUseCustom = hasCustomConfig && hasPassphrase;
 
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && shouldUseCustom) {
-                if (tryStartHotspotWithConfig(desiredSsid, desiredPassword, callbackWrapper)) {
+                plan = planChannel();
+                if (tryStartHotspotWithConfig(desiredSsid, desiredPassword, plan, callbackWrapper)) {
                     return;
                 }
                 Log.w(TAG, "Custom hotspot config not supported; using system defaults");
@@ -130,29 +159,57 @@ public class WifiHotspotManager {
         }
     }
 
-    private boolean tryStartHotspotWithConfig(String ssid, String password, LocalOnlyHotspotCallback callback) {
+    /**
+     * Plans band and channel from the last cached scan; never triggers a scan itself, as
+     * scans are throttled and would delay the start. 6 GHz is left out because it requires
+     * WPA3-SAE and the hotspot is configured for WPA2-PSK.
+     */
+    private ChannelPlanner.Plan planChannel() {
+        List<ChannelPlanner.Observation> scan = new ArrayList<>();
+        List<ScanResult> results;
         try {
-            Class<?> configClass = Class.forName("android.net.wifi.SoftApConfiguration");
-            Class<?> builderClass = Class.forName("android.net.wifi.SoftApConfiguration$Builder");
-            Object builder = builderClass.getConstructor().newInstance();
-
-            Method setSsid = builderClass.getMethod("setSsid", String.class);
-            setSsid.invoke(builder, ssid);
-
-            Method setPassphrase = builderClass.getMethod("setPassphrase", String.class, int.class);
-            int securityType = (int) configClass.getField("SECURITY_TYPE_WPA2_PSK").get(null);
-            setPassphrase.invoke(builder, password, securityType);
+            results = wifiManager.getScanResults();
+        } catch (SecurityException e) {
+            results = Collections.emptyList();
+        }
+        if (results != null) {
+            for (ScanResult result : results) {
+                scan.add(new ChannelPlanner.Observation(result.frequency, result.level,
+                    channelWidthMhz(result.channelWidth)));
+            }
+        }
+        ChannelPlanner.Plan chosen = ChannelPlanner.plan(scan, wifiManager.is5GHzBandSupported(), false);
+        Log.i(TAG, "Channel plan: " + chosen);
+        return chosen;
+    }
 
-            Method build = builderClass.getMethod("build");
-            Object config = build.invoke(builder);
+    private static int channelWidthMhz(int channelWidth) {
+        switch (channelWidth) {
+            case 1:
+                return 40;
+            case 2:
+                return 80;
+            case 3:
+            case 4:
+                return 160;
+            default:
+                return 20;
+        }
+    }
 
-            Method start = wifiManager.getClass().getMethod(
-                "startLocalOnlyHotspot",
-                configClass,
-                java.util.concurrent.Executor.class,
-                LocalOnlyHotspotCallback.class
-            );
-            start.invoke(wifiManager, config, context.getMainExecutor(), callback);
+    private boolean tryStartHotspotWithConfig(String ssid, String password, ChannelPlanner.Plan plan,
+                                              LocalOnlyHotspotCallback callback) {
+        SoftApReflection reflection = SoftApReflection.get();
+        if (reflection == null) {
+            return false;
+        }
+        try {
+            Object builder = reflection.builderConstructor.newInstance();
+            reflection.setSsid.invoke(builder, ssid);
+            reflection.setPassphrase.invoke(builder, password, reflection.securityType);
+            planApplied = plan != null && reflection.applyPlan(builder, plan);
+            Object config = reflection.build.invoke(builder);
+            reflection.start.invoke(wifiManager, config, context.getMainExecutor(), callback);
             return true;
         } catch (Exception e) {
             Log.w(TAG, "Failed to apply custom hotspot config", e);
@@ -160,7 +217,118 @@ public class WifiHotspotManager {
         }
     }
 
+    /**
+     * Resolves the hidden {@code SoftApConfiguration} API ahead of the first start. Safe to
+     * call from any thread; later calls return immediately.
+     */
+    public static void prewarm() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            SoftApReflection.get();
+        }
+    }
+
+    /** Reflective handles for custom-config hotspots, looked up once per process. */
+    private static final class SoftApReflection {
+        private static volatile boolean resolved;
+        private static SoftApReflection instance;
+
+        final Constructor<?> builderConstructor;
+        final Method setSsid;
+        final Method setPassphrase;
+        final Method build;
+        final Method start;
+        final int securityType;
+        // System APIs that may be missing or blocked; each is null if unavailable
+        final Method setChannels;
+        final Method setChannel;
+        final Method setBand;
+
+        private SoftApReflection() throws ReflectiveOperationException {
+            Class<?> configClass = Class.forName("android.net.wifi.SoftApConfiguration");
+            Class<?> builderClass = Class.forName("android.net.wifi.SoftApConfiguration$Builder");
+            builderConstructor = builderClass.getConstructor();
+            setSsid = builderClass.getMethod("setSsid", String.class);
+            setPassphrase = builderClass.getMethod("setPassphrase", String.class, int.class);
+            build = builderClass.getMethod("build");
+            securityType = (int) configClass.getField("SECURITY_TYPE_WPA2_PSK").get(null);
+            start = WifiManager.class.getMethod("startLocalOnlyHotspot", configClass, Executor.class,
+                LocalOnlyHotspotCallback.class);
+            setChannels = optionalMethod(builderClass, "setChannels", SparseIntArray.class);
+            setChannel = optionalMethod(builderClass, "setChannel", int.class, int.class);
+            setBand = optionalMethod(builderClass, "setBand", int.class);
+        }
+
+        private static Method optionalMethod(Class<?> owner, String name, Class<?>... parameterTypes) {
+            try {
+                return owner.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Applies the most specific hint the platform accepts: band and channel, then
+         * band alone.
+         *
+         * @return whether any hint was applied
+         */
+        boolean applyPlan(Object builder, ChannelPlanner.Plan plan) {
+            if (plan.band == null) {
+                return false;
+            }
+            int band = plan.band.softApBand;
+            if (plan.channel > 0) {
+                try {
+                    if (setChannels != null) {
+                        SparseIntArray channels = new SparseIntArray();
+                        channels.put(band, plan.channel);
+                        setChannels.invoke(builder, channels);
+                        return true;
+                    }
+                    if (setChannel != null) {
+                        setChannel.invoke(builder, plan.channel, band);
+                        return true;
+                    }
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    Log.w(TAG, "Channel hint rejected; trying band only", e);
+                }
+            }
+            if (setBand != null) {
+                try {
+                    setBand.invoke(builder, band);
+                    return true;
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    Log.w(TAG, "Band hint rejected", e);
+                }
+            }
+            return false;
+        }
+
+        /** The cached handles, or null if this platform doesn't expose them. */
+        static SoftApReflection get() {
+            if (resolved) {
+                return instance;
+            }
+            synchronized (SoftApReflection.class) {
+                if (!resolved) {
+                    long start = System.nanoTime();
+                    try {
+                        instance = new SoftApReflection();
+                    } catch (ReflectiveOperationException | RuntimeException e) {
+                        Log.w(TAG, "Custom hotspot config API unavailable", e);
+                    }
+                    resolved = true;
+                    StartupTimeline.step("resolve SoftApConfiguration", start, System.nanoTime());
+                }
+                return instance;
+            }
+        }
+    }
+
     public void stopHotspot() {
+        if (isStarted) {
+            ChannelPlanner.sessionEnded();
+        }
         if (reservation != null) {
             reservation.close();
             reservation = null;
@@ -0,0 +1,59 @@
+package com.example.wifi.benchmark;
+
+import com.example.wifi.PacketRouter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * In-memory stand-ins for the TUN interface: a looping packet source backed by a
+ * pcap fixture, and a sink that only counts what the router writes back.
+ */
+final class PacketReplay {
+    private final byte[][] packets;
+    private int next;
+
+    private PacketReplay(byte[][] packets) {
+        this.packets = packets;
+    }
+
+    static PacketReplay fromResource(String fixture) throws IOException {
+        String path = "/pcap/" + fixture + ".pcap";
+        try (InputStream in = PacketReplay.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("Missing fixture " + path);
+            }
+            List<byte[]> list = PcapReader.readPackets(in);
+            if (list.isEmpty()) {
+                throw new IOException("Fixture " + path + " has no packets");
+            }
+            return new PacketReplay(list.toArray(new byte[0][]));
+        }
+    }
+
+    int size() {
+        return packets.length;
+    }
+
+    /** Copies the next packet into {@code buffer} the same way the TUN read loop does. */
+    void readInto(ByteBuffer buffer) {
+        byte[] packet = packets[next];
+        next = next + 1 == packets.length ? 0 : next + 1;
+        buffer.clear();
+        buffer.put(packet);
+        buffer.flip();
+    }
+
+    static final class CountingSink implements PacketRouter.PacketSink {
+        long packets;
+        long bytes;
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            packets++;
+            bytes += length;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.wifi.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes the raw-IP pcap fixtures replayed by {@link VpnPacketBenchmark}. The traffic
+ * is synthetic but shaped like a hotspot client: DNS and QUIC datagrams, pings, and a
+ * TCP-heavy mix. Real captures (raw IP, Ethernet or Linux cooked) can be dropped next
+ * to them and selected with {@code -p fixture=<name>}.
+ */
+public final class PcapFixtures {
+    private static final long SEED = 0x5EEDL;
+    private static final int PACKETS = 256;
+
+    private PcapFixtures() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : "src/main/resources/pcap");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        write(new File(dir, "udp.pcap"), udpMix(new Random(SEED)));
+        write(new File(dir, "icmp.pcap"), icmpMix(new Random(SEED)));
+        write(new File(dir, "ipv4-mix.pcap"), ipv4Mix(new Random(SEED)));
+    }
+
+    private static List<byte[]> udpMix(Random random) {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < PACKETS; i++) {
+            packets.add(udpPacket(random));
+        }
+        return packets;
+    }
+
+    private static List<byte[]> icmpMix(Random random) {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < PACKETS; i++) {
+            packets.add(icmpEcho(random, i));
+        }
+        return packets;
+    }
+
+    private static List<byte[]> ipv4Mix(Random random) {
+        List<byte[]> packets = new ArrayList<>();
+        for (int i = 0; i < PACKETS; i++) {
+            int roll = random.nextInt(100);
+            if (roll < 70) {
+                packets.add(tcpSegment(random));
+            } else if (roll < 95) {
+                packets.add(udpPacket(random));
+            } else {
+                packets.add(icmpEcho(random, i));
+            }
+        }
+        return packets;
+    }
+
+    private static byte[] udpPacket(Random random) {
+        boolean dns = random.nextInt(4) != 0;
+        int payload = dns ? 28 + random.nextInt(40) : 1200 + random.nextInt(50);
+        byte[] dst = dns ? new byte[]{8, 8, 8, 8} : randomPublicAddress(random);
+        int dstPort = dns ? 53 : 443;
+        ByteBuffer packet = ipv4Header(17, 8 + payload, dst);
+        packet.putShort((short) (40000 + random.nextInt(20000)));
+        packet.putShort((short) dstPort);
+        packet.putShort((short) (8 + payload));
+        packet.putShort((short) 0);
+        fill(packet, random, payload);
+        return packet.array();
+    }
+
+    private static byte[] icmpEcho(Random random, int sequence) {
+        int payload = 56;
+        ByteBuffer packet = ipv4Header(1, 8 + payload, randomPublicAddress(random));
+        packet.put((byte) 8);
+        packet.put((byte) 0);
+        packet.putShort((short) 0);
+        packet.putShort((short) 0x1234);
+        packet.putShort((short) sequence);
+        fill(packet, random, payload);
+        return packet.array();
+    }
+
+    private static byte[] tcpSegment(Random random) {
+        int payload = random.nextInt(3) == 0 ? 0 : 100 + random.nextInt(1300);
+        ByteBuffer packet = ipv4Header(6, 20 + payload, randomPublicAddress(random));
+        packet.putShort((short) (40000 + random.nextInt(20000)));
+        packet.putShort((short) (random.nextBoolean() ? 443 : 80));
+        packet.putInt(random.nextInt());
+        packet.putInt(random.nextInt());
+        packet.putShort((short) (0x5000 | (payload == 0 ? 0x10 : 0x18)));
+        packet.putShort((short) 65535);
+        packet.putShort((short) 0);
+        packet.putShort((short) 0);
+        fill(packet, random, payload);
+        return packet.array();
+    }
+
+    private static ByteBuffer ipv4Header(int protocol, int payloadLength, byte[] dst) {
+        int totalLength = 20 + payloadLength;
+        ByteBuffer packet = ByteBuffer.allocate(totalLength);
+        packet.put((byte) 0x45);
+        packet.put((byte) 0);
+        packet.putShort((short) totalLength);
+        packet.putShort((short) 0);
+        packet.putShort((short) 0x4000);
+        packet.put((byte) 64);
+        packet.put((byte) protocol);
+        packet.putShort((short) 0);
+        packet.put(new byte[]{10, 0, 0, 2});
+        packet.put(dst);
+        return packet;
+    }
+
+    private static byte[] randomPublicAddress(Random random) {
+        return new byte[]{(byte) (20 + random.nextInt(180)), (byte) random.nextInt(256),
+            (byte) random.nextInt(256), (byte) (1 + random.nextInt(254))};
+    }
+
+    private static void fill(ByteBuffer packet, Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        packet.put(bytes);
+    }
+
+    private static void write(File file, List<byte[]> packets) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(PcapReader.MAGIC_MICROS);
+            header.putShort((short) 2);
+            header.putShort((short) 4);
+            header.putInt(0);
+            header.putInt(0);
+            header.putInt(65535);
+            header.putInt(PcapReader.LINKTYPE_RAW);
+            out.write(header.array());
+
+            long micros = 0;
+            for (byte[] packet : packets) {
+                micros += 250;
+                ByteBuffer record = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+                record.putInt((int) (micros / 1_000_000L));
+                record.putInt((int) (micros % 1_000_000L));
+                record.putInt(packet.length);
+                record.putInt(packet.length);
+                out.write(record.array());
+                out.write(packet);
+            }
+        }
+    }
+}
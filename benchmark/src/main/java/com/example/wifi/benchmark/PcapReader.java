@@ -0,0 +1,83 @@
+package com.example.wifi.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal libpcap reader that returns the IP packets of a capture, as the TUN
+ * interface would deliver them. Supports raw IP, Ethernet and Linux cooked captures.
+ */
+public final class PcapReader {
+    static final int MAGIC_MICROS = 0xA1B2C3D4;
+    static final int MAGIC_NANOS = 0xA1B23C4D;
+    static final int LINKTYPE_ETHERNET = 1;
+    static final int LINKTYPE_RAW = 101;
+    static final int LINKTYPE_LINUX_SLL = 113;
+    static final int LINKTYPE_IPV4 = 228;
+
+    private PcapReader() {
+    }
+
+    public static List<byte[]> readPackets(InputStream in) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(readAll(in));
+        if (data.remaining() < 24) {
+            throw new IOException("Truncated pcap header");
+        }
+        int magic = data.getInt(0);
+        if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            magic = data.getInt(0);
+            if (magic != MAGIC_MICROS && magic != MAGIC_NANOS) {
+                throw new IOException("Not a pcap file");
+            }
+        }
+        int linkType = data.getInt(20);
+        int linkHeader = linkHeaderLength(linkType);
+
+        List<byte[]> packets = new ArrayList<>();
+        int offset = 24;
+        while (offset + 16 <= data.limit()) {
+            int capturedLength = data.getInt(offset + 8);
+            int start = offset + 16;
+            int end = start + capturedLength;
+            if (capturedLength < 0 || end > data.limit()) {
+                break;
+            }
+            if (capturedLength > linkHeader) {
+                packets.add(Arrays.copyOfRange(data.array(), start + linkHeader, end));
+            }
+            offset = end;
+        }
+        return packets;
+    }
+
+    private static int linkHeaderLength(int linkType) throws IOException {
+        switch (linkType) {
+            case LINKTYPE_RAW:
+            case LINKTYPE_IPV4:
+                return 0;
+            case LINKTYPE_ETHERNET:
+                return 14;
+            case LINKTYPE_LINUX_SLL:
+                return 16;
+            default:
+                throw new IOException("Unsupported pcap link type " + linkType);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            out.write(chunk, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.wifi.benchmark;
+
+import com.example.wifi.IdleTimer;
+import com.example.wifi.ProxyServer;
+import com.example.wifi.TimeoutClass;
+import com.example.wifi.TimingWheel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request hot paths of {@link ProxyServer}. Run with
+ * {@code ./gradlew :benchmark:jmh -PjmhInclude=ProxyHotPath}; ns/op and the gc
+ * profiler's B/op are written to build/results/jmh/results.json.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyHotPathBenchmark {
+
+    @State(Scope.Thread)
+    public static class RequestState {
+        @Param({"curl", "browser", "connect"})
+        public String headers;
+
+        ByteArrayInputStream input;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            input = new ByteArrayInputStream(requestBytes(headers));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TargetState {
+        @Param({"absolute", "absolute-port-query", "origin-form"})
+        public String uri;
+
+        ProxyServer.HttpRequest request;
+        ProxyServer.Target target;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            String raw;
+            switch (uri) {
+                case "absolute":
+                    raw = "GET http://example.com/ HTTP/1.1\r\nHost: example.com\r\n"
+                        + "User-Agent: curl/8.4.0\r\nAccept: */*\r\nProxy-Connection: Keep-Alive\r\n\r\n";
+                    break;
+                case "absolute-port-query":
+                    raw = "GET http://api.example.com:8080/v1/items/search?q=wifi+router&page=3&sort=desc HTTP/1.1\r\n"
+                        + "Host: api.example.com:8080\r\nAccept: application/json\r\n"
+                        + "Connection: keep-alive\r\n\r\n";
+                    break;
+                default:
+                    raw = new String(requestBytes("browser"), StandardCharsets.ISO_8859_1)
+                        .replace("GET http://www.example.org/news/article-2024?ref=home HTTP/1.1",
+                            "GET /news/article-2024?ref=home HTTP/1.1");
+                    break;
+            }
+            request = ProxyServer.HttpRequest.read(
+                new ByteArrayInputStream(raw.getBytes(StandardCharsets.ISO_8859_1)));
+            target = ProxyServer.resolveTarget(request);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class HostPortState {
+        @Param({"example.com:443", "example.com", "[2001:db8::1]:8443"})
+        public String value;
+    }
+
+    @State(Scope.Thread)
+    public static class CopyState {
+        @Param({"512", "16384", "1048576"})
+        public int payloadBytes;
+
+        ByteArrayInputStream input;
+        IdleTimer idle;
+        final OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            byte[] payload = new byte[payloadBytes];
+            new Random(7).nextBytes(payload);
+            input = new ByteArrayInputStream(payload);
+            // Never started: copyStream only touches it.
+            idle = new IdleTimer(new TimingWheel(1000, 8), TimeoutClass.PROXY_TUNNEL_IDLE, () -> { });
+        }
+    }
+
+    @Benchmark
+    public Object httpRequestRead(RequestState state) throws IOException {
+        state.input.reset();
+        return ProxyServer.HttpRequest.read(state.input);
+    }
+
+    @Benchmark
+    public byte[] buildForwardHeader(TargetState state) {
+        return ProxyServer.buildForwardHeader(state.request, state.target);
+    }
+
+    @Benchmark
+    public Object resolveTarget(TargetState state) throws IOException {
+        return ProxyServer.resolveTarget(state.request);
+    }
+
+    @Benchmark
+    public Object parseHostPort(HostPortState state) throws IOException {
+        return ProxyServer.parseHostPort(state.value, 443);
+    }
+
+    @Benchmark
+    public int copyStream(CopyState state) {
+        state.input.reset();
+        ProxyServer.copyStream(state.input, state.sink, state.idle, null, null);
+        return state.payloadBytes;
+    }
+
+    static byte[] requestBytes(String kind) {
+        String raw;
+        switch (kind) {
+            case "curl":
+                raw = "GET http://example.com/index.html HTTP/1.1\r\n"
+                    + "Host: example.com\r\n"
+                    + "User-Agent: curl/8.4.0\r\n"
+                    + "Accept: */*\r\n"
+                    + "Proxy-Connection: Keep-Alive\r\n\r\n";
+                break;
+            case "connect":
+                raw = "CONNECT www.google.com:443 HTTP/1.1\r\n"
+                    + "Host: www.google.com:443\r\n"
+                    + "Proxy-Connection: keep-alive\r\n"
+                    + "User-Agent: Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 "
+                    + "(KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36\r\n\r\n"
+                    + "\u0016\u0003\u0001\u0002\u0000\u0001\u0000\u0001\u00fc\u0003\u0003";
+                break;
+            default:
+                raw = "GET http://www.example.org/news/article-2024?ref=home HTTP/1.1\r\n"
+                    + "Host: www.example.org\r\n"
+                    + "Proxy-Connection: keep-alive\r\n"
+                    + "Upgrade-Insecure-Requests: 1\r\n"
+                    + "User-Agent: Mozilla/5.0 (Linux; Android 14; Pixel 8) AppleWebKit/537.36 "
+                    + "(KHTML, like Gecko) Chrome/124.0.0.0 Mobile Safari/537.36\r\n"
+                    + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,"
+                    + "image/webp,image/apng,*/*;q=0.8\r\n"
+                    + "Referer: http://www.example.org/\r\n"
+                    + "Accept-Encoding: gzip, deflate\r\n"
+                    + "Accept-Language: en-US,en;q=0.9,ja;q=0.8\r\n"
+                    + "Cookie: session=8f14e45fceea167a5a36dedd4bea2543; theme=dark; "
+                    + "_ga=GA1.2.1234567890.1700000000; consent=analytics%3Dfalse\r\n\r\n";
+                break;
+        }
+        return raw.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
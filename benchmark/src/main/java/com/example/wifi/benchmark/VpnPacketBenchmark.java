@@ -0,0 +1,91 @@
+package com.example.wifi.benchmark;
+
+import com.example.wifi.PacketRouter;
+import com.example.wifi.RouterLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays pcap fixtures through {@link PacketRouter#handlePacket}. One operation is one
+ * packet, so throughput mode reports packets per second, average-time mode reports ns
+ * per packet, and {@code gc.alloc.rate.norm} from {@code -prof gc} is bytes per packet.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VpnPacketBenchmark {
+    private static final int MTU = 1500;
+
+    @Param({"udp", "icmp", "ipv4-mix"})
+    public String fixture;
+
+    private PacketReplay replay;
+    private PacketRouter router;
+    private PacketReplay.CountingSink sink;
+    private ByteBuffer packet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        replay = PacketReplay.fromResource(fixture);
+        sink = new PacketReplay.CountingSink();
+        packet = ByteBuffer.allocate(MTU);
+        router = new PacketRouter(MTU, new EchoTransport(), bytes -> { });
+        RouterLog.setSink(new LastMessageSink());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long packetsPerSecond() {
+        replay.readInto(packet);
+        router.handlePacket(packet, sink);
+        return sink.bytes;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long nanosPerPacket() {
+        replay.readInto(packet);
+        router.handlePacket(packet, sink);
+        return sink.bytes;
+    }
+
+    /** Upstream that answers every datagram immediately with its own payload. */
+    private static final class EchoTransport implements PacketRouter.UdpTransport {
+        @Override
+        public int exchange(PacketRouter.FlowKey flowKey, String client, InetAddress dstIp, int dstPort, ByteBuffer payload,
+                            ByteBuffer reply) {
+            int length = Math.min(payload.remaining(), reply.remaining());
+            reply.put(payload.array(), payload.arrayOffset() + payload.position(), length);
+            return length;
+        }
+    }
+
+    /** Keeps the last message so log formatting is not optimised away. */
+    private static final class LastMessageSink implements RouterLog.Sink {
+        String lastMessage;
+
+        @Override
+        public void write(RouterLog.Level level, String tag, String template, Object[] args, Throwable error) {
+            lastMessage = RouterLog.format(template, args);
+        }
+    }
+}
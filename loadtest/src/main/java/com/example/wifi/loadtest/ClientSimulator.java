@@ -0,0 +1,155 @@
+package com.example.wifi.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated hotspot clients. Every client runs a few connection loops, each of which
+ * either opens a CONNECT tunnel and issues keep-alive requests through it, or sends
+ * one absolute-URI request as a plain HTTP proxy client would.
+ */
+final class ClientSimulator {
+    private final int proxyPort;
+    private final String originAuthority;
+    private final LoadTest.Options options;
+    private final LatencyRecorder requestLatency = new LatencyRecorder();
+    private final LatencyRecorder tunnelSetupLatency = new LatencyRecorder();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong tunnels = new AtomicLong();
+    private final AtomicLong plainRequests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    ClientSimulator(int proxyPort, String originAuthority, LoadTest.Options options) {
+        this.proxyPort = proxyPort;
+        this.originAuthority = originAuthority;
+        this.options = options;
+    }
+
+    void run(long deadlineNanos) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int client = 0; client < options.clients; client++) {
+            for (int conn = 0; conn < options.connectionsPerClient; conn++) {
+                long seed = client * 1000L + conn;
+                Thread thread = new Thread(() -> loop(seed, deadlineNanos),
+                    LoadTest.THREAD_PREFIX + "client-" + seed);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private void loop(long seed, long deadlineNanos) {
+        Random random = new Random(seed);
+        byte[] buffer = new byte[16 * 1024];
+        while (System.nanoTime() < deadlineNanos) {
+            try {
+                if (random.nextDouble() < options.connectRatio) {
+                    runTunnel(buffer, deadlineNanos);
+                } else {
+                    runPlainRequest(buffer);
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private void runTunnel(byte[] buffer, long deadlineNanos) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = openProxyConnection()) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(("CONNECT " + originAuthority + " HTTP/1.1\r\nHost: " + originAuthority + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            String header = HttpIo.readHeader(in);
+            if (header == null || HttpIo.statusCode(header) != 200) {
+                throw new IOException("CONNECT rejected");
+            }
+            tunnelSetupLatency.record(System.nanoTime() - start);
+            tunnels.incrementAndGet();
+
+            for (int i = 0; i < options.requestsPerTunnel && System.nanoTime() < deadlineNanos; i++) {
+                long requestStart = System.nanoTime();
+                out.write(("GET /bytes/" + options.responseBytes + " HTTP/1.1\r\nHost: "
+                    + originAuthority + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                readResponse(in, buffer);
+                requestLatency.record(System.nanoTime() - requestStart);
+            }
+        }
+    }
+
+    private void runPlainRequest(byte[] buffer) throws IOException {
+        long start = System.nanoTime();
+        try (Socket socket = openProxyConnection()) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET http://" + originAuthority + "/bytes/" + options.responseBytes
+                + " HTTP/1.1\r\nHost: " + originAuthority + "\r\nProxy-Connection: keep-alive\r\n"
+                + "Accept: */*\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            readResponse(in, buffer);
+            requestLatency.record(System.nanoTime() - start);
+            plainRequests.incrementAndGet();
+        }
+    }
+
+    private void readResponse(InputStream in, byte[] buffer) throws IOException {
+        String header = HttpIo.readHeader(in);
+        if (header == null) {
+            throw new IOException("No response");
+        }
+        int status = HttpIo.statusCode(header);
+        if (status != 200) {
+            throw new IOException("HTTP " + status);
+        }
+        bytesReceived.addAndGet(HttpIo.drain(in, HttpIo.contentLength(header), buffer));
+    }
+
+    private Socket openProxyConnection() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout((int) options.requestTimeoutMs);
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), proxyPort), 5000);
+        return socket;
+    }
+
+    LatencyRecorder getRequestLatency() {
+        return requestLatency;
+    }
+
+    LatencyRecorder getTunnelSetupLatency() {
+        return tunnelSetupLatency;
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    long getTunnels() {
+        return tunnels.get();
+    }
+
+    long getPlainRequests() {
+        return plainRequests.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.wifi.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/** Blocking HTTP/1.1 helpers shared by the origin and the client simulator. */
+final class HttpIo {
+    private HttpIo() {
+    }
+
+    /** Reads up to and including the blank line; returns null on clean EOF. */
+    static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+        int state = 0;
+        while (state < 4) {
+            int b = in.read();
+            if (b == -1) {
+                if (header.size() == 0) {
+                    return null;
+                }
+                throw new IOException("EOF inside header");
+            }
+            header.write(b);
+            if ((b == '\r' && (state == 0 || state == 2)) || (b == '\n' && (state == 1 || state == 3))) {
+                state++;
+            } else {
+                state = b == '\r' ? 1 : 0;
+            }
+            if (header.size() > 65536) {
+                throw new IOException("Header too large");
+            }
+        }
+        return new String(header.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+    static int statusCode(String header) throws IOException {
+        String[] parts = header.split(" ", 3);
+        if (parts.length < 2) {
+            throw new IOException("Bad status line");
+        }
+        return Integer.parseInt(parts[1].trim());
+    }
+
+    /** Returns the Content-Length value, or -1 when absent. */
+    static long contentLength(String header) {
+        for (String line : header.split("\r\n")) {
+            if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+                return Long.parseLong(line.substring(15).trim());
+            }
+        }
+        return -1;
+    }
+
+    /** Drains {@code length} bytes, or until EOF when {@code length} is -1. */
+    static long drain(InputStream in, long length, byte[] buffer) throws IOException {
+        long total = 0;
+        while (length < 0 || total < length) {
+            int want = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - total);
+            int read = in.read(buffer, 0, want);
+            if (read == -1) {
+                if (length >= 0) {
+                    throw new IOException("EOF after " + total + " of " + length + " bytes");
+                }
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
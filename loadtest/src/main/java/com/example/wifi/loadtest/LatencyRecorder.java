@@ -0,0 +1,37 @@
+package com.example.wifi.loadtest;
+
+import java.util.Arrays;
+
+/** Collects raw latency samples from many threads and reports exact percentiles. */
+final class LatencyRecorder {
+    private long[] samples = new long[1024];
+    private int count;
+
+    synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    synchronized int count() {
+        return count;
+    }
+
+    synchronized String summary() {
+        if (count == 0) {
+            return "n=0";
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return String.format(java.util.Locale.US,
+            "n=%d p50=%.1fms p99=%.1fms p999=%.1fms max=%.1fms",
+            count, millis(sorted, 0.50), millis(sorted, 0.99), millis(sorted, 0.999),
+            sorted[count - 1] / 1e6);
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.wifi.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process TCP relay that impairs traffic like a cellular uplink. Each chunk pays a
+ * serialisation delay against a shared per-direction bandwidth cap, then one-way
+ * latency plus uniform jitter. Since the relay sits above TCP, loss is modelled as
+ * the retransmission stall it causes: a lost chunk is delivered one RTO late.
+ * Delivery order within a connection is preserved.
+ */
+final class LinkEmulator implements AutoCloseable {
+    private static final int CHUNK = 16 * 1024;
+    private static final Chunk EOF = new Chunk(null, 0, 0);
+
+    private final ServerSocket serverSocket;
+    private final InetSocketAddress target;
+    private final Profile profile;
+    private final Bandwidth uplink;
+    private final Bandwidth downlink;
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /** Impairment settings; all values apply per direction. */
+    static final class Profile {
+        final long latencyMs;
+        final long jitterMs;
+        final double loss;
+        final long bandwidthKbps;
+
+        Profile(long latencyMs, long jitterMs, double loss, long bandwidthKbps) {
+            this.latencyMs = latencyMs;
+            this.jitterMs = jitterMs;
+            this.loss = loss;
+            this.bandwidthKbps = bandwidthKbps;
+        }
+
+        long retransmitPenaltyNanos() {
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(200, 4 * latencyMs));
+        }
+
+        @Override
+        public String toString() {
+            return "latency=" + latencyMs + "ms jitter=" + jitterMs + "ms loss=" + loss
+                + " bandwidth=" + (bandwidthKbps > 0 ? bandwidthKbps + "kbps" : "unlimited");
+        }
+    }
+
+    LinkEmulator(InetSocketAddress target, Profile profile) throws IOException {
+        this.target = target;
+        this.profile = profile;
+        this.uplink = new Bandwidth(profile.bandwidthKbps);
+        this.downlink = new Bandwidth(profile.bandwidthKbps);
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(this::acceptLoop, LoadTest.THREAD_PREFIX + "link-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket inbound = serverSocket.accept();
+                int id = connections.incrementAndGet();
+                Socket outbound = new Socket();
+                try {
+                    outbound.connect(target);
+                } catch (IOException e) {
+                    inbound.close();
+                    continue;
+                }
+                inbound.setTcpNoDelay(true);
+                outbound.setTcpNoDelay(true);
+                Random random = new Random(id);
+                new Pipe(inbound, outbound, uplink, random, "link-up-" + id).start();
+                new Pipe(outbound, inbound, downlink, new Random(~id), "link-down-" + id).start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    /** One direction of one connection: a reader that stamps arrival times and a writer that honours them. */
+    private final class Pipe {
+        private final Socket from;
+        private final Socket to;
+        private final Bandwidth bandwidth;
+        private final Random random;
+        private final String name;
+        private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+
+        Pipe(Socket from, Socket to, Bandwidth bandwidth, Random random, String name) {
+            this.from = from;
+            this.to = to;
+            this.bandwidth = bandwidth;
+            this.random = random;
+            this.name = name;
+        }
+
+        void start() {
+            Thread reader = new Thread(this::readLoop, LoadTest.THREAD_PREFIX + name + "-r");
+            Thread writer = new Thread(this::writeLoop, LoadTest.THREAD_PREFIX + name + "-w");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        private void readLoop() {
+            long lastArrival = 0;
+            byte[] buffer = new byte[CHUNK];
+            try {
+                InputStream in = from.getInputStream();
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    long departed = bandwidth.reserve(read);
+                    long arrival = departed + delayNanos();
+                    arrival = Math.max(arrival, lastArrival);
+                    lastArrival = arrival;
+                    queue.add(new Chunk(Arrays.copyOf(buffer, read), read, arrival));
+                }
+            } catch (IOException ignored) {
+                // Peer closed
+            }
+            queue.add(EOF);
+        }
+
+        private long delayNanos() {
+            long delayMs = profile.latencyMs;
+            if (profile.jitterMs > 0) {
+                delayMs += (long) ((random.nextDouble() * 2 - 1) * profile.jitterMs);
+            }
+            long delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+            if (profile.loss > 0 && random.nextDouble() < profile.loss) {
+                delay += profile.retransmitPenaltyNanos();
+            }
+            return delay;
+        }
+
+        private void writeLoop() {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == EOF) {
+                        break;
+                    }
+                    long wait = chunk.arrivalNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    out.write(chunk.data, 0, chunk.length);
+                    out.flush();
+                }
+                to.shutdownOutput();
+            } catch (IOException | InterruptedException e) {
+                closeQuietly(to);
+                closeQuietly(from);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final long arrivalNanos;
+
+        Chunk(byte[] data, int length, long arrivalNanos) {
+            this.data = data;
+            this.length = length;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+
+    /** Shared serialisation queue for one direction of the link. */
+    private static final class Bandwidth {
+        private final double nanosPerByte;
+        private long nextFreeNanos;
+
+        Bandwidth(long kbps) {
+            nanosPerByte = kbps > 0 ? 8_000_000.0 / kbps : 0;
+        }
+
+        /** Returns when the last byte of {@code bytes} leaves the link. */
+        synchronized long reserve(int bytes) {
+            long now = System.nanoTime();
+            if (nanosPerByte == 0) {
+                return now;
+            }
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + (long) (bytes * nanosPerByte);
+            return nextFreeNanos;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Ignore
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.wifi.loadtest;
+
+import com.example.wifi.ProxyServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives an in-process {@link ProxyServer} with many simulated hotspot clients while
+ * the proxy's upstream goes through an impaired "cellular" link to a loopback origin:
+ *
+ * <pre>clients -> ProxyServer -> LinkEmulator -> OriginServer</pre>
+ *
+ * Reports throughput, request latency percentiles, thread count and heap use.
+ */
+public final class LoadTest {
+    static final String THREAD_PREFIX = "lt-";
+
+    private LoadTest() {
+    }
+
+    static final class Options {
+        int clients = 20;
+        int connectionsPerClient = 2;
+        double connectRatio = 0.7;
+        int requestsPerTunnel = 5;
+        int responseBytes = 32 * 1024;
+        long durationSec = 30;
+        long warmupSec = 5;
+        long requestTimeoutMs = 30_000;
+        long latencyMs = 50;
+        long jitterMs = 15;
+        double loss = 0.01;
+        long bandwidthKbps = 20_000;
+        int uiAllocMbps = 0;
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("--help".equals(arg)) {
+                    usage();
+                    System.exit(0);
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--clients": o.clients = Integer.parseInt(value); break;
+                    case "--connections-per-client": o.connectionsPerClient = Integer.parseInt(value); break;
+                    case "--connect-ratio": o.connectRatio = Double.parseDouble(value); break;
+                    case "--requests-per-tunnel": o.requestsPerTunnel = Integer.parseInt(value); break;
+                    case "--response-bytes": o.responseBytes = Integer.parseInt(value); break;
+                    case "--duration": o.durationSec = Long.parseLong(value); break;
+                    case "--warmup": o.warmupSec = Long.parseLong(value); break;
+                    case "--timeout-ms": o.requestTimeoutMs = Long.parseLong(value); break;
+                    case "--latency": o.latencyMs = Long.parseLong(value); break;
+                    case "--jitter": o.jitterMs = Long.parseLong(value); break;
+                    case "--loss": o.loss = Double.parseDouble(value); break;
+                    case "--bandwidth-kbps": o.bandwidthKbps = Long.parseLong(value); break;
+                    case "--ui-alloc-mbps": o.uiAllocMbps = Integer.parseInt(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            return o;
+        }
+
+        static void usage() {
+            System.out.println("Options (defaults in brackets):\n"
+                + "  --clients N                simulated phones [20]\n"
+                + "  --connections-per-client N parallel connection loops per phone [2]\n"
+                + "  --connect-ratio R          share of CONNECT tunnels vs plain HTTP [0.7]\n"
+                + "  --requests-per-tunnel N    keep-alive requests per tunnel [5]\n"
+                + "  --response-bytes N         origin response size [32768]\n"
+                + "  --duration S / --warmup S  measured and warm-up seconds [30 / 5]\n"
+                + "  --timeout-ms N             client read timeout [30000]\n"
+                + "  --latency MS --jitter MS   one-way link latency and jitter [50 / 15]\n"
+                + "  --loss P                   chunk loss probability, paid as an RTO stall [0.01]\n"
+                + "  --bandwidth-kbps N         per-direction link cap, 0 = unlimited [20000]\n"
+                + "  --ui-alloc-mbps N          UI-like garbage allocated in the proxy's heap, MB/s [0]");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LinkEmulator.Profile profile = new LinkEmulator.Profile(
+            options.latencyMs, options.jitterMs, options.loss, options.bandwidthKbps);
+
+        try (OriginServer origin = new OriginServer(options.responseBytes);
+             LinkEmulator link = new LinkEmulator(
+                 new InetSocketAddress(InetAddress.getLoopbackAddress(), origin.getPort()), profile)) {
+            String authority = "127.0.0.1:" + link.getPort();
+            int proxyPort = freePort();
+
+            int baselineThreads = ResourceSampler.nonHarnessThreads();
+            ProxyServer proxy = new ProxyServer(proxyPort, message -> { });
+            try {
+                proxy.start();
+                awaitListening(proxyPort);
+                if (options.warmupSec > 0) {
+                    System.out.println("Warming up for " + options.warmupSec + "s...");
+                    new ClientSimulator(proxyPort, authority, options)
+                        .run(System.nanoTime() + TimeUnit.SECONDS.toNanos(options.warmupSec));
+                }
+
+                System.out.println("Running " + options.clients + " clients x "
+                    + options.connectionsPerClient + " connections for " + options.durationSec
+                    + "s over link " + profile);
+                ClientSimulator simulator = new ClientSimulator(proxyPort, authority, options);
+                UiChurn churn = options.uiAllocMbps > 0 ? new UiChurn(options.uiAllocMbps) : null;
+                try (ResourceSampler sampler = new ResourceSampler(baselineThreads)) {
+                    long start = System.nanoTime();
+                    simulator.run(start + TimeUnit.SECONDS.toNanos(options.durationSec));
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    report(simulator, sampler, elapsed);
+                } finally {
+                    if (churn != null) {
+                        churn.close();
+                    }
+                }
+            } finally {
+                proxy.stop();
+            }
+        }
+    }
+
+    private static void report(ClientSimulator simulator, ResourceSampler sampler, double elapsedSec) {
+        long requests = simulator.getRequestLatency().count();
+        System.out.println();
+        System.out.println(String.format(Locale.US,
+            "throughput  %.1f req/s, %.2f MB/s (%d tunnels, %d plain requests, %d errors)",
+            requests / elapsedSec, simulator.getBytesReceived() / elapsedSec / 1048576.0,
+            simulator.getTunnels(), simulator.getPlainRequests(), simulator.getErrors()));
+        System.out.println("request     " + simulator.getRequestLatency().summary());
+        System.out.println("tunnel      " + simulator.getTunnelSetupLatency().summary());
+        System.out.println("resources   " + sampler.summary());
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void awaitListening(int port) throws InterruptedException, IOException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 200);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+        throw new IOException("Proxy did not start listening on port " + port);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.wifi.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loopback HTTP/1.1 origin. {@code GET /bytes/<n>} answers with {@code n} bytes and a
+ * Content-Length, keeping the connection open unless the request says
+ * {@code Connection: close} (as the proxy does for plain HTTP).
+ */
+final class OriginServer implements AutoCloseable {
+    private static final int MAX_BODY = 64 * 1024 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final byte[] body;
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean running = true;
+
+    OriginServer(int maxBodyBytes) throws IOException {
+        body = new byte[Math.min(maxBodyBytes, MAX_BODY)];
+        new Random(1).nextBytes(body);
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread acceptor = new Thread(this::acceptLoop, LoadTest.THREAD_PREFIX + "origin-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread worker = new Thread(() -> serve(socket),
+                    LoadTest.THREAD_PREFIX + "origin-" + connections.incrementAndGet());
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                String header = HttpIo.readHeader(in);
+                if (header == null) {
+                    return;
+                }
+                String requestLine = header.substring(0, header.indexOf("\r\n"));
+                String[] parts = requestLine.split(" ");
+                int size = parseSize(parts.length > 1 ? parts[1] : "");
+                boolean close = header.toLowerCase(Locale.US).contains("\r\nconnection: close");
+                String response = "HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + size + "\r\n"
+                    + (close ? "Connection: close\r\n" : "")
+                    + "\r\n";
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                int remaining = size;
+                while (remaining > 0) {
+                    int chunk = Math.min(remaining, body.length);
+                    out.write(body, 0, chunk);
+                    remaining -= chunk;
+                }
+                out.flush();
+                if (close) {
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+            // Client went away
+        }
+    }
+
+    private int parseSize(String path) {
+        int slash = path.lastIndexOf('/');
+        try {
+            return Math.max(0, Math.min(MAX_BODY, Integer.parseInt(path.substring(slash + 1))));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+}
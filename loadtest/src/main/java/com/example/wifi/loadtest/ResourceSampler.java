@@ -0,0 +1,86 @@
+package com.example.wifi.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Samples heap use and thread counts while the load runs. Threads whose names carry
+ * {@link LoadTest#THREAD_PREFIX} belong to the harness and are reported separately,
+ * so the "proxy" figure tracks the engine under test.
+ */
+final class ResourceSampler implements AutoCloseable {
+    private static final long INTERVAL_MS = 250;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final Thread thread;
+    private final int baselineThreads;
+    private volatile boolean running = true;
+    private long peakHeap;
+    private long heapSum;
+    private int samples;
+    private int peakProxyThreads;
+    private int peakTotalThreads;
+
+    /**
+     * @param baselineThreads {@link #nonHarnessThreads()} taken before the proxy started,
+     *                        so JVM service threads are excluded from the proxy count
+     */
+    ResourceSampler(int baselineThreads) {
+        this.baselineThreads = baselineThreads;
+        thread = new Thread(this::loop, LoadTest.THREAD_PREFIX + "sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap = Math.max(peakHeap, heap);
+        heapSum += heap;
+        samples++;
+
+        int[] counts = countThreads();
+        peakTotalThreads = Math.max(peakTotalThreads, counts[1]);
+        peakProxyThreads = Math.max(peakProxyThreads, counts[0] - baselineThreads);
+    }
+
+    static int nonHarnessThreads() {
+        return countThreads()[0];
+    }
+
+    /** Returns {non-harness threads, all threads}. */
+    private static int[] countThreads() {
+        int total = 0;
+        int harness = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            total++;
+            if (t.getName().startsWith(LoadTest.THREAD_PREFIX)) {
+                harness++;
+            }
+        }
+        return new int[]{total - harness, total};
+    }
+
+    synchronized String summary() {
+        long avgHeap = samples == 0 ? 0 : heapSum / samples;
+        return String.format(java.util.Locale.US,
+            "heap avg=%.1fMB peak=%.1fMB | threads peak proxy=%d total=%d",
+            avgHeap / 1048576.0, peakHeap / 1048576.0, peakProxyThreads, peakTotalThreads);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
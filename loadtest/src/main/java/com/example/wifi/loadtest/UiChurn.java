@@ -0,0 +1,65 @@
+package com.example.wifi.loadtest;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Stands in for a UI sharing the engine's heap: allocates log-line and view-model
+ * garbage at a fixed rate and keeps the last few seconds of it reachable, so collections
+ * have live data to trace and promote. Running the load with and without it shows what
+ * the separate {@code :engine} process saves the relay path.
+ */
+final class UiChurn implements AutoCloseable {
+    private static final long TICK_MS = 10;
+    private static final int RETAINED_SECONDS = 2;
+
+    private final long bytesPerTick;
+    private final int retainedTicks;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    UiChurn(int megabytesPerSecond) {
+        bytesPerTick = megabytesPerSecond * 1024L * 1024L * TICK_MS / 1000;
+        retainedTicks = (int) (RETAINED_SECONDS * 1000 / TICK_MS);
+        thread = new Thread(this::loop, LoadTest.THREAD_PREFIX + "ui-churn");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        ArrayDeque<Object[]> retained = new ArrayDeque<>();
+        long sequence = 0;
+        while (running) {
+            long deadline = System.nanoTime() + TICK_MS * 1_000_000;
+            Object[] tick = new Object[64];
+            long allocated = 0;
+            int slot = 0;
+            while (allocated < bytesPerTick) {
+                String line = String.format(Locale.US, "%d 12:00:00.000 UI: frame %d drew %d rows",
+                    sequence, sequence, sequence % 97);
+                sequence++;
+                // Roughly the String, its backing array and the formatter's scratch
+                allocated += 48 + 2L * line.length() + 256;
+                tick[slot++ & 63] = line;
+            }
+            retained.addLast(tick);
+            if (retained.size() > retainedTicks) {
+                retained.removeFirst();
+            }
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
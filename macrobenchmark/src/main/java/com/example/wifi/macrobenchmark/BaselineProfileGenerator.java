@@ -0,0 +1,44 @@
+package com.example.wifi.macrobenchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import kotlin.Unit;
+
+/**
+ * Collects the baseline profile for :app: cold start, router start, and a batch of
+ * plain and tunnelled requests so the proxy's accept, parse and relay paths are hot.
+ * Rules for the VPN packet loop, which needs user consent, are kept by hand in
+ * {@code app/src/main/baseline-prof.txt}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+    private static final int REQUESTS = 20;
+
+    @Rule
+    public final BaselineProfileRule rule = new BaselineProfileRule();
+
+    @Test
+    public void routerJourney() {
+        rule.collect(RouterJourney.PACKAGE, scope -> {
+            try (RouterJourney.Origin origin = new RouterJourney.Origin(16 * 1024)) {
+                RouterJourney.grantPermissions(scope);
+                scope.pressHome();
+                scope.startActivityAndWait();
+                RouterJourney.startRouter(scope);
+                for (int i = 0; i < REQUESTS; i++) {
+                    RouterJourney.plainRequest(origin);
+                    RouterJourney.tunnelRequest(origin);
+                }
+                RouterJourney.stopRouter(scope);
+            } catch (Exception e) {
+                throw new IllegalStateException("Router journey failed", e);
+            }
+            return Unit.INSTANCE;
+        });
+    }
+}
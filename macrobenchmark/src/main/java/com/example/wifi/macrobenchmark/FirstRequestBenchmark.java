@@ -0,0 +1,73 @@
+package com.example.wifi.macrobenchmark;
+
+import android.os.Trace;
+
+import androidx.annotation.OptIn;
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.ExperimentalMetricApi;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Time from tapping "Start Router" on a freshly started app to the first response
+ * through the proxy, i.e. what a client waits for after install or update. The span is
+ * traced from this process, which sees the same start and end the user does.
+ */
+@RunWith(AndroidJUnit4.class)
+@OptIn(markerClass = ExperimentalMetricApi.class)
+public class FirstRequestBenchmark {
+    private static final String SECTION = "FirstProxiedRequest";
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    @Test
+    public void firstRequestNoCompilation() {
+        firstRequest(new CompilationMode.None());
+    }
+
+    @Test
+    public void firstRequestBaselineProfile() {
+        firstRequest(new CompilationMode.Partial(BaselineProfileMode.Require));
+    }
+
+    private void firstRequest(CompilationMode mode) {
+        rule.measureRepeated(
+            RouterJourney.PACKAGE,
+            Collections.singletonList(new TraceSectionMetric(SECTION, TraceSectionMetric.Mode.First, false)),
+            mode,
+            StartupMode.COLD,
+            ITERATIONS,
+            scope -> {
+                try (RouterJourney.Origin origin = new RouterJourney.Origin(16 * 1024)) {
+                    RouterJourney.grantPermissions(scope);
+                    scope.pressHome();
+                    scope.startActivityAndWait();
+                    Trace.beginSection(SECTION);
+                    try {
+                        RouterJourney.toggle(scope.getDevice(), "Start Router");
+                        RouterJourney.awaitProxy();
+                        RouterJourney.tunnelRequest(origin);
+                    } finally {
+                        Trace.endSection();
+                    }
+                    RouterJourney.stopRouter(scope);
+                } catch (Exception e) {
+                    throw new IllegalStateException("First request failed", e);
+                }
+                return Unit.INSTANCE;
+            });
+    }
+}
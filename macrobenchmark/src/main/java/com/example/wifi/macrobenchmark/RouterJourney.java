@@ -0,0 +1,184 @@
+package com.example.wifi.macrobenchmark;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The user journey shared by the profile generator and the benchmarks: start the router
+ * from the main screen, send plain and CONNECT requests through its proxy to a loopback
+ * origin run by this process, and stop it again.
+ */
+final class RouterJourney {
+    static final String PACKAGE = "com.example.wifi";
+    /** {@code ProxyService.DEFAULT_PORT}; the journey never changes the saved port. */
+    static final int PROXY_PORT = 8888;
+
+    private static final long UI_TIMEOUT_MS = 10_000;
+    private static final long PROXY_TIMEOUT_MS = 10_000;
+    private static final String[] PERMISSIONS = {
+        "android.permission.ACCESS_FINE_LOCATION",
+        "android.permission.NEARBY_WIFI_DEVICES",
+        "android.permission.POST_NOTIFICATIONS",
+    };
+
+    private RouterJourney() {
+    }
+
+    /** Grants the runtime permissions up front so no dialog interrupts the journey. */
+    static void grantPermissions(MacrobenchmarkScope scope) throws IOException {
+        for (String permission : PERMISSIONS) {
+            // Fails harmlessly for permissions the API level doesn't know
+            scope.getDevice().executeShellCommand("pm grant " + PACKAGE + " " + permission);
+        }
+    }
+
+    /** Taps "Start Router" and returns once the proxy accepts connections. */
+    static void startRouter(MacrobenchmarkScope scope) throws IOException, InterruptedException {
+        toggle(scope.getDevice(), "Start Router");
+        awaitProxy();
+    }
+
+    /** Taps "Stop Router" if the router is running. */
+    static void stopRouter(MacrobenchmarkScope scope) {
+        UiDevice device = scope.getDevice();
+        UiObject2 button = device.wait(Until.findObject(By.res(PACKAGE, "toggleButton").text("Stop Router")),
+            UI_TIMEOUT_MS);
+        if (button != null) {
+            button.click();
+        }
+    }
+
+    static void toggle(UiDevice device, String label) {
+        UiObject2 button = device.wait(Until.findObject(By.res(PACKAGE, "toggleButton").text(label)), UI_TIMEOUT_MS);
+        if (button == null) {
+            throw new IllegalStateException("No \"" + label + "\" button on screen");
+        }
+        button.click();
+    }
+
+    static void awaitProxy() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROXY_TIMEOUT_MS);
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), PROXY_PORT), 200);
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Proxy did not start listening on port " + PROXY_PORT, e);
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    /** One plain request through the proxy; returns the response size. */
+    static int plainRequest(Origin origin) throws IOException {
+        try (Socket socket = openProxy()) {
+            write(socket, "GET http://" + origin.authority() + "/ HTTP/1.1\r\nHost: " + origin.authority()
+                + "\r\nConnection: close\r\n\r\n");
+            return drain(socket.getInputStream());
+        }
+    }
+
+    /** One request through a CONNECT tunnel; returns the response size after the tunnel reply. */
+    static int tunnelRequest(Origin origin) throws IOException {
+        try (Socket socket = openProxy()) {
+            write(socket, "CONNECT " + origin.authority() + " HTTP/1.1\r\nHost: " + origin.authority() + "\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            String status = readHead(in);
+            if (!status.startsWith("HTTP/1.1 200")) {
+                throw new IOException("CONNECT rejected: " + status);
+            }
+            write(socket, "GET / HTTP/1.1\r\nHost: " + origin.authority() + "\r\nConnection: close\r\n\r\n");
+            return drain(in);
+        }
+    }
+
+    private static Socket openProxy() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), PROXY_PORT), 2_000);
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static void write(Socket socket, String text) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int last4 = 0;
+        while (last4 != 0x0D0A0D0A) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed before the end of the head");
+            }
+            head.write(b);
+            last4 = (last4 << 8) | b;
+        }
+        return head.toString("ISO-8859-1");
+    }
+
+    private static int drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    /** Loopback HTTP origin answering every request with a fixed body and closing. */
+    static final class Origin implements AutoCloseable {
+        private final ServerSocket server;
+        private final byte[] response;
+
+        Origin(int bodyBytes) throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            byte[] head = ("HTTP/1.1 200 OK\r\nContent-Length: " + bodyBytes
+                + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            response = new byte[head.length + bodyBytes];
+            System.arraycopy(head, 0, response, 0, head.length);
+            Thread thread = new Thread(this::serve, "journey-origin");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String authority() {
+            return "127.0.0.1:" + server.getLocalPort();
+        }
+
+        private void serve() {
+            while (!server.isClosed()) {
+                try (Socket client = server.accept()) {
+                    readHead(client.getInputStream());
+                    client.getOutputStream().write(response);
+                } catch (IOException e) {
+                    // Closed, or a client went away mid-request
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.wifi.macrobenchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * Cold start of the main screen, without any AOT compilation and with the baseline
+ * profile applied, so the two results show what the profile buys.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public final MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    @Test
+    public void coldStartNoCompilation() {
+        coldStart(new CompilationMode.None());
+    }
+
+    @Test
+    public void coldStartBaselineProfile() {
+        coldStart(new CompilationMode.Partial(BaselineProfileMode.Require));
+    }
+
+    private void coldStart(CompilationMode mode) {
+        rule.measureRepeated(
+            RouterJourney.PACKAGE,
+            Collections.singletonList(new StartupTimingMetric()),
+            mode,
+            StartupMode.COLD,
+            ITERATIONS,
+            scope -> {
+                scope.pressHome();
+                scope.startActivityAndWait();
+                return Unit.INSTANCE;
+            });
+    }
+}